@@ -37,49 +37,221 @@ SOFTWARE.
 package com.oracle.timg.demo.iot.demogateway.caches;
 
 import java.io.IOException;
-import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
 
+import com.oracle.timg.demo.iot.demogateway.executors.GatewayExecutors;
+import com.oracle.timg.demo.iot.demogateway.executors.GatewayExecutors.Upstream;
 import com.oracle.timg.demo.iot.demogateway.ociinterations.VaultServiceDetails;
 
+import io.micronaut.context.annotation.Property;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
 import jakarta.inject.Inject;
 import jakarta.inject.Singleton;
 import lombok.extern.java.Log;
 
 /**
- * A very simple class to hold authentication information
+ * A class to hold authentication information
  * 
  * It will cache the mappings data locally, this is not the most secure option
- * (the memory could be accessed externally to the process), and it doesn't
- * allow for secret version updates
+ * (the memory could be accessed externally to the process).
+ * 
+ * This is called from multiple event processing threads at once, if there is no
+ * entry for an auth id then only the first caller will retrieve the secret from
+ * the vault, any others asking for the same auth id while that's happening will
+ * wait for the same result. Entries expire after a configurable time so updated
+ * secret versions are picked up, and once an entry has been held for a
+ * (configurable) proportion of that time it will be reloaded in the background
+ * while the current value continues to be used, so callers don't normally have
+ * to wait for the vault when an entry expires.
  */
 @Singleton
 @Log
 public class AuthIdToAuthValueCache {
-	private HashMap<String, String> mappings = new HashMap<>();
+	private final Map<String, CacheEntry> mappings = new ConcurrentHashMap<>();
 	private final VaultServiceDetails vaultServiceDetails;
+	private final long ttlNanos;
+	private final long refreshAheadNanos;
+	private final int ttl;
+	private final int refreshAheadPercentage;
+	private final GatewayExecutors gatewayExecutors;
+	private final ExecutorService refreshExecutor;
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+	private final LongAdder loads = new LongAdder();
+	private final LongAdder failedLoads = new LongAdder();
+	private final LongAdder refreshes = new LongAdder();
+	private final LongAdder loadTimeNanos = new LongAdder();
 
 	@Inject
-	public AuthIdToAuthValueCache(VaultServiceDetails vaultServiceDetails)
+	public AuthIdToAuthValueCache(VaultServiceDetails vaultServiceDetails, GatewayExecutors gatewayExecutors,
+			@Property(name = "gateway.caches.authvalue.ttl", defaultValue = "3600") int ttl,
+			@Property(name = "gateway.caches.authvalue.refreshahead", defaultValue = "80") int refreshAheadPercentage)
 			throws IllegalArgumentException, IOException {
+		if ((refreshAheadPercentage < 1) || (refreshAheadPercentage > 100)) {
+			throw new IllegalArgumentException(
+					"gateway.caches.authvalue.refreshahead must be between 1 and 100, it is " + refreshAheadPercentage);
+		}
 		this.vaultServiceDetails = vaultServiceDetails;
+		this.gatewayExecutors = gatewayExecutors;
+		this.refreshExecutor = gatewayExecutors.newTaskExecutor("auth-cache-refresh");
+		this.ttl = ttl;
+		this.refreshAheadPercentage = refreshAheadPercentage;
+		this.ttlNanos = TimeUnit.SECONDS.toNanos(ttl);
+		this.refreshAheadNanos = (ttlNanos / 100) * refreshAheadPercentage;
 	}
 
 	public String getAuthData(String authId) {
 		log.finer(() -> "Getting secret contents for authId " + authId);
-		if (mappings.containsKey(authId)) {
-			String cachedData = mappings.get(authId);
-			log.finer(() -> "Located cached secret contents is " + cachedData + " for authId " + authId);
+		long now = System.nanoTime();
+		CacheEntry entry = mappings.get(authId);
+		if ((entry != null) && entry.isLoaded() && !entry.isExpired(now)) {
+			hits.increment();
+			if (entry.needsRefresh(now) && entry.refreshing.compareAndSet(false, true)) {
+				log.fine(() -> "Refreshing secret contents in the background for authId " + authId);
+				refreshExecutor.execute(() -> refresh(authId, entry));
+			}
+			String cachedData = entry.value.getNow(null);
+			log.finer(() -> "Located cached secret contents for authId " + authId);
 			return cachedData;
 		}
-		log.fine(() -> "No cached secret contents for authId, getting from OCI " + authId);
-		// this will return null
-		// that's what we use to indicate no secrete data anyway so that's fine to add
-		// to the map
-		String authData = vaultServiceDetails.getVaultProcessor().getSecretContents(authId);
-		log.finer(() -> "Retrieved cached secret contents of  " + authData + " for authId " + authId);
-		// stash it for future use.
-		mappings.put(authId, authData);
-		return authData;
+		misses.increment();
+		// either there is no entry, it's expired, or it's currently being loaded, only
+		// one thread gets to put a new entry in place and do the load, the others will
+		// wait for it
+		CacheEntry newEntry = new CacheEntry();
+		CacheEntry activeEntry = mappings.compute(authId, (key, existing) -> {
+			if ((existing != null) && (!existing.isLoaded() || !existing.isExpired(now))) {
+				return existing;
+			}
+			return newEntry;
+		});
+		if (activeEntry == newEntry) {
+			log.fine(() -> "No cached secret contents for authId, getting from OCI " + authId);
+			load(authId, newEntry);
+		} else {
+			log.finer(() -> "Waiting for secret contents for authId " + authId + " being retrieved by another thread");
+		}
+		try {
+			return activeEntry.value.join();
+		} catch (CompletionException e) {
+			log.warning("Problem getting secret contents for authId " + authId + ", " + e.getLocalizedMessage());
+			return null;
+		}
+	}
+
+	private void load(String authId, CacheEntry entry) {
+		long loadStart = System.nanoTime();
+		try {
+			// this will return null if there is no secret, that's what we use to indicate
+			// no secret data anyway so that's fine to cache
+			String authData = gatewayExecutors.callUpstream(Upstream.VAULT,
+					() -> vaultServiceDetails.getSecretContents(authId));
+			recordLoad(loadStart);
+			entry.loadedAt = System.nanoTime();
+			entry.value.complete(authData);
+			log.finer(() -> "Retrieved secret contents for authId " + authId);
+		} catch (RuntimeException e) {
+			recordLoad(loadStart);
+			failedLoads.increment();
+			// remove the entry so the next request will try again
+			mappings.remove(authId, entry);
+			entry.value.completeExceptionally(e);
+		}
+	}
+
+	private void refresh(String authId, CacheEntry currentEntry) {
+		refreshes.increment();
+		CacheEntry refreshedEntry = new CacheEntry();
+		long loadStart = System.nanoTime();
+		try {
+			String authData = gatewayExecutors.callUpstream(Upstream.VAULT,
+					() -> vaultServiceDetails.getSecretContents(authId));
+			recordLoad(loadStart);
+			refreshedEntry.loadedAt = System.nanoTime();
+			refreshedEntry.value.complete(authData);
+			// only replace the entry we were asked to refresh, if it's been replaced
+			// already then that's a newer value anyway
+			mappings.replace(authId, currentEntry, refreshedEntry);
+			log.finer(() -> "Refreshed secret contents for authId " + authId);
+		} catch (RuntimeException e) {
+			recordLoad(loadStart);
+			failedLoads.increment();
+			// leave the existing value in place, it will be tried again once it expires
+			log.warning("Problem refreshing secret contents for authId " + authId + ", " + e.getLocalizedMessage());
+		}
+	}
+
+	private void recordLoad(long loadStart) {
+		loads.increment();
+		loadTimeNanos.add(System.nanoTime() - loadStart);
+	}
+
+	public String getConfig() {
+		return "AuthIdToAuthValueCache ttl=" + ttl + " seconds, refresh ahead at " + refreshAheadPercentage
+				+ "% of the ttl";
+	}
+
+	public int getSize() {
+		return mappings.size();
+	}
 
+	public long getHitCount() {
+		return hits.sum();
+	}
+
+	public long getMissCount() {
+		return misses.sum();
+	}
+
+	public String getStatus() {
+		long hitCount = hits.sum();
+		long missCount = misses.sum();
+		long loadCount = loads.sum();
+		long requests = hitCount + missCount;
+		double hitRatio = requests == 0 ? 0 : ((double) hitCount) / requests;
+		double averageLoadMillis = loadCount == 0 ? 0 : (loadTimeNanos.sum() / 1000000.0) / loadCount;
+		return "AuthIdToAuthValueCache has " + mappings.size() + " entries, hits=" + hitCount + ", misses="
+				+ missCount + ", hitRatio=" + String.format("%.3f", hitRatio) + ", loads=" + loadCount
+				+ ", failedLoads=" + failedLoads.sum() + ", backgroundRefreshes=" + refreshes.sum()
+				+ ", averageLoadTime=" + String.format("%.1f", averageLoadMillis) + "ms";
+	}
+
+	@PostConstruct
+	public void postConstruct() {
+		log.info(getConfig());
+	}
+
+	@PreDestroy
+	public void preDestroy() {
+		refreshExecutor.shutdownNow();
+		log.info(getStatus());
+	}
+
+	private class CacheEntry {
+		private final CompletableFuture<String> value = new CompletableFuture<>();
+		private final AtomicBoolean refreshing = new AtomicBoolean(false);
+		// only set before value is completed so is visible to anything that sees the
+		// completed value
+		private volatile long loadedAt;
+
+		boolean isLoaded() {
+			return value.isDone() && !value.isCompletedExceptionally();
+		}
+
+		boolean isExpired(long now) {
+			return (now - loadedAt) > ttlNanos;
+		}
+
+		boolean needsRefresh(long now) {
+			return (now - loadedAt) > refreshAheadNanos;
+		}
 	}
 }
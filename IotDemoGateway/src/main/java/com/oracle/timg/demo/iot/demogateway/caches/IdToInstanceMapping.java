@@ -36,24 +36,49 @@ SOFTWARE.
  */
 package com.oracle.timg.demo.iot.demogateway.caches;
 
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
 
 import com.oracle.bmc.iot.model.DigitalTwinInstance;
 import com.oracle.bmc.iot.model.DigitalTwinModel;
+import com.oracle.timg.demo.iot.demogateway.executors.GatewayExecutors;
+import com.oracle.timg.demo.iot.demogateway.executors.GatewayExecutors.Upstream;
 import com.oracle.timg.demo.iot.demogateway.ociinterations.IotServiceDetails;
 import com.oracle.timg.demo.iot.demogateway.ociinterations.MissingOciResourceException;
 
 import io.micronaut.context.annotation.Property;
 import io.micronaut.context.annotation.Requires;
 import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
 import jakarta.inject.Inject;
 import jakarta.inject.Singleton;
 import lombok.extern.java.Log;
 
 /**
- * A very simple class to handle retrieving and caching iot instance data
+ * A class to handle retrieving and caching iot instance data
+ * 
+ * If several threads look for the same instance at the same time only one
+ * request will be made to OCI and they will all share the result, if the
+ * instance is not found that's remembered for a short time so a burst of events
+ * for a new device doesn't result in a burst of OCI requests. Creation of
+ * instances is also coalesced (one creation per display name at a time) and the
+ * number of creations running in parallel is limited so onboarding a large
+ * number of devices at once doesn't overwhelm the IoT control plane.
+ * 
+ * If the instance mapping snapshot is enabled the mappings are loaded from it
+ * at startup and then reconciled against OCI in the background, the snapshot is
+ * re-written periodically when the mappings have changed and on shutdown.
  * 
  */
 @Singleton
@@ -62,19 +87,73 @@ import lombok.extern.java.Log;
 @Requires(property = "gateway.iotservice.digitaltwinmodel.name")
 public class IdToInstanceMapping {
 	private final IotServiceDetails iotServiceDetails;
+	private final GatewayExecutors gatewayExecutors;
+	private final InstanceMappingSnapshot instanceMappingSnapshot;
+	private final int snapshotInterval;
+	private final AtomicBoolean snapshotDirty = new AtomicBoolean(false);
+	private ScheduledExecutorService snapshotWriter;
+	private volatile boolean reconciled = false;
 	private final String digitalTwinModelName;
 	private final DigitalTwinModel digitalTwinModel;
 	private final Map<String, DigitalTwinInstance> mappings = new ConcurrentHashMap<>();
+	// lookups and creations that are currently running
+	private final Map<String, CompletableFuture<DigitalTwinInstance>> lookupsInProgress = new ConcurrentHashMap<>();
+	private final Map<String, CompletableFuture<DigitalTwinInstance>> creationsInProgress = new ConcurrentHashMap<>();
+	// display names that were not found and when (in nanoTime) that stops being
+	// trusted
+	private final Map<String, Long> notFound = new ConcurrentHashMap<>();
+	private final int negativeTtl;
+	private final long negativeTtlNanos;
+	private final int negativeMaxSize;
+	private final int maxParallelCreations;
+	private final Semaphore creationPermits;
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder negativeHits = new LongAdder();
+	private final LongAdder remoteLookups = new LongAdder();
+	private final LongAdder coalescedLookups = new LongAdder();
+	private final LongAdder creations = new LongAdder();
+	private final LongAdder coalescedCreations = new LongAdder();
+
+	/**
+	 * Does the actual work of creating an instance, it's up to the caller to decide
+	 * how that's done (e.g. what secret to use)
+	 */
+	@FunctionalInterface
+	public interface DigitalTwinInstanceCreator {
+		public DigitalTwinInstance create(String displayName) throws MissingOciResourceException;
+	}
+
+	/**
+	 * the instance and if this caller created it, created is false if the caller
+	 * waited for a creation already in progress or the instance already existed
+	 */
+	public record DigitalTwinInstanceCreation(DigitalTwinInstance instance, boolean created) {
+	}
 
 	@Inject
-	public IdToInstanceMapping(IotServiceDetails iotServiceDetails,
-			@Property(name = "gateway.iotservice.digitaltwinmodel.name") String digitalTwinModelName) throws Exception {
+	public IdToInstanceMapping(IotServiceDetails iotServiceDetails, GatewayExecutors gatewayExecutors,
+			InstanceMappingSnapshot instanceMappingSnapshot,
+			@Property(name = "gateway.iotservice.digitaltwinmodel.name") String digitalTwinModelName,
+			@Property(name = "gateway.caches.instancemapping.negativettl", defaultValue = "5000") int negativeTtl,
+			@Property(name = "gateway.caches.instancemapping.negativemaxsize", defaultValue = "100000") int negativeMaxSize,
+			@Property(name = "gateway.instance.maxparallelcreations", defaultValue = "8") int maxParallelCreations,
+			@Property(name = "gateway.caches.instancemapping.snapshot.interval", defaultValue = "60") int snapshotInterval)
+			throws Exception {
 		// stash the inputs away
 		this.iotServiceDetails = iotServiceDetails;
+		this.gatewayExecutors = gatewayExecutors;
+		this.instanceMappingSnapshot = instanceMappingSnapshot;
+		this.snapshotInterval = snapshotInterval;
 		this.digitalTwinModelName = digitalTwinModelName;
+		this.negativeTtl = negativeTtl;
+		this.negativeTtlNanos = TimeUnit.MILLISECONDS.toNanos(negativeTtl);
+		this.negativeMaxSize = negativeMaxSize;
+		this.maxParallelCreations = maxParallelCreations;
+		this.creationPermits = new Semaphore(maxParallelCreations);
 
-		this.digitalTwinModel = iotServiceDetails.getIoTProcessor()
-				.getDigitalTwinModel(iotServiceDetails.getIotDomain(), digitalTwinModelName);
+		// the iot service details have already located the model (using the same
+		// property) so don't look it up again
+		this.digitalTwinModel = iotServiceDetails.getDigitalTwinModel();
 		if (digitalTwinModel == null) {
 			throw new MissingOciResourceException("Cannot locate digital twin model " + digitalTwinModelName
 					+ " in iot domain " + iotServiceDetails.getIotDomainName() + " in iot domain group "
@@ -84,55 +163,300 @@ public class IdToInstanceMapping {
 
 	}
 
-	public DigitalTwinInstance getDigitalTwinInstance(String displayName) {
+	/**
+	 * @param displayName
+	 * @return the instance, or null if there isn't one
+	 * @throws MissingOciResourceException if it couldn't be looked up, the caller
+	 *                                     must not treat this as the instance not
+	 *                                     existing
+	 */
+	public DigitalTwinInstance getDigitalTwinInstance(String displayName) throws MissingOciResourceException {
 		log.fine(() -> "Looking for digital twin instance named " + displayName);
-		if (mappings.containsKey(displayName)) {
-			DigitalTwinInstance dti = mappings.get(displayName);
+		DigitalTwinInstance cached = mappings.get(displayName);
+		if (cached != null) {
+			hits.increment();
 			log.finer("Located cached digital twin instance named " + displayName);
+			return cached;
+		}
+		// if we've recently looked and not found it then don't ask again yet
+		Long notFoundUntil = notFound.get(displayName);
+		if (notFoundUntil != null) {
+			if (System.nanoTime() - notFoundUntil < 0) {
+				negativeHits.increment();
+				log.finer(() -> "Digital twin instance named " + displayName + " was recently not found in oci");
+				return null;
+			}
+			notFound.remove(displayName, notFoundUntil);
+		}
+		// only one thread does the lookup, any others wait for it's result
+		CompletableFuture<DigitalTwinInstance> lookup = new CompletableFuture<>();
+		CompletableFuture<DigitalTwinInstance> existingLookup = lookupsInProgress.putIfAbsent(displayName, lookup);
+		if (existingLookup != null) {
+			coalescedLookups.increment();
+			log.finer(() -> "Waiting for in progress lookup of digital twin instance named " + displayName);
+			try {
+				return existingLookup.join();
+			} catch (CompletionException e) {
+				log.warning("Problem in shared lookup of digital twin instance named " + displayName + ", "
+						+ e.getLocalizedMessage());
+				throw asMissingOciResourceException(e.getCause(),
+						"Problem in shared lookup of digital twin instance named " + displayName);
+			}
+		}
+		try {
+			// this will return null if not found, for this we need that to trigger a
+			// re-search if requested again (once the negative entry expires) in case it's
+			// been added, so don't add it to the map
+			log.finer(
+					() -> "Cant locate cached digital twin instance named " + displayName + " requesting it from oci");
+			remoteLookups.increment();
+			DigitalTwinInstance dti = gatewayExecutors.callUpstream(Upstream.IOT_CONTROL_PLANE,
+					() -> iotServiceDetails.getDigitalTwinInstance(displayName));
+			if (dti != null) {
+				log.finer(() -> "Got cached digital twin instance named " + displayName + " from oci");
+				mappings.put(displayName, dti);
+			} else {
+				log.finer(() -> "Can't find digital twin instance named " + displayName + " in oci");
+				rememberNotFound(displayName);
+			}
+			lookup.complete(dti);
 			return dti;
+		} catch (RuntimeException e) {
+			// the waiters and this thread get the same exception
+			MissingOciResourceException failure = asMissingOciResourceException(e,
+					"Problem looking up digital twin instance named " + displayName);
+			lookup.completeExceptionally(failure);
+			throw failure;
+		} finally {
+			lookupsInProgress.remove(displayName, lookup);
 		}
-		// this will return null if not found, for this we need that to trigger a
-		// re-search if requested again in case it's been added, so don't add it to the
-		// map
-		log.finer(() -> "Cant locate cached digital twin instance named " + displayName + " requesting it from oci");
-		DigitalTwinInstance dti = iotServiceDetails.getIoTProcessor()
-				.getDigitalTwinInstance(iotServiceDetails.getIotDomain(), displayName);
-		if (dti != null) {
-			log.finer(() -> "Got cached digital twin instance named " + displayName + " from oci");
-			mappings.put(displayName, dti);
-		} else {
-			log.finer(() -> "Can't find digital twin instance named " + displayName + " in oci");
+	}
+
+	/**
+	 * creates the instance using the creator, if there is already a creation in
+	 * progress for the display name this will wait for that and return it's result
+	 * instead. The number of creations running at the same time is limited
+	 * 
+	 * @param displayName
+	 * @param creator
+	 * @return the instance and if this call created it
+	 * @throws MissingOciResourceException if the creation failed, whatever the
+	 *                                     underlying problem was
+	 */
+	public DigitalTwinInstanceCreation createDigitalTwinInstance(String displayName,
+			DigitalTwinInstanceCreator creator) throws MissingOciResourceException {
+		CompletableFuture<DigitalTwinInstance> creation = new CompletableFuture<>();
+		CompletableFuture<DigitalTwinInstance> existingCreation = creationsInProgress.putIfAbsent(displayName,
+				creation);
+		if (existingCreation != null) {
+			coalescedCreations.increment();
+			log.info(() -> "Waiting for in progress creation of digital twin instance named " + displayName);
+			try {
+				return new DigitalTwinInstanceCreation(existingCreation.join(), false);
+			} catch (CompletionException e) {
+				throw asMissingOciResourceException(e.getCause(),
+						"Problem in shared creation of digital twin instance named " + displayName);
+			}
+		}
+		try {
+			// it may have been created since the caller looked
+			DigitalTwinInstance dti = mappings.get(displayName);
+			boolean created = false;
+			if (dti == null) {
+				try {
+					creationPermits.acquire();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new MissingOciResourceException(
+							"Interrupted waiting to create digital twin instance named " + displayName);
+				}
+				try {
+					creations.increment();
+					dti = creator.create(displayName);
+				} finally {
+					creationPermits.release();
+				}
+				if (dti == null) {
+					throw new MissingOciResourceException("Creation of digital twin instance named " + displayName
+							+ " did not return an instance");
+				}
+				// stash the details so we don't try and create it again later
+				save(displayName, dti);
+				created = true;
+			}
+			creation.complete(dti);
+			return new DigitalTwinInstanceCreation(dti, created);
+		} catch (MissingOciResourceException e) {
+			creation.completeExceptionally(e);
+			throw e;
+		} catch (RuntimeException e) {
+			// e.g. a BmcException, the caller and any waiters get the same checked
+			// exception so they all clean up the same way
+			MissingOciResourceException failure = asMissingOciResourceException(e,
+					"Problem creating digital twin instance named " + displayName);
+			creation.completeExceptionally(failure);
+			throw failure;
+		} finally {
+			creationsInProgress.remove(displayName, creation);
+		}
+	}
+
+	private static MissingOciResourceException asMissingOciResourceException(Throwable cause, String message) {
+		if (cause instanceof MissingOciResourceException) {
+			return (MissingOciResourceException) cause;
+		}
+		return new MissingOciResourceException(message + ", " + (cause == null ? "unknown cause" : cause.getLocalizedMessage()),
+				cause);
+	}
+
+	private void rememberNotFound(String displayName) {
+		if (negativeTtlNanos <= 0) {
+			return;
+		}
+		if (notFound.size() >= negativeMaxSize) {
+			// clean out anything that's expired, if that doesn't help then start again
+			long now = System.nanoTime();
+			notFound.values().removeIf(until -> now - until >= 0);
+			if (notFound.size() >= negativeMaxSize) {
+				notFound.clear();
+			}
 		}
-		return dti;
+		notFound.put(displayName, System.nanoTime() + negativeTtlNanos);
 	}
 
 	public String getConfig() {
 		String resp = ", digitalTwinModelName=" + digitalTwinModelName + ", digitalTwinModelNameOcid="
 				+ digitalTwinModel.getId();
+		resp += ", negativeTtl=" + negativeTtl + "ms, negativeMaxSize=" + negativeMaxSize
+				+ ", maxParallelCreations=" + maxParallelCreations;
+		resp += ", snapshotInterval=" + snapshotInterval + "s, " + instanceMappingSnapshot.getConfig();
 		resp += ", Mappings size=" + mappings.size();
 		return resp;
 	}
 
+	public int getSize() {
+		return mappings.size();
+	}
+
+	/**
+	 * lookups that were answered by an instance in the cache
+	 */
+	public long getHitCount() {
+		return hits.sum();
+	}
+
+	/**
+	 * lookups that were answered by a recent remote lookup not finding the
+	 * instance
+	 */
+	public long getNegativeHitCount() {
+		return negativeHits.sum();
+	}
+
+	/**
+	 * lookups that had to go to (or wait for another thread going to) oci
+	 */
+	public long getMissCount() {
+		return remoteLookups.sum() + coalescedLookups.sum();
+	}
+
+	public String getStatus() {
+		return "IdToInstanceMapping has " + mappings.size() + " instances and " + notFound.size()
+				+ " recently not found names, hits=" + hits.sum() + ", negativeHits=" + negativeHits.sum()
+				+ ", remoteLookups=" + remoteLookups.sum() + ", coalescedLookups=" + coalescedLookups.sum()
+				+ ", creations=" + creations.sum() + ", coalescedCreations=" + coalescedCreations.sum()
+				+ ", creationsRunning=" + (maxParallelCreations - creationPermits.availablePermits())
+				+ ", reconciled=" + reconciled + ", " + instanceMappingSnapshot.getStatus();
+	}
+
 	@PostConstruct
 	private void loadExistingDigitalTwinInstances() {
+		Map<String, DigitalTwinInstance> snapshotInstances = instanceMappingSnapshot
+				.takeInstances(iotServiceDetails.getIotDomain().getId(), digitalTwinModel.getId());
+		if (snapshotInstances.isEmpty()) {
+			// nothing to start with, so we have to wait for oci
+			reconcileWithOci(snapshotInstances);
+		} else {
+			mappings.putAll(snapshotInstances);
+			log.info(() -> "Loaded " + snapshotInstances.size()
+					+ " digital twin instances from the snapshot, reconciling with oci in the background");
+			gatewayExecutors.newThreadFactory("instance-mapping-reconcile").newThread(() -> {
+				try {
+					reconcileWithOci(snapshotInstances);
+				} catch (RuntimeException e) {
+					log.warning("Problem reconciling digital twin instances from the snapshot with oci, "
+							+ e.getLocalizedMessage() + ", continuing with the snapshot contents");
+				}
+			}).start();
+		}
+		if (snapshotInterval > 0) {
+			snapshotWriter = Executors
+					.newSingleThreadScheduledExecutor(gatewayExecutors.newThreadFactory("instance-mapping-snapshot"));
+			snapshotWriter.scheduleWithFixedDelay(this::writeSnapshotIfChanged, snapshotInterval, snapshotInterval,
+					TimeUnit.SECONDS);
+		}
+	}
+
+	/**
+	 * gets all existing instances with the model from oci and adds them to the
+	 * mappings, anything that came from the snapshot that's no longer in oci (and
+	 * hasn't been replaced since) is removed
+	 * 
+	 * @param snapshotInstances
+	 */
+	private void reconcileWithOci(Map<String, DigitalTwinInstance> snapshotInstances) {
 		log.info(() -> "Loading existing digital twin instances from oci");
-		// get all existing instances with the model
-		List<DigitalTwinInstance> existingInstances = iotServiceDetails.getIoTProcessor()
-				.listDigitalTwinInstances(iotServiceDetails.getIotDomain(), digitalTwinModel);
+		long startTime = System.nanoTime();
+		List<DigitalTwinInstance> existingInstances = gatewayExecutors.callUpstream(Upstream.IOT_CONTROL_PLANE,
+				() -> iotServiceDetails.listDigitalTwinInstances());
 		// to make things easier the display name is being used as the primary key ,
 		// also as the external key. This is because we can't search on the external
 		// key, in a production setup we'd probably not do this for security reasons,
 		// and if we wanted to maintain separate info we'd build a mapping of external
 		// key to instance, that might make adding devices outside the gateway more
 		// complex though
+		Set<String> existingNames = new HashSet<>(existingInstances.size());
 		existingInstances.stream().forEach((dti) -> {
 			mappings.put(dti.getDisplayName(), dti);
-			log.info(() -> "Loading existing digital twin instances " + dti.getDisplayName() + " from oci");
+			notFound.remove(dti.getDisplayName());
+			existingNames.add(dti.getDisplayName());
+			log.fine(() -> "Loading existing digital twin instances " + dti.getDisplayName() + " from oci");
 		});
+		int removed = 0;
+		for (Map.Entry<String, DigitalTwinInstance> snapshotEntry : snapshotInstances.entrySet()) {
+			if (!existingNames.contains(snapshotEntry.getKey())
+					&& mappings.remove(snapshotEntry.getKey(), snapshotEntry.getValue())) {
+				removed++;
+			}
+		}
+		reconciled = true;
+		snapshotDirty.set(true);
+		writeSnapshotIfChanged();
+		long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime);
+		int removedCount = removed;
+		log.info(() -> "Loaded " + existingInstances.size() + " existing digital twin instances from oci in " + millis
+				+ "ms, removed " + removedCount + " snapshot instances no longer in oci");
+	}
+
+	private void writeSnapshotIfChanged() {
+		if (snapshotDirty.getAndSet(false) && !instanceMappingSnapshot.write(mappings)) {
+			// try again next time
+			snapshotDirty.set(true);
+		}
+	}
+
+	@PreDestroy
+	public void preDestroy() {
+		if (snapshotWriter != null) {
+			snapshotWriter.shutdownNow();
+		}
+		writeSnapshotIfChanged();
 	}
 
 	public void save(String sourceId, DigitalTwinInstance dti) {
 		mappings.put(sourceId, dti);
+		notFound.remove(sourceId);
+		snapshotDirty.set(true);
 		log.info(() -> "Added digital twin instance " + dti.getDisplayName() + " to cache using sourceId " + sourceId);
 	}
 }
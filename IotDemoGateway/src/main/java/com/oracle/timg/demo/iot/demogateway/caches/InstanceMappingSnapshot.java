@@ -0,0 +1,301 @@
+/*Copyright (c) 2026 Oracle and/or its affiliates.
+
+The Universal Permissive License (UPL), Version 1.0
+
+Subject to the condition set forth below, permission is hereby granted to any
+person obtaining a copy of this software, associated documentation and/or data
+(collectively the "Software"), free of charge and under any and all copyright
+rights in the Software, and any and all patent rights owned or freely
+licensable by each licensor hereunder covering either (i) the unmodified
+Software as contributed to or provided by such licensor, or (ii) the Larger
+Works (as defined below), to deal in both
+
+(a) the Software, and
+(b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+one is included with the Software (each a "Larger Work" to which the Software
+is contributed by such licensors),
+
+without restriction, including without limitation the rights to copy, create
+derivative works of, display, perform, and distribute the Software and make,
+use, sell, offer for sale, import, export, have made, and have sold the
+Software and the Larger Work(s), and to sublicense the foregoing rights on
+either these or other terms.
+
+This license is subject to the following condition:
+The above copyright notice and either this complete permission notice or at
+a minimum a reference to the UPL must be included in all copies or
+substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+ */
+package com.oracle.timg.demo.iot.demogateway.caches;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.oracle.bmc.iot.model.DigitalTwinInstance;
+
+import io.micronaut.context.annotation.Property;
+import jakarta.inject.Inject;
+import jakarta.inject.Singleton;
+import lombok.extern.java.Log;
+
+/**
+ * A local copy of the resolved iot service OCIDs and the display name to
+ * digital twin instance mappings, so on restart the gateway can start
+ * processing events straight away instead of waiting for every instance to be
+ * listed from OCI. The snapshot is only a head start, the callers are expected
+ * to check it against OCI in the background.
+ *
+ * The file is a simple binary format (DataOutputStream) written to a temp file
+ * and then moved into place so a crash can't leave a partial snapshot. Only the
+ * instance fields the gateway uses are kept.
+ */
+@Singleton
+@Log
+public class InstanceMappingSnapshot {
+	private static final int MAGIC = 0x494d534e;
+	private static final int FORMAT_VERSION = 1;
+	private final boolean enabled;
+	private final Path snapshotFile;
+	// what was in the file when we started, the instances are handed over once
+	private ResolvedServiceDetails loadedServiceDetails;
+	private Map<String, DigitalTwinInstance> loadedInstances = Map.of();
+	private int loadedInstanceCount = 0;
+	// what will be written
+	private ResolvedServiceDetails serviceDetails;
+	private boolean discarded = false;
+	private int writes = 0;
+	private int lastWriteInstanceCount = 0;
+	private long lastWriteMillis = 0;
+
+	/**
+	 * the names the gateway was configured with and the OCIDs (and device host)
+	 * they resolved to
+	 */
+	public record ResolvedServiceDetails(String compartmentName, String compartmentOcid, String iotDomainGroupName,
+			String iotDomainGroupOcid, String iotDomainName, String iotDomainOcid, String iotDomainDeviceHost,
+			String digitalTwinModelName, String digitalTwinModelOcid, String digitalTwinAdapterName,
+			String digitalTwinAdapterOcid) {
+		public boolean hasSameNames(String compartmentName, String iotDomainGroupName, String iotDomainName,
+				String digitalTwinModelName, String digitalTwinAdapterName) {
+			return this.compartmentName.equals(compartmentName) && this.iotDomainGroupName.equals(iotDomainGroupName)
+					&& this.iotDomainName.equals(iotDomainName)
+					&& this.digitalTwinModelName.equals(digitalTwinModelName)
+					&& this.digitalTwinAdapterName.equals(digitalTwinAdapterName);
+		}
+
+		public boolean hasSameOcids(ResolvedServiceDetails other) {
+			return compartmentOcid.equals(other.compartmentOcid) && iotDomainGroupOcid.equals(other.iotDomainGroupOcid)
+					&& iotDomainOcid.equals(other.iotDomainOcid)
+					&& iotDomainDeviceHost.equals(other.iotDomainDeviceHost)
+					&& digitalTwinModelOcid.equals(other.digitalTwinModelOcid)
+					&& digitalTwinAdapterOcid.equals(other.digitalTwinAdapterOcid);
+		}
+	}
+
+	@Inject
+	public InstanceMappingSnapshot(
+			@Property(name = "gateway.caches.instancemapping.snapshot.enabled", defaultValue = "false") boolean enabled,
+			@Property(name = "gateway.caches.instancemapping.snapshot.file", defaultValue = "instancemapping.snapshot") String snapshotFile) {
+		this.enabled = enabled;
+		this.snapshotFile = Path.of(snapshotFile);
+		if (enabled) {
+			load();
+		}
+	}
+
+	/**
+	 * returns the service details from the snapshot if they were resolved from the
+	 * same names, otherwise null
+	 */
+	public synchronized ResolvedServiceDetails getServiceDetails(String compartmentName, String iotDomainGroupName,
+			String iotDomainName, String digitalTwinModelName, String digitalTwinAdapterName) {
+		if ((loadedServiceDetails == null) || !loadedServiceDetails.hasSameNames(compartmentName, iotDomainGroupName,
+				iotDomainName, digitalTwinModelName, digitalTwinAdapterName)) {
+			return null;
+		}
+		return loadedServiceDetails;
+	}
+
+	/**
+	 * sets the service details that will be written with the instances
+	 */
+	public synchronized void setServiceDetails(ResolvedServiceDetails serviceDetails) {
+		this.serviceDetails = serviceDetails;
+	}
+
+	/**
+	 * returns the instances from the snapshot if they were for the same iot domain
+	 * and digital twin model, otherwise an empty map. This can only be done once,
+	 * after that the memory is released
+	 */
+	public synchronized Map<String, DigitalTwinInstance> takeInstances(String iotDomainOcid,
+			String digitalTwinModelOcid) {
+		Map<String, DigitalTwinInstance> instances = loadedInstances;
+		loadedInstances = Map.of();
+		if ((loadedServiceDetails == null) || !loadedServiceDetails.iotDomainOcid().equals(iotDomainOcid)
+				|| !loadedServiceDetails.digitalTwinModelOcid().equals(digitalTwinModelOcid)) {
+			return Map.of();
+		}
+		return instances;
+	}
+
+	/**
+	 * the snapshot no longer matches OCI, delete it and don't write any more (the
+	 * next restart will resolve everything from OCI and write a new one)
+	 */
+	public synchronized void discard() {
+		discarded = true;
+		loadedServiceDetails = null;
+		loadedInstances = Map.of();
+		try {
+			Files.deleteIfExists(snapshotFile);
+		} catch (IOException e) {
+			log.warning("Unable to delete instance mapping snapshot " + snapshotFile + ", " + e.getLocalizedMessage());
+		}
+	}
+
+	/**
+	 * writes the service details and instances, returns false if the snapshot was
+	 * not written because of a problem, if the snapshot is disabled or discarded
+	 * or there are no service details yet there is nothing to do and this returns
+	 * true
+	 *
+	 * @param instances
+	 * @return
+	 */
+	public synchronized boolean write(Map<String, DigitalTwinInstance> instances) {
+		if (!enabled || discarded || (serviceDetails == null)) {
+			return true;
+		}
+		List<Map.Entry<String, DigitalTwinInstance>> entries = new ArrayList<>(instances.entrySet());
+		Path tempFile = snapshotFile.resolveSibling(snapshotFile.getFileName() + ".tmp");
+		try {
+			if (snapshotFile.toAbsolutePath().getParent() != null) {
+				Files.createDirectories(snapshotFile.toAbsolutePath().getParent());
+			}
+			try (DataOutputStream out = new DataOutputStream(
+					new BufferedOutputStream(Files.newOutputStream(tempFile)))) {
+				out.writeInt(MAGIC);
+				out.writeInt(FORMAT_VERSION);
+				writeServiceDetails(out, serviceDetails);
+				out.writeInt(entries.size());
+				for (Map.Entry<String, DigitalTwinInstance> entry : entries) {
+					DigitalTwinInstance dti = entry.getValue();
+					out.writeUTF(entry.getKey());
+					writeNullableUTF(out, dti.getId());
+					writeNullableUTF(out, dti.getDisplayName());
+					writeNullableUTF(out, dti.getExternalKey());
+					writeNullableUTF(out, dti.getAuthId());
+				}
+			}
+			Files.move(tempFile, snapshotFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} catch (IOException e) {
+			log.warning("Unable to write instance mapping snapshot " + snapshotFile + ", " + e.getLocalizedMessage());
+			return false;
+		}
+		writes++;
+		lastWriteInstanceCount = entries.size();
+		lastWriteMillis = System.currentTimeMillis();
+		log.fine(() -> "Wrote " + entries.size() + " instances to instance mapping snapshot " + snapshotFile);
+		return true;
+	}
+
+	private void load() {
+		long startTime = System.nanoTime();
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(snapshotFile)))) {
+			if (in.readInt() != MAGIC) {
+				log.warning("Instance mapping snapshot " + snapshotFile + " is not a snapshot file, ignoring it");
+				return;
+			}
+			int version = in.readInt();
+			if (version != FORMAT_VERSION) {
+				log.warning("Instance mapping snapshot " + snapshotFile + " is format version " + version
+						+ " but this gateway uses version " + FORMAT_VERSION + ", ignoring it");
+				return;
+			}
+			ResolvedServiceDetails details = readServiceDetails(in);
+			int count = in.readInt();
+			Map<String, DigitalTwinInstance> instances = new HashMap<>(Math.max(16, (int) (count / 0.75f) + 1));
+			for (int i = 0; i < count; i++) {
+				String key = in.readUTF();
+				DigitalTwinInstance dti = DigitalTwinInstance.builder().id(readNullableUTF(in))
+						.displayName(readNullableUTF(in)).externalKey(readNullableUTF(in)).authId(readNullableUTF(in))
+						.iotDomainId(details.iotDomainOcid()).digitalTwinModelId(details.digitalTwinModelOcid())
+						.build();
+				instances.put(key, dti);
+			}
+			loadedServiceDetails = details;
+			loadedInstances = instances;
+			loadedInstanceCount = count;
+			long millis = (System.nanoTime() - startTime) / 1000000;
+			log.info("Loaded " + count + " instances from instance mapping snapshot " + snapshotFile + " in " + millis
+					+ "ms");
+		} catch (NoSuchFileException e) {
+			log.info("No instance mapping snapshot " + snapshotFile + " found, everything will be loaded from oci");
+		} catch (IOException | RuntimeException e) {
+			log.warning("Unable to read instance mapping snapshot " + snapshotFile + ", ignoring it, "
+					+ e.getLocalizedMessage());
+		}
+	}
+
+	private static void writeServiceDetails(DataOutputStream out, ResolvedServiceDetails details) throws IOException {
+		out.writeUTF(details.compartmentName());
+		out.writeUTF(details.compartmentOcid());
+		out.writeUTF(details.iotDomainGroupName());
+		out.writeUTF(details.iotDomainGroupOcid());
+		out.writeUTF(details.iotDomainName());
+		out.writeUTF(details.iotDomainOcid());
+		out.writeUTF(details.iotDomainDeviceHost());
+		out.writeUTF(details.digitalTwinModelName());
+		out.writeUTF(details.digitalTwinModelOcid());
+		out.writeUTF(details.digitalTwinAdapterName());
+		out.writeUTF(details.digitalTwinAdapterOcid());
+	}
+
+	private static ResolvedServiceDetails readServiceDetails(DataInputStream in) throws IOException {
+		return new ResolvedServiceDetails(in.readUTF(), in.readUTF(), in.readUTF(), in.readUTF(), in.readUTF(),
+				in.readUTF(), in.readUTF(), in.readUTF(), in.readUTF(), in.readUTF(), in.readUTF());
+	}
+
+	private static void writeNullableUTF(DataOutputStream out, String value) throws IOException {
+		out.writeBoolean(value != null);
+		if (value != null) {
+			out.writeUTF(value);
+		}
+	}
+
+	private static String readNullableUTF(DataInputStream in) throws IOException {
+		return in.readBoolean() ? in.readUTF() : null;
+	}
+
+	public String getConfig() {
+		return "enabled=" + enabled + ", snapshotFile=" + snapshotFile;
+	}
+
+	public synchronized String getStatus() {
+		return "InstanceMappingSnapshot loaded " + loadedInstanceCount + " instances at startup, "
+				+ (discarded ? "discarded as it no longer matched oci, " : "") + writes + " writes, last write had "
+				+ lastWriteInstanceCount + " instances"
+				+ (lastWriteMillis == 0 ? "" : " at " + Instant.ofEpochMilli(lastWriteMillis));
+	}
+}
@@ -0,0 +1,95 @@
+/*Copyright (c) 2026 Oracle and/or its affiliates.
+
+The Universal Permissive License (UPL), Version 1.0
+
+Subject to the condition set forth below, permission is hereby granted to any
+person obtaining a copy of this software, associated documentation and/or data
+(collectively the "Software"), free of charge and under any and all copyright
+rights in the Software, and any and all patent rights owned or freely
+licensable by each licensor hereunder covering either (i) the unmodified
+Software as contributed to or provided by such licensor, or (ii) the Larger
+Works (as defined below), to deal in both
+
+(a) the Software, and
+(b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+one is included with the Software (each a "Larger Work" to which the Software
+is contributed by such licensors),
+
+without restriction, including without limitation the rights to copy, create
+derivative works of, display, perform, and distribute the Software and make,
+use, sell, offer for sale, import, export, have made, and have sold the
+Software and the Larger Work(s), and to sublicense the foregoing rights on
+either these or other terms.
+
+This license is subject to the following condition:
+The above copyright notice and either this complete permission notice or at
+a minimum a reference to the UPL must be included in all copies or
+substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+ */
+package com.oracle.timg.demo.iot.demogateway.controllers;
+
+import java.io.IOException;
+
+import com.oracle.timg.demo.iot.demogateway.queue.EventDeadLetter;
+import com.oracle.timg.demo.iot.demogateway.queue.EventDeadLetter.ReplayResult;
+import com.oracle.timg.demo.iot.demogateway.queue.EventQueueShutdownDrain;
+import com.oracle.timg.demo.iot.demogateway.queue.EventUploader;
+
+import io.micronaut.http.HttpResponse;
+import io.micronaut.http.HttpStatus;
+import io.micronaut.http.MediaType;
+import io.micronaut.http.annotation.Controller;
+import io.micronaut.http.annotation.Get;
+import io.micronaut.http.annotation.Post;
+import io.micronaut.scheduling.TaskExecutors;
+import io.micronaut.scheduling.annotation.ExecuteOn;
+import jakarta.inject.Inject;
+import jakarta.inject.Singleton;
+import lombok.extern.java.Log;
+
+@Singleton
+@Controller("/deadletter")
+@Log
+public class DeadLetterController {
+	@Inject
+	private EventDeadLetter eventDeadLetter;
+	@Inject
+	private EventUploader eventUploader;
+	@Inject
+	private EventQueueShutdownDrain eventQueueShutdownDrain;
+
+	@Get(produces = MediaType.TEXT_PLAIN)
+	public String getStatus() {
+		return eventUploader.getStatus();
+	}
+
+	/**
+	 * moves the dead lettered events back onto the event queue, this reads and
+	 * writes the spool file so runs on the blocking executor. If the upload
+	 * circuit is still open the events would just be dead lettered again so a
+	 * 409 is returned instead, and if the gateway is stopping they wouldn't get
+	 * processed so a 503 is returned
+	 */
+	@Post("/replay")
+	@ExecuteOn(TaskExecutors.BLOCKING)
+	public HttpResponse<ReplayResult> replay() throws IOException {
+		if (!eventQueueShutdownDrain.isAcceptingEvents()) {
+			log.info("Not replaying dead letter events as the gateway is stopping");
+			return HttpResponse.status(HttpStatus.SERVICE_UNAVAILABLE);
+		}
+		if (!eventUploader.getCircuitBreaker().isClosed()) {
+			log.info("Not replaying dead letter events as the upload circuit is "
+					+ eventUploader.getCircuitBreaker().getState());
+			return HttpResponse.status(HttpStatus.CONFLICT);
+		}
+		return HttpResponse.ok(eventDeadLetter.replay());
+	}
+}
@@ -36,13 +36,38 @@ SOFTWARE.
  */
 package com.oracle.timg.demo.iot.demogateway.controllers;
 
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.oracle.timg.demo.iot.demogateway.queue.DeviceRateLimiter;
+import com.oracle.timg.demo.iot.demogateway.queue.EventDeduplicator;
 import com.oracle.timg.demo.iot.demogateway.queue.EventQueue;
 import com.oracle.timg.demo.iot.demogateway.queue.EventQueueData;
+import com.oracle.timg.demo.iot.demogateway.queue.EventQueueDrainMonitor;
+import com.oracle.timg.demo.iot.demogateway.queue.EventQueueShutdownDrain;
 
+import io.micronaut.context.annotation.Property;
+import io.micronaut.core.annotation.NonBlocking;
+import io.micronaut.http.HttpHeaders;
+import io.micronaut.http.HttpResponse;
+import io.micronaut.http.HttpStatus;
+import io.micronaut.http.MediaType;
+import io.micronaut.http.MutableHttpResponse;
 import io.micronaut.http.annotation.Body;
 import io.micronaut.http.annotation.Controller;
 import io.micronaut.http.annotation.PathVariable;
 import io.micronaut.http.annotation.Post;
+import io.micronaut.scheduling.TaskExecutors;
+import io.micronaut.scheduling.annotation.ExecuteOn;
 import jakarta.annotation.PostConstruct;
 import jakarta.inject.Inject;
 import jakarta.inject.Singleton;
@@ -52,17 +77,248 @@ import lombok.extern.java.Log;
 @Controller("/data")
 @Log
 public class IncommingDataReciever {
+	public static final String APPLICATION_NDJSON = "application/x-ndjson";
 	@Inject
 	private EventQueue eventQueue;
+	@Inject
+	private EventQueueDrainMonitor eventQueueDrainMonitor;
+	@Inject
+	private EventQueueShutdownDrain eventQueueShutdownDrain;
+	@Inject
+	private DeviceRateLimiter deviceRateLimiter;
+	@Inject
+	private EventDeduplicator eventDeduplicator;
+	@Inject
+	private ObjectMapper objectMapper;
+	@Property(name = "gateway.ingest.bulk.batchsize", defaultValue = "100")
+	private int bulkBatchSize;
+	private final LongAdder rejectedEvents = new LongAdder();
+	private final LongAdder malformedEvents = new LongAdder();
 
+	/**
+	 * adding to the queue never waits, so this can run on the event loop. If the
+	 * queue is full the device is told to come back later with a 429 response (or
+	 * a 503 if the queue isn't being drained at all) with a Retry-After header
+	 * based on how long the queue should take to empty at the current rate. Once
+	 * the gateway has started to stop all events get a 503 so the device (or the
+	 * load balancer) sends them to another gateway or tries again later. A device
+	 * that's sending more than its rate limit gets a 429 with a Retry-After of
+	 * when it can next send. A copy of an event the device sent a moment ago is
+	 * dropped but gets a 200, as the device just needs to know the event arrived.
+	 */
 	@Post("/newevent/{instanceKey}")
-	public void processIncommingEvent(@PathVariable(name = "instanceKey") String instanceKey, @Body String payload) {
-		log.info("Recieved and adding to queue from " + instanceKey + " payload " + payload);
-		eventQueue.addToQueue(new EventQueueData(instanceKey, payload));
+	@NonBlocking
+	public HttpResponse<String> processIncommingEvent(@PathVariable(name = "instanceKey") String instanceKey,
+			@Body String payload) {
+		log.fine(() -> "Recieved and adding to queue from " + instanceKey + " payload " + payload);
+		if (!eventQueueShutdownDrain.isAcceptingEvents()) {
+			eventQueueShutdownDrain.recordRefused(1);
+			log.fine(() -> "Gateway is stopping, refusing event from " + instanceKey);
+			return queueFullResponse("Gateway is stopping, please retry later");
+		}
+		EventQueueData eventData = new EventQueueData(instanceKey, payload);
+		// check for duplicates first so a device resending an event doesn't use up its
+		// rate limit
+		if (eventDeduplicator.isDuplicate(eventData)) {
+			log.fine(() -> "Event from " + instanceKey + " is a duplicate, dropping it");
+			return HttpResponse.ok();
+		}
+		long rateLimitWait = deviceRateLimiter.tryAcquire(instanceKey);
+		if (rateLimitWait > 0) {
+			log.fine(() -> "Device " + instanceKey + " is over its rate limit, rejecting event");
+			return HttpResponse.<String>status(HttpStatus.TOO_MANY_REQUESTS)
+					.header(HttpHeaders.RETRY_AFTER, String.valueOf(Math.max(1, (rateLimitWait + 999) / 1000)))
+					.body("Device is sending too many events, please retry later");
+		}
+		if (eventQueue.addToQueue(eventData)) {
+			// only once it's queued, so a copy sent after a refusal is not dropped
+			eventDeduplicator.record(eventData);
+			return HttpResponse.ok();
+		}
+		// the device will send it again, that shouldn't count against it's rate limit
+		deviceRateLimiter.refund(instanceKey);
+		rejectedEvents.increment();
+		log.fine(() -> "Event queue is full, rejecting event from " + instanceKey);
+		return queueFullResponse("Event queue is full, please retry later");
+	}
+
+	/**
+	 * accepts newline delimited JSON, each line is an object with an instanceKey
+	 * field and a payload field (if the payload is a JSON string it's contents are
+	 * used as the event payload, otherwise the JSON of the payload is used). The
+	 * body is read a line at a time and the events are added to the event queue in
+	 * batches, so the request body is never held in memory as a whole. Lines that
+	 * can't be parsed are counted and skipped, as are events from devices that
+	 * are over their rate limit and copies of events that were sent a moment ago.
+	 * 
+	 * If the event queue fills up (or the gateway starts to stop) reading stops,
+	 * and a 429 (or 503) is returned, the linesRead in the result tells the caller
+	 * which lines it needs to resend.
+	 * 
+	 * Reading the body will block so this runs on the blocking executor
+	 */
+	@Post(value = "/newevents", consumes = { APPLICATION_NDJSON, MediaType.APPLICATION_JSON_STREAM,
+			MediaType.TEXT_PLAIN })
+	@ExecuteOn(TaskExecutors.BLOCKING)
+	public HttpResponse<BulkIngestResult> processIncommingEvents(@Body InputStream body) throws IOException {
+		// the counts for the lines that have been dealt with, and for the current
+		// batch which is not yet in the queue
+		BulkIngestCounts committed = new BulkIngestCounts();
+		BulkIngestCounts pending = new BulkIngestCounts();
+		List<EventQueueData> batch = new ArrayList<>(bulkBatchSize);
+		try (BufferedReader reader = new BufferedReader(new InputStreamReader(body, StandardCharsets.UTF_8))) {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				pending.linesRead++;
+				if (line.isBlank()) {
+					continue;
+				}
+				EventQueueData eventData = parseBulkLine(line);
+				if (eventData == null) {
+					pending.malformed++;
+					continue;
+				}
+				if (eventDeduplicator.isDuplicate(eventData)) {
+					pending.duplicates++;
+					continue;
+				}
+				if (deviceRateLimiter.tryAcquire(eventData.getInstanceKey()) > 0) {
+					pending.throttled++;
+					continue;
+				}
+				batch.add(eventData);
+				if ((batch.size() >= bulkBatchSize) && !addBulkBatch(batch, committed, pending)) {
+					return bulkQueueFullResponse(committed, batch.size());
+				}
+			}
+		}
+		if (!batch.isEmpty() && !addBulkBatch(batch, committed, pending)) {
+			return bulkQueueFullResponse(committed, batch.size());
+		}
+		// anything left (blank or malformed lines after the last batch) is done with
+		committed.add(pending);
+		log.fine(() -> "Bulk upload added " + committed.accepted + " events to the queue, " + committed.malformed
+				+ " lines were malformed, " + committed.throttled + " were over the device rate limit, "
+				+ committed.duplicates + " were duplicates");
+		return HttpResponse.ok(new BulkIngestResult(committed.linesRead, committed.accepted, committed.malformed, 0,
+				committed.throttled, committed.duplicates));
+	}
+
+	private boolean addBulkBatch(List<EventQueueData> batch, BulkIngestCounts committed,
+			BulkIngestCounts pending) {
+		if (!eventQueueShutdownDrain.isAcceptingEvents()) {
+			eventQueueShutdownDrain.recordRefused(batch.size());
+			releaseRefused(batch);
+			return false;
+		}
+		if (!eventQueue.addToQueue(batch)) {
+			rejectedEvents.add(batch.size());
+			releaseRefused(batch);
+			return false;
+		}
+		for (EventQueueData eventData : batch) {
+			eventDeduplicator.record(eventData);
+		}
+		pending.accepted = batch.size();
+		committed.add(pending);
+		pending.clear();
+		batch.clear();
+		return true;
+	}
+
+	// the events will be resent, so they must not count against the device rate
+	// limits when they are
+	private void releaseRefused(List<EventQueueData> batch) {
+		for (EventQueueData eventData : batch) {
+			deviceRateLimiter.refund(eventData.getInstanceKey());
+		}
+	}
+
+	private class BulkIngestCounts {
+		int linesRead = 0;
+		int accepted = 0;
+		int malformed = 0;
+		int throttled = 0;
+		int duplicates = 0;
+
+		void add(BulkIngestCounts other) {
+			linesRead += other.linesRead;
+			accepted += other.accepted;
+			malformed += other.malformed;
+			throttled += other.throttled;
+			duplicates += other.duplicates;
+		}
+
+		void clear() {
+			linesRead = 0;
+			accepted = 0;
+			malformed = 0;
+			throttled = 0;
+			duplicates = 0;
+		}
+	}
+
+	private EventQueueData parseBulkLine(String line) {
+		JsonNode node;
+		try {
+			node = objectMapper.readTree(line);
+		} catch (JsonProcessingException e) {
+			malformedEvents.increment();
+			log.fine(() -> "Unable to parse bulk upload line " + line + ", " + e.getLocalizedMessage());
+			return null;
+		}
+		JsonNode instanceKey = node.get("instanceKey");
+		JsonNode payload = node.get("payload");
+		if ((instanceKey == null) || !instanceKey.isTextual() || instanceKey.textValue().isBlank()
+				|| (payload == null) || payload.isNull()) {
+			malformedEvents.increment();
+			log.fine(() -> "Bulk upload line does not have an instanceKey and payload " + line);
+			return null;
+		}
+		return new EventQueueData(instanceKey.textValue(), payload.isTextual() ? payload.textValue() : payload.toString());
+	}
+
+	private HttpResponse<BulkIngestResult> bulkQueueFullResponse(BulkIngestCounts committed, int rejected) {
+		log.fine(() -> "Event queue is full or the gateway is stopping, rejecting bulk upload after " + committed.linesRead + " lines");
+		return queueFullResponse(
+				new BulkIngestResult(committed.linesRead, committed.accepted, committed.malformed, rejected,
+						committed.throttled, committed.duplicates));
+	}
+
+	private <T> MutableHttpResponse<T> queueFullResponse(T body) {
+		if (!eventQueueShutdownDrain.isAcceptingEvents()) {
+			// close the connection so a keep alive client reconnects (hopefully to another
+			// gateway) rather than sending to this one again
+			return HttpResponse.<T>status(HttpStatus.SERVICE_UNAVAILABLE)
+					.header(HttpHeaders.RETRY_AFTER, String.valueOf(eventQueueShutdownDrain.getRetryAfter()))
+					.header(HttpHeaders.CONNECTION, "close").body(body);
+		}
+		HttpStatus status = eventQueueDrainMonitor.isDraining() ? HttpStatus.TOO_MANY_REQUESTS
+				: HttpStatus.SERVICE_UNAVAILABLE;
+		return HttpResponse.<T>status(status)
+				.header(HttpHeaders.RETRY_AFTER, String.valueOf(eventQueueDrainMonitor.getRetryAfterSeconds()))
+				.body(body);
+	}
+
+	public String getStatus() {
+		return "IncommingDataReciever has rejected " + rejectedEvents.sum() + " events as the queue was full and "
+				+ malformedEvents.sum() + " malformed bulk upload lines, " + eventQueueDrainMonitor.getStatus() + ", "
+				+ eventQueueShutdownDrain.getStatus() + ", " + deviceRateLimiter.getStatus() + ", "
+				+ eventDeduplicator.getStatus();
 	}
 
 	@PostConstruct
 	public void postConstruct() {
-		log.info("IncommingDataReciever configured");
+		// a batch is added to the queue completely or not at all, so one bigger than
+		// the queue could ever hold would mean every bulk upload is rejected
+		int queueCapacity = eventQueue.getQueueSize() + eventQueue.getRemainingCapacity();
+		if (bulkBatchSize > queueCapacity) {
+			log.warning("gateway.ingest.bulk.batchsize of " + bulkBatchSize + " is larger than the event queue capacity of "
+					+ queueCapacity + ", using " + Math.max(1, queueCapacity / 2) + " instead");
+			bulkBatchSize = queueCapacity / 2;
+		}
+		bulkBatchSize = Math.max(1, bulkBatchSize);
+		log.info("IncommingDataReciever configured, bulk batch size " + bulkBatchSize + ", device rate limit "
+				+ deviceRateLimiter.getConfig());
 	}
 }
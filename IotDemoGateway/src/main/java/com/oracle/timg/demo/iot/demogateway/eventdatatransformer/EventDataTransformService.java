@@ -36,10 +36,13 @@ SOFTWARE.
  */
 package com.oracle.timg.demo.iot.demogateway.eventdatatransformer;
 
-import java.util.LinkedList;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 
+import com.oracle.timg.demo.iot.demogateway.metrics.GatewayMetrics;
+
+import io.micrometer.core.instrument.Timer;
 import jakarta.annotation.PostConstruct;
 import jakarta.inject.Inject;
 import jakarta.inject.Singleton;
@@ -53,15 +56,25 @@ public class EventDataTransformService {
 	// this will inject a list of possible transformers
 	// of course if the transformers are blocked because they are not instantiated
 	// (maybe they require properties not set) they will not be included here
+	private List<EventDataTransformer> transformers;
+	private final GatewayMetrics gatewayMetrics;
+	// the time spent in each transformer, in the same order as the transformers
+	private List<Timer> transformerTimers;
+
 	@Inject
-	private List<EventDataTransformer> transformers = new LinkedList<>();
+	public EventDataTransformService(List<EventDataTransformer> transformers, GatewayMetrics gatewayMetrics) {
+		this.transformers = transformers;
+		this.gatewayMetrics = gatewayMetrics;
+	}
 
 	public String reformatEventData(@NotBlank @NonNull String recievedEventData)
 			throws EventDataIncommingFormatException, EventDataTransformException {
 		// go through the transformers list passing the output of each entry into the
 		// following one as input
 		String tempResp = recievedEventData;
-		for (EventDataTransformer transformer : transformers) {
+		for (int i = 0; i < transformers.size(); i++) {
+			EventDataTransformer transformer = transformers.get(i);
+			long start = System.nanoTime();
 			try {
 				tempResp = transformer.reformatEventData(tempResp);
 			} catch (EventDataIncommingFormatException eIncomming) {
@@ -76,6 +89,8 @@ public class EventDataTransformService {
 								+ " threw an EventDataIncommingFormatException processing it's incomming data "
 								+ tempResp + " completed formatters are " + completedTransformers(transformer),
 						eReformatting);
+			} finally {
+				transformerTimers.get(i).record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
 			}
 		}
 		String response = tempResp;
@@ -104,6 +119,8 @@ public class EventDataTransformService {
 		// make sure any transformers are correctly sorted to the order they report (or
 		// more hopefully in the config file)
 		transformers = transformers.stream().sorted().toList();
+		transformerTimers = transformers.stream()
+				.map(transformer -> gatewayMetrics.eventDataTransformerTimer(transformer.getName())).toList();
 		log.info(this.toString());
 	}
 
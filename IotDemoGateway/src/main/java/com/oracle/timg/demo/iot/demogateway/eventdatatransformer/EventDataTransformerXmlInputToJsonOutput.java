@@ -57,10 +57,14 @@ public class EventDataTransformerXmlInputToJsonOutput implements EventDataTransf
 	private int order;
 	@Getter
 	private final String name = "Xml Input To Json Output";
+	private final XmlMapper xmlMapper;
+	private final ObjectMapper objectMapper;
+
 	@Inject
-	private XmlMapper xmlMapper;
-	@Inject
-	private ObjectMapper objectMapper;
+	public EventDataTransformerXmlInputToJsonOutput(XmlMapper xmlMapper, ObjectMapper objectMapper) {
+		this.xmlMapper = xmlMapper;
+		this.objectMapper = objectMapper;
+	}
 
 	@Override
 	public String reformatEventData(@NotBlank @NonNull String receivedEventData)
@@ -0,0 +1,303 @@
+/*Copyright (c) 2026 Oracle and/or its affiliates.
+
+The Universal Permissive License (UPL), Version 1.0
+
+Subject to the condition set forth below, permission is hereby granted to any
+person obtaining a copy of this software, associated documentation and/or data
+(collectively the "Software"), free of charge and under any and all copyright
+rights in the Software, and any and all patent rights owned or freely
+licensable by each licensor hereunder covering either (i) the unmodified
+Software as contributed to or provided by such licensor, or (ii) the Larger
+Works (as defined below), to deal in both
+
+(a) the Software, and
+(b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+one is included with the Software (each a "Larger Work" to which the Software
+is contributed by such licensors),
+
+without restriction, including without limitation the rights to copy, create
+derivative works of, display, perform, and distribute the Software and make,
+use, sell, offer for sale, import, export, have made, and have sold the
+Software and the Larger Work(s), and to sublicense the foregoing rights on
+either these or other terms.
+
+This license is subject to the following condition:
+The above copyright notice and either this complete permission notice or at
+a minimum a reference to the UPL must be included in all copies or
+substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+ */
+package com.oracle.timg.demo.iot.demogateway.eventdatatransformer;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.databind.util.TokenBuffer;
+import com.fasterxml.jackson.dataformat.xml.XmlMapper;
+
+import io.micronaut.context.annotation.Property;
+import io.micronaut.context.annotation.Requires;
+import jakarta.inject.Inject;
+import jakarta.inject.Singleton;
+import jakarta.validation.constraints.NotBlank;
+import lombok.Getter;
+import lombok.NonNull;
+
+/*
+ * Produces the same output as EventDataTransformerXmlInputToJsonOutput but
+ * without building a JsonNode tree of the whole document, the XML tokens are
+ * copied straight to the JSON generator.
+ *
+ * The one thing the tree does for us is that when an element contains several
+ * child elements with the same name (e.g. <reading> repeated) they are merged
+ * into a single array. To do the same the document is scanned once to count
+ * the names in the objects that have repeated names (the objects are numbered
+ * in the order they start). On the second pass a repeated name is written as an
+ * array when it's first met and its values are copied into the array as they
+ * are read, the counts say when the last one has been seen and the array can be
+ * closed. Only fields that are read while an earlier repeated name's array is
+ * still open (i.e. are in between its values) have to be buffered until it
+ * closes, so for the usual case of the repeated elements being next to each
+ * other nothing is buffered.
+ */
+@Singleton
+@Requires(property = "gateway.eventdatatransformer.xmlinputtojsonoutputstreaming.enabled", value = "true", defaultValue = "false")
+public class EventDataTransformerXmlInputToJsonOutputStreaming implements EventDataTransformer {
+	@Property(name = "gateway.eventdatatransformer.xmlinputtojsonoutputstreaming.order", defaultValue = "20")
+	@Getter
+	private int order;
+	@Getter
+	private final String name = "Xml Input To Json Output Streaming";
+	private final XmlMapper xmlMapper;
+	private final ObjectMapper objectMapper;
+
+	@Inject
+	public EventDataTransformerXmlInputToJsonOutputStreaming(XmlMapper xmlMapper, ObjectMapper objectMapper) {
+		this.xmlMapper = xmlMapper;
+		this.objectMapper = objectMapper;
+	}
+
+	@Override
+	public String reformatEventData(@NotBlank @NonNull String receivedEventData)
+			throws EventDataIncommingFormatException, EventDataTransformException {
+		Map<Integer, Map<String, Integer>> objectsWithDuplicateNames;
+		try (JsonParser parser = xmlMapper.createParser(receivedEventData)) {
+			objectsWithDuplicateNames = findObjectsWithDuplicateNames(parser);
+		} catch (IOException e) {
+			throw new EventDataIncommingFormatException(
+					"Can't parse the incomming XML data due to " + e.getLocalizedMessage(), e);
+		}
+		// the JSON is usually a bit smaller than the XML so this saves resizing
+		StringWriter output = new StringWriter(receivedEventData.length());
+		try (JsonParser parser = xmlMapper.createParser(receivedEventData);
+				JsonGenerator generator = objectMapper.createGenerator(output)) {
+			if (objectMapper.isEnabled(SerializationFeature.INDENT_OUTPUT)) {
+				generator.useDefaultPrettyPrinter();
+			}
+			if (parser.nextToken() == null) {
+				throw new EventDataIncommingFormatException("There is no content in the incomming XML data");
+			}
+			if (objectsWithDuplicateNames.isEmpty()) {
+				generator.copyCurrentStructure(parser);
+			} else {
+				copyValue(parser, generator, new CopyState(objectsWithDuplicateNames));
+			}
+		} catch (IOException e) {
+			// the document has already been parsed once so this will be on the output side
+			throw new EventDataTransformException(
+					"Problem serializing the processed XML data due to " + e.getLocalizedMessage(), e);
+		}
+		return output.toString();
+	}
+
+	/**
+	 * reads all of the tokens and returns the number of times each name is used in
+	 * the objects that contain more than one field with the same name, keyed by the
+	 * (start order) number of the object
+	 */
+	private Map<Integer, Map<String, Integer>> findObjectsWithDuplicateNames(JsonParser parser)
+			throws IOException {
+		Map<Integer, Map<String, Integer>> objectsWithDuplicateNames = new HashMap<>();
+		Deque<OpenObject> openObjects = new ArrayDeque<>();
+		int objectCount = 0;
+		JsonToken token;
+		while ((token = parser.nextToken()) != null) {
+			switch (token) {
+			case START_OBJECT:
+				openObjects.push(new OpenObject(objectCount++));
+				break;
+			case END_OBJECT:
+				OpenObject closed = openObjects.pop();
+				if (closed.hasDuplicates) {
+					objectsWithDuplicateNames.put(closed.number, closed.nameCounts);
+				}
+				break;
+			case FIELD_NAME:
+				OpenObject current = openObjects.peek();
+				if (current.nameCounts.merge(parser.currentName(), 1, Integer::sum) > 1) {
+					current.hasDuplicates = true;
+				}
+				break;
+			default:
+				break;
+			}
+		}
+		return objectsWithDuplicateNames;
+	}
+
+	/**
+	 * copy the value the parser is currently on (including any contents if it's an
+	 * object or array) to the generator
+	 */
+	private void copyValue(JsonParser parser, JsonGenerator generator, CopyState state) throws IOException {
+		switch (parser.currentToken()) {
+		case START_OBJECT:
+			Map<String, Integer> nameCounts = state.objectsWithDuplicateNames.get(state.objectCount++);
+			if (nameCounts != null) {
+				copyObjectGroupingDuplicates(parser, generator, state, nameCounts);
+			} else {
+				generator.writeStartObject();
+				while (parser.nextToken() == JsonToken.FIELD_NAME) {
+					generator.writeFieldName(parser.currentName());
+					parser.nextToken();
+					copyValue(parser, generator, state);
+				}
+				generator.writeEndObject();
+			}
+			break;
+		case START_ARRAY:
+			generator.writeStartArray();
+			while (parser.nextToken() != JsonToken.END_ARRAY) {
+				copyValue(parser, generator, state);
+			}
+			generator.writeEndArray();
+			break;
+		default:
+			generator.copyCurrentEvent(parser);
+			break;
+		}
+	}
+
+	/**
+	 * as with the tree version fields with the same name are output as a single
+	 * array in the position of the first of them. The name counts are how many
+	 * times each name is used in this object, they are counted down as the values
+	 * are read
+	 */
+	private void copyObjectGroupingDuplicates(JsonParser parser, JsonGenerator generator, CopyState state,
+			Map<String, Integer> nameCounts) throws IOException {
+		// the name whose array is open on the generator, if any
+		String open = null;
+		// fields read while the open array was waiting for more values, in the order
+		// they were first met
+		Map<String, List<TokenBuffer>> waiting = new LinkedHashMap<>();
+		generator.writeStartObject();
+		while (parser.nextToken() == JsonToken.FIELD_NAME) {
+			String fieldName = parser.currentName();
+			int remaining = nameCounts.merge(fieldName, -1, Integer::sum);
+			parser.nextToken();
+			if (fieldName.equals(open)) {
+				copyValue(parser, generator, state);
+				if (remaining == 0) {
+					generator.writeEndArray();
+					open = writeWaiting(generator, waiting, nameCounts);
+				}
+			} else if (open == null) {
+				generator.writeFieldName(fieldName);
+				if (remaining == 0) {
+					copyValue(parser, generator, state);
+				} else {
+					generator.writeStartArray();
+					copyValue(parser, generator, state);
+					open = fieldName;
+				}
+			} else {
+				TokenBuffer value = new TokenBuffer(parser);
+				copyValue(parser, value, state);
+				waiting.computeIfAbsent(fieldName, k -> new ArrayList<>(1)).add(value);
+			}
+		}
+		// the counts came from the same document so everything is complete by now
+		if (open != null) {
+			generator.writeEndArray();
+		}
+		generator.writeEndObject();
+	}
+
+	/**
+	 * writes the waiting fields in order until one is met that still has values to
+	 * come, that one is left open
+	 *
+	 * @return the name of the field left open, or null if all were written
+	 */
+	private String writeWaiting(JsonGenerator generator, Map<String, List<TokenBuffer>> waiting,
+			Map<String, Integer> nameCounts) throws IOException {
+		Iterator<Map.Entry<String, List<TokenBuffer>>> fields = waiting.entrySet().iterator();
+		while (fields.hasNext()) {
+			Map.Entry<String, List<TokenBuffer>> field = fields.next();
+			fields.remove();
+			generator.writeFieldName(field.getKey());
+			List<TokenBuffer> values = field.getValue();
+			boolean complete = nameCounts.get(field.getKey()) == 0;
+			if (complete && (values.size() == 1)) {
+				values.get(0).serialize(generator);
+				continue;
+			}
+			generator.writeStartArray();
+			for (TokenBuffer value : values) {
+				value.serialize(generator);
+			}
+			if (!complete) {
+				return field.getKey();
+			}
+			generator.writeEndArray();
+		}
+		return null;
+	}
+
+	@Override
+	public String getConfig() {
+		return "XML incomming to Json outgoing streaming event data reformatter";
+	}
+
+	private static class CopyState {
+		private final Map<Integer, Map<String, Integer>> objectsWithDuplicateNames;
+		// the number of objects started so far, this matches the numbering used when
+		// finding the duplicates
+		private int objectCount = 0;
+
+		private CopyState(Map<Integer, Map<String, Integer>> objectsWithDuplicateNames) {
+			this.objectsWithDuplicateNames = objectsWithDuplicateNames;
+		}
+	}
+
+	private static class OpenObject {
+		private final int number;
+		private final Map<String, Integer> nameCounts = new HashMap<>();
+		private boolean hasDuplicates = false;
+
+		private OpenObject(int number) {
+			this.number = number;
+		}
+	}
+}
@@ -0,0 +1,163 @@
+/*Copyright (c) 2026 Oracle and/or its affiliates.
+
+The Universal Permissive License (UPL), Version 1.0
+
+Subject to the condition set forth below, permission is hereby granted to any
+person obtaining a copy of this software, associated documentation and/or data
+(collectively the "Software"), free of charge and under any and all copyright
+rights in the Software, and any and all patent rights owned or freely
+licensable by each licensor hereunder covering either (i) the unmodified
+Software as contributed to or provided by such licensor, or (ii) the Larger
+Works (as defined below), to deal in both
+
+(a) the Software, and
+(b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+one is included with the Software (each a "Larger Work" to which the Software
+is contributed by such licensors),
+
+without restriction, including without limitation the rights to copy, create
+derivative works of, display, perform, and distribute the Software and make,
+use, sell, offer for sale, import, export, have made, and have sold the
+Software and the Larger Work(s), and to sublicense the foregoing rights on
+either these or other terms.
+
+This license is subject to the following condition:
+The above copyright notice and either this complete permission notice or at
+a minimum a reference to the UPL must be included in all copies or
+substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+ */
+package com.oracle.timg.demo.iot.demogateway.executors;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+
+import io.micronaut.context.annotation.Property;
+import jakarta.annotation.PostConstruct;
+import jakarta.inject.Inject;
+import jakarta.inject.Singleton;
+import lombok.Getter;
+import lombok.extern.java.Log;
+
+/**
+ * Central place to get the threads used by the gateway, depending on
+ * gateway.executor.type these will either be platform (normal) threads or
+ * virtual threads. With virtual threads the processing of an event can block
+ * (e.g. waiting for the vault, IoT control plane or an upload) without tying up
+ * a platform thread, so many more events can be in progress at once.
+ * 
+ * As that makes it easy to swamp the upstream services this also holds a limit
+ * on the number of concurrent calls to each of them, the limits apply whichever
+ * type of thread is used. Uploads are limited by the IotServiceClient itself.
+ */
+@Singleton
+@Log
+public class GatewayExecutors {
+	public enum ExecutorType {
+		PLATFORM, VIRTUAL
+	}
+
+	public enum Upstream {
+		VAULT, IOT_CONTROL_PLANE
+	}
+
+	/**
+	 * a call to an upstream service that might throw a checked exception
+	 */
+	@FunctionalInterface
+	public interface UpstreamCall<T, E extends Exception> {
+		public T call() throws E;
+	}
+
+	@Getter
+	private final ExecutorType executorType;
+	private final Map<Upstream, Integer> upstreamLimits = new EnumMap<>(Upstream.class);
+	private final Map<Upstream, Semaphore> upstreamPermits = new EnumMap<>(Upstream.class);
+
+	@Inject
+	public GatewayExecutors(@Property(name = "gateway.executor.type", defaultValue = "PLATFORM") String executorType,
+			@Property(name = "gateway.executor.maxconcurrent.vault", defaultValue = "16") int maxConcurrentVault,
+			@Property(name = "gateway.executor.maxconcurrent.iotcontrolplane", defaultValue = "16") int maxConcurrentIotControlPlane) {
+		this.executorType = ExecutorType.valueOf(executorType.toUpperCase());
+		upstreamLimits.put(Upstream.VAULT, maxConcurrentVault);
+		upstreamLimits.put(Upstream.IOT_CONTROL_PLANE, maxConcurrentIotControlPlane);
+		upstreamLimits.forEach((upstream, limit) -> upstreamPermits.put(upstream, new Semaphore(limit)));
+	}
+
+	/**
+	 * returns a thread factory for the configured type of thread, the threads will
+	 * be named with the prefix followed by a sequence number
+	 * 
+	 * @param namePrefix
+	 * @return
+	 */
+	public ThreadFactory newThreadFactory(String namePrefix) {
+		if (executorType == ExecutorType.VIRTUAL) {
+			return Thread.ofVirtual().name(namePrefix + "-", 0).factory();
+		}
+		return Thread.ofPlatform().name(namePrefix + "-", 0).daemon(true).factory();
+	}
+
+	/**
+	 * returns an executor that will run each task submitted to it straight away,
+	 * for platform threads they are reused once a task completes, for virtual
+	 * threads there is a new one for each task
+	 * 
+	 * @param namePrefix
+	 * @return
+	 */
+	public ExecutorService newTaskExecutor(String namePrefix) {
+		if (executorType == ExecutorType.VIRTUAL) {
+			return Executors.newThreadPerTaskExecutor(newThreadFactory(namePrefix));
+		}
+		return Executors.newCachedThreadPool(newThreadFactory(namePrefix));
+	}
+
+	/**
+	 * makes the call, waiting first if the limit of concurrent calls to the
+	 * upstream has been reached
+	 * 
+	 * @param <T>
+	 * @param <E>
+	 * @param upstream
+	 * @param call
+	 * @return
+	 * @throws E
+	 */
+	public <T, E extends Exception> T callUpstream(Upstream upstream, UpstreamCall<T, E> call) throws E {
+		Semaphore permits = upstreamPermits.get(upstream);
+		permits.acquireUninterruptibly();
+		try {
+			return call.call();
+		} finally {
+			permits.release();
+		}
+	}
+
+	public String getConfig() {
+		return "GatewayExecutors using " + executorType + " threads, upstream concurrency limits " + upstreamLimits;
+	}
+
+	public String getStatus() {
+		StringBuilder resp = new StringBuilder("GatewayExecutors upstream calls in progress");
+		upstreamPermits.forEach((upstream, permits) -> resp.append(", " + upstream + "="
+				+ (upstreamLimits.get(upstream) - permits.availablePermits())));
+		return resp.toString();
+	}
+
+	@PostConstruct
+	public void postConstruct() {
+		log.info(getConfig());
+	}
+}
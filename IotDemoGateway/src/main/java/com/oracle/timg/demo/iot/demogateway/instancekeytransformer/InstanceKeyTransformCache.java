@@ -0,0 +1,153 @@
+/*Copyright (c) 2026 Oracle and/or its affiliates.
+
+The Universal Permissive License (UPL), Version 1.0
+
+Subject to the condition set forth below, permission is hereby granted to any
+person obtaining a copy of this software, associated documentation and/or data
+(collectively the "Software"), free of charge and under any and all copyright
+rights in the Software, and any and all patent rights owned or freely
+licensable by each licensor hereunder covering either (i) the unmodified
+Software as contributed to or provided by such licensor, or (ii) the Larger
+Works (as defined below), to deal in both
+
+(a) the Software, and
+(b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+one is included with the Software (each a "Larger Work" to which the Software
+is contributed by such licensors),
+
+without restriction, including without limitation the rights to copy, create
+derivative works of, display, perform, and distribute the Software and make,
+use, sell, offer for sale, import, export, have made, and have sold the
+Software and the Larger Work(s), and to sublicense the foregoing rights on
+either these or other terms.
+
+This license is subject to the following condition:
+The above copyright notice and either this complete permission notice or at
+a minimum a reference to the UPL must be included in all copies or
+substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+ */
+package com.oracle.timg.demo.iot.demogateway.instancekeytransformer;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/*
+ * A size limited memo of the results of running received instance keys through
+ * the transformer chain, the least recently used keys are dropped once it's
+ * full. As the devices keep sending with the same keys most lookups should hit.
+ *
+ * The entries are spread over a number of separately locked stripes (each an
+ * access ordered LinkedHashMap) so threads working on different keys don't all
+ * wait on the same lock, the limit is split across the stripes (the first
+ * few get one more if it doesn't divide evenly, and small caches use fewer
+ * stripes) so the total held is never more than the limit, but the LRU
+ * ordering is per stripe rather than exact.
+ */
+class InstanceKeyTransformCache {
+	private static final int STRIPE_COUNT = 16;
+	private final Stripe[] stripes;
+	private final int maxSize;
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+	private final LongAdder evictions = new LongAdder();
+
+	/**
+	 * what happened when the received key was transformed, either the resulting
+	 * key or the reason the received key could not be used
+	 */
+	record CachedResult(String instanceKey, InstanceKeyIncommingFormatException formatException) {
+	}
+
+	InstanceKeyTransformCache(int maxSize) {
+		this.maxSize = Math.max(1, maxSize);
+		this.stripes = new Stripe[Math.min(STRIPE_COUNT, this.maxSize)];
+		int stripeSize = this.maxSize / stripes.length;
+		int larger = this.maxSize % stripes.length;
+		for (int i = 0; i < stripes.length; i++) {
+			stripes[i] = new Stripe(i < larger ? stripeSize + 1 : stripeSize);
+		}
+	}
+
+	/**
+	 * returns the cached result for the received key, or null if there isn't one
+	 * 
+	 * @param receivedKey
+	 * @return
+	 */
+	CachedResult get(String receivedKey) {
+		Stripe stripe = stripeFor(receivedKey);
+		CachedResult result;
+		synchronized (stripe) {
+			result = stripe.get(receivedKey);
+		}
+		if (result == null) {
+			misses.increment();
+		} else {
+			hits.increment();
+		}
+		return result;
+	}
+
+	void put(String receivedKey, CachedResult result) {
+		Stripe stripe = stripeFor(receivedKey);
+		synchronized (stripe) {
+			stripe.put(receivedKey, result);
+		}
+	}
+
+	int size() {
+		int size = 0;
+		for (Stripe stripe : stripes) {
+			synchronized (stripe) {
+				size += stripe.size();
+			}
+		}
+		return size;
+	}
+
+	String getConfig() {
+		return "InstanceKeyTransformCache holding up to " + maxSize + " keys in " + stripes.length + " stripes";
+	}
+
+	String getStatus() {
+		long hitCount = hits.sum();
+		long lookups = hitCount + misses.sum();
+		return "InstanceKeyTransformCache has " + size() + " keys, hits=" + hitCount + ", misses=" + (lookups - hitCount)
+				+ ", hitRate=" + (lookups == 0 ? "n/a" : String.format("%.1f%%", (hitCount * 100.0) / lookups))
+				+ ", evictions=" + evictions.sum();
+	}
+
+	private Stripe stripeFor(String receivedKey) {
+		// spread the hash bits so keys with similar hashes don't all end up together
+		int hash = receivedKey.hashCode();
+		return stripes[Math.floorMod(hash ^ (hash >>> 16), stripes.length)];
+	}
+
+	private class Stripe extends LinkedHashMap<String, CachedResult> {
+		private static final long serialVersionUID = 1L;
+		private final int stripeSize;
+
+		Stripe(int stripeSize) {
+			super(16, 0.75f, true);
+			this.stripeSize = stripeSize;
+		}
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, CachedResult> eldest) {
+			if (size() > stripeSize) {
+				evictions.increment();
+				return true;
+			}
+			return false;
+		}
+	}
+}
@@ -37,8 +37,13 @@ SOFTWARE.
 package com.oracle.timg.demo.iot.demogateway.instancekeytransformer;
 
 import java.util.List;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 
+import com.oracle.timg.demo.iot.demogateway.metrics.GatewayMetrics;
+
+import io.micrometer.core.instrument.Timer;
+import io.micronaut.context.annotation.Property;
 import jakarta.annotation.PostConstruct;
 import jakarta.inject.Inject;
 import jakarta.inject.Singleton;
@@ -53,15 +58,56 @@ public class InstanceKeyTransformService {
 	// this will inject a list of possible transformers
 	// of course if the transformers are blocked because they are not instantiated
 	// (maybe they require properties not set) they will not be included here
-	@Inject
 	private List<InstanceKeyTransformer> transformers;
+	private final GatewayMetrics gatewayMetrics;
+	// the time spent in each transformer, in the same order as the transformers
+	private List<Timer> transformerTimers;
+	// if > 0 then the results of the transformer chain are remembered for this many
+	// received keys
+	private final int cacheSize;
+	private InstanceKeyTransformCache cache;
+
+	@Inject
+	public InstanceKeyTransformService(List<InstanceKeyTransformer> transformers, GatewayMetrics gatewayMetrics,
+			@Property(name = "gateway.instance.keytransformer.cache.size", defaultValue = "0") int cacheSize) {
+		this.transformers = transformers;
+		this.gatewayMetrics = gatewayMetrics;
+		this.cacheSize = cacheSize;
+	}
 
 	public String reformatInstanceKey(@NotBlank @NonNull String recievedEventKey)
 			throws InstanceKeyIncommingFormatException, InstanceKeyTransformException {
+		if (cache == null) {
+			return runTransformers(recievedEventKey);
+		}
+		InstanceKeyTransformCache.CachedResult cached = cache.get(recievedEventKey);
+		if (cached == null) {
+			// a badly formatted key will always be badly formatted so remember that,
+			// but an InstanceKeyTransformException is a problem in the transformer itself
+			// and may not happen next time so that's not cached
+			try {
+				cached = new InstanceKeyTransformCache.CachedResult(runTransformers(recievedEventKey), null);
+			} catch (InstanceKeyIncommingFormatException e) {
+				cached = new InstanceKeyTransformCache.CachedResult(null, e);
+			}
+			cache.put(recievedEventKey, cached);
+		}
+		if (cached.formatException() != null) {
+			// throw a new exception so the stack trace is for this call
+			throw new InstanceKeyIncommingFormatException(cached.formatException().getMessage(),
+					cached.formatException().getCause());
+		}
+		return cached.instanceKey();
+	}
+
+	private String runTransformers(String recievedEventKey)
+			throws InstanceKeyIncommingFormatException, InstanceKeyTransformException {
 		// go through the transformers list passing the output of each entry into the
 		// following one as input
 		String tempResp = recievedEventKey;
-		for (InstanceKeyTransformer transformer : transformers) {
+		for (int i = 0; i < transformers.size(); i++) {
+			InstanceKeyTransformer transformer = transformers.get(i);
+			long start = System.nanoTime();
 			try {
 				tempResp = transformer.reformatInstanceKey(tempResp);
 			} catch (InstanceKeyIncommingFormatException eIncomming) {
@@ -72,6 +118,8 @@ public class InstanceKeyTransformService {
 				throw new InstanceKeyTransformException("InstanceKeyTransformer " + transformer.getName()
 						+ " threw an InstanceKeyTransformException processing incomming key " + tempResp
 						+ " completed formatters are " + completedtransformers(transformer), eReformatting);
+			} finally {
+				transformerTimers.get(i).record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
 			}
 		}
 		String response = tempResp;
@@ -85,8 +133,14 @@ public class InstanceKeyTransformService {
 	}
 
 	public String getConfig() {
-		return "There are  " + transformers.size() + " transformers which are : " + transformers.stream()
-				.map(r -> r.getName() + " (config " + r.getConfig() + ")").collect(Collectors.joining(", "));
+		return "There are  " + transformers.size() + " transformers which are : "
+				+ transformers.stream().map(r -> r.getName() + " (config " + r.getConfig() + ")")
+						.collect(Collectors.joining(", "))
+				+ (cache == null ? ", results are not cached" : ", " + cache.getConfig());
+	}
+
+	public String getStatus() {
+		return cache == null ? "InstanceKeyTransformService is not caching results" : cache.getStatus();
 	}
 
 	public String getName() {
@@ -100,6 +154,11 @@ public class InstanceKeyTransformService {
 		// make sure any transformers are correctly sorted to the order they report (or
 		// more hopefully in the config file)
 		transformers = transformers.stream().sorted().toList();
+		transformerTimers = transformers.stream()
+				.map(transformer -> gatewayMetrics.instanceKeyTransformerTimer(transformer.getName())).toList();
+		if (cacheSize > 0) {
+			cache = new InstanceKeyTransformCache(cacheSize);
+		}
 		log.info(this.toString());
 	}
 
@@ -0,0 +1,176 @@
+/*Copyright (c) 2026 Oracle and/or its affiliates.
+
+The Universal Permissive License (UPL), Version 1.0
+
+Subject to the condition set forth below, permission is hereby granted to any
+person obtaining a copy of this software, associated documentation and/or data
+(collectively the "Software"), free of charge and under any and all copyright
+rights in the Software, and any and all patent rights owned or freely
+licensable by each licensor hereunder covering either (i) the unmodified
+Software as contributed to or provided by such licensor, or (ii) the Larger
+Works (as defined below), to deal in both
+
+(a) the Software, and
+(b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+one is included with the Software (each a "Larger Work" to which the Software
+is contributed by such licensors),
+
+without restriction, including without limitation the rights to copy, create
+derivative works of, display, perform, and distribute the Software and make,
+use, sell, offer for sale, import, export, have made, and have sold the
+Software and the Larger Work(s), and to sublicense the foregoing rights on
+either these or other terms.
+
+This license is subject to the following condition:
+The above copyright notice and either this complete permission notice or at
+a minimum a reference to the UPL must be included in all copies or
+substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+ */
+package com.oracle.timg.demo.iot.demogateway.iotupload;
+
+import java.util.concurrent.TimeUnit;
+
+import lombok.Getter;
+import lombok.extern.java.Log;
+
+/*
+ * a simple consecutive failure circuit breaker for an upstream service. Once
+ * failureThreshold requests in a row have failed the circuit opens and requests
+ * are refused (so callers fail fast rather than tying up threads waiting on a
+ * service that's down) until openTime has passed, then a single trial request is
+ * allowed through, if that works the circuit closes again, if not it re-opens
+ * for another openTime.
+ */
+@Log
+public class CircuitBreaker {
+	public enum State {
+		CLOSED, OPEN, HALF_OPEN
+	}
+
+	@Getter
+	private final String name;
+	private final int failureThreshold;
+	private final long openTimeNanos;
+	private State state = State.CLOSED;
+	private int consecutiveFailures = 0;
+	private long openedAt = 0;
+	private boolean trialInProgress = false;
+	private long timesOpened = 0;
+	private long refused = 0;
+
+	/**
+	 * @param name             used in log messages
+	 * @param failureThreshold how many failures in a row open the circuit, 0 or
+	 *                         less means it never opens
+	 * @param openTimeMillis   how long the circuit stays open before a trial
+	 *                         request is allowed
+	 */
+	public CircuitBreaker(String name, int failureThreshold, long openTimeMillis) {
+		this.name = name;
+		this.failureThreshold = failureThreshold;
+		this.openTimeNanos = TimeUnit.MILLISECONDS.toNanos(openTimeMillis);
+	}
+
+	/**
+	 * returns true if the request can be made, if this returns true the caller
+	 * must call recordSuccess, recordFailure or recordRejected once the request has
+	 * completed
+	 *
+	 * @return
+	 */
+	public synchronized boolean allowRequest() {
+		switch (state) {
+		case CLOSED:
+			return true;
+		case OPEN:
+			if (System.nanoTime() - openedAt < openTimeNanos) {
+				refused++;
+				return false;
+			}
+			log.info("Circuit " + name + " has been open for " + TimeUnit.NANOSECONDS.toMillis(openTimeNanos)
+					+ "ms, allowing a trial request");
+			state = State.HALF_OPEN;
+			trialInProgress = true;
+			return true;
+		case HALF_OPEN:
+		default:
+			// only one trial at a time
+			if (trialInProgress) {
+				refused++;
+				return false;
+			}
+			trialInProgress = true;
+			return true;
+		}
+	}
+
+	public synchronized void recordSuccess() {
+		if (state != State.CLOSED) {
+			log.info("Circuit " + name + " trial request succeeded, closing the circuit");
+		}
+		state = State.CLOSED;
+		consecutiveFailures = 0;
+		trialInProgress = false;
+	}
+
+	/**
+	 * the service responded but refused the request (e.g. it was invalid), that
+	 * says nothing about whether the service is working so the state doesn't
+	 * change, if this was the trial request another one is allowed
+	 */
+	public synchronized void recordRejected() {
+		trialInProgress = false;
+	}
+
+	public synchronized void recordFailure() {
+		consecutiveFailures++;
+		if (state == State.HALF_OPEN) {
+			log.warning("Circuit " + name + " trial request failed, re-opening the circuit");
+			open();
+		} else if ((state == State.CLOSED) && (failureThreshold > 0) && (consecutiveFailures >= failureThreshold)) {
+			log.warning("Circuit " + name + " has had " + consecutiveFailures + " failures in a row, opening the circuit");
+			open();
+		}
+	}
+
+	private void open() {
+		state = State.OPEN;
+		openedAt = System.nanoTime();
+		trialInProgress = false;
+		timesOpened++;
+	}
+
+	public synchronized State getState() {
+		return state;
+	}
+
+	public synchronized boolean isClosed() {
+		return state == State.CLOSED;
+	}
+
+	public synchronized long getTimesOpened() {
+		return timesOpened;
+	}
+
+	public synchronized long getRefusedCount() {
+		return refused;
+	}
+
+	public String getConfig() {
+		return "failureThreshold=" + failureThreshold + ", openTime=" + TimeUnit.NANOSECONDS.toMillis(openTimeNanos)
+				+ "ms";
+	}
+
+	public synchronized String getStatus() {
+		return "Circuit " + name + " is " + state + ", consecutiveFailures=" + consecutiveFailures + ", timesOpened="
+				+ timesOpened + ", refused=" + refused;
+	}
+}
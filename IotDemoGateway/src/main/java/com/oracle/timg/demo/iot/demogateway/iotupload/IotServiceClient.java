@@ -36,11 +36,38 @@ SOFTWARE.
  */
 package com.oracle.timg.demo.iot.demogateway.iotupload;
 
+import java.util.concurrent.CompletableFuture;
+
 import lombok.NonNull;
 
 public interface IotServiceClient {
 
+	/**
+	 * sends the event and waits for the response
+	 * 
+	 * @param externalKey
+	 * @param deviceSecret
+	 * @param eventText
+	 * @return true if the event was accepted, false if it was rejected and
+	 *         sending it again won't help, null if there was a problem sending it
+	 *         or the service had a problem that may go away (e.g. a timeout,
+	 *         throttling or server error) so it can be retried
+	 */
 	public Boolean sendEvent(@NonNull String externalKey, @NonNull String deviceSecret, String eventText);
 
+	/**
+	 * sends the event without waiting for the response, implementations may limit
+	 * the number of events in flight in which case this will wait until one of the
+	 * in flight events completes before sending
+	 * 
+	 * @param externalKey
+	 * @param deviceSecret
+	 * @param eventText
+	 * @return a future which completes with the same values as sendEvent would
+	 *         return
+	 */
+	public CompletableFuture<Boolean> sendEventAsync(@NonNull String externalKey, @NonNull String deviceSecret,
+			String eventText);
+
 	public String getConfig();
 }
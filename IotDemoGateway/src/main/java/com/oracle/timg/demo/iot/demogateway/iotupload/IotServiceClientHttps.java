@@ -41,8 +41,13 @@ import java.net.URI;
 import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
 import java.util.Base64;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Semaphore;
 
+import com.oracle.timg.demo.iot.demogateway.executors.GatewayExecutors;
 import com.oracle.timg.demo.iot.demogateway.ociinterations.IotServiceDetails;
 
 import io.micronaut.context.annotation.Property;
@@ -62,42 +67,132 @@ public class IotServiceClientHttps implements IotServiceClient {
 	private final IotServiceDetails iotServiceDetails;
 	private final String devicePath;
 	private final String iotDomainHost;
+	private final String baseUrl;
+	private final String deviceUrlPrefix;
+	private final int maxInFlight;
+	private final Duration requestTimeout;
+	// limits the number of requests that are outstanding at any one time, this is
+	// the upload equivalent of the upstream limits in GatewayExecutors
+	private final Semaphore inFlight;
+	// the client is shared by all requests so the connections (and their TLS
+	// sessions) are reused, with HTTP/2 multiple requests to the device host can
+	// share a single connection. The client runs it's work (e.g. completing async
+	// sends) on threads from the gateway executors so they can be virtual threads
+	private final HttpClient client;
 
 	// the devicePath is not retrieved from the iot service as an adaptor can have
-	// multiple paths
+	// multiple paths. The baseUrl is normally worked out from the iot domain, but
+	// can be set to send the events somewhere else, e.g. the stand in device host
 	@Inject
-	public IotServiceClientHttps(IotServiceDetails iotServiceDetails,
-			@Property(name = "gateway.iotservice.digitaltwinadapter.pathprefix") String devicePath) {
+	public IotServiceClientHttps(IotServiceDetails iotServiceDetails, GatewayExecutors gatewayExecutors,
+			@Property(name = "gateway.iotservice.digitaltwinadapter.pathprefix") String devicePath,
+			@Property(name = "gateway.iotservice.https.maxinflight", defaultValue = "256") int maxInFlight,
+			@Property(name = "gateway.iotservice.https.connecttimeout", defaultValue = "10") int connectTimeout,
+			@Property(name = "gateway.iotservice.https.requesttimeout", defaultValue = "30") int requestTimeout,
+			@Property(name = "gateway.iotservice.https.baseurl", defaultValue = "") String baseUrl) {
 		this.iotServiceDetails = iotServiceDetails;
 		this.devicePath = devicePath;
 		this.iotDomainHost = iotServiceDetails.getIotDomain().getDeviceHost();
+		this.baseUrl = baseUrl.isBlank() ? "https://" + iotDomainHost
+				: (baseUrl.endsWith("/") ? baseUrl.substring(0, baseUrl.length() - 1) : baseUrl);
+		this.deviceUrlPrefix = this.baseUrl + devicePath + "/";
+		this.maxInFlight = maxInFlight;
+		this.requestTimeout = Duration.ofSeconds(requestTimeout);
+		this.inFlight = new Semaphore(maxInFlight);
+		this.client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_2)
+				.connectTimeout(Duration.ofSeconds(connectTimeout))
+				.executor(gatewayExecutors.newTaskExecutor("https-upload")).build();
 	}
 
 	@Override
 	public Boolean sendEvent(@NonNull String externalKey, @NonNull String deviceSecret, String eventText) {
-		String url = "https://" + iotDomainHost + devicePath + "/" + externalKey;
-		String auth = externalKey + ":" + deviceSecret;
-		String encodedAuth = Base64.getEncoder().encodeToString(auth.getBytes());
-		String authHeader = "Basic " + encodedAuth;
-		HttpClient client = HttpClient.newHttpClient();
-		HttpRequest request = HttpRequest.newBuilder().uri(URI.create(url)).header("Content-Type", "application/json")
-				.header("Authorization", authHeader).POST(HttpRequest.BodyPublishers.ofString(eventText)).build();
-
+		HttpRequest request = buildRequest(externalKey, deviceSecret, eventText);
+		try {
+			inFlight.acquire();
+		} catch (InterruptedException e) {
+			log.warning("Interrupted waiting to send event for " + externalKey);
+			Thread.currentThread().interrupt();
+			return null;
+		}
 		try {
 			HttpResponse<String> response = client.send(request, HttpResponse.BodyHandlers.ofString());
-			return ((response.statusCode() >= 200) && (response.statusCode() <= 299));
+			return uploadResult(response);
 		} catch (IOException e) {
-			e.printStackTrace();
+			log.warning("IOException sending event for " + externalKey + ", " + e.getLocalizedMessage());
 			return null;
 		} catch (InterruptedException e) {
-			e.printStackTrace();
+			log.warning("Interrupted sending event for " + externalKey);
+			Thread.currentThread().interrupt();
+			return null;
+		} finally {
+			inFlight.release();
+		}
+	}
+
+	@Override
+	public CompletableFuture<Boolean> sendEventAsync(@NonNull String externalKey, @NonNull String deviceSecret,
+			String eventText) {
+		HttpRequest request = buildRequest(externalKey, deviceSecret, eventText);
+		try {
+			inFlight.acquire();
+		} catch (InterruptedException e) {
+			log.warning("Interrupted waiting to send event for " + externalKey);
+			Thread.currentThread().interrupt();
+			return CompletableFuture.completedFuture(null);
+		}
+		try {
+			return client.sendAsync(request, HttpResponse.BodyHandlers.ofString()).handle((response, throwable) -> {
+				inFlight.release();
+				if (throwable != null) {
+					log.warning("Problem sending event for " + externalKey + ", " + throwable.getLocalizedMessage());
+					return null;
+				}
+				return uploadResult(response);
+			});
+		} catch (RuntimeException e) {
+			// the request didn't get started so the handler above won't release the
+			// permit
+			inFlight.release();
+			throw e;
+		}
+	}
+
+	private HttpRequest buildRequest(String externalKey, String deviceSecret, String eventText) {
+		String url = deviceUrlPrefix + externalKey;
+		String auth = externalKey + ":" + deviceSecret;
+		String encodedAuth = Base64.getEncoder().encodeToString(auth.getBytes(StandardCharsets.UTF_8));
+		String authHeader = "Basic " + encodedAuth;
+		return HttpRequest.newBuilder().uri(URI.create(url)).timeout(requestTimeout)
+				.header("Content-Type", "application/json").header("Authorization", authHeader)
+				.POST(HttpRequest.BodyPublishers.ofString(eventText)).build();
+	}
+
+	/**
+	 * a timeout, throttling or server error may well work if it's sent again, so
+	 * is treated like a send problem (null) and retried, any other 4xx means the
+	 * service looked at the event and said no
+	 */
+	private Boolean uploadResult(HttpResponse<String> response) {
+		int status = response.statusCode();
+		if ((status >= 200) && (status <= 299)) {
+			return true;
+		}
+		if ((status == 408) || (status == 429) || (status >= 500)) {
+			log.fine(() -> "Upload got retryable status " + status + " from " + response.uri());
 			return null;
 		}
+		return false;
+	}
+
+	public int getInFlightCount() {
+		return maxInFlight - inFlight.availablePermits();
 	}
 
 	@Override
 	public String getConfig() {
-		return "iotDomainHost=" + iotDomainHost + ", devicePath=" + devicePath;
+		return "iotDomainHost=" + iotDomainHost + ", baseUrl=" + baseUrl + ", devicePath=" + devicePath
+				+ ", maxInFlight=" + maxInFlight
+				+ ", requestTimeout=" + requestTimeout.toSeconds();
 	}
 
 	@PostConstruct
@@ -0,0 +1,419 @@
+/*Copyright (c) 2026 Oracle and/or its affiliates.
+
+The Universal Permissive License (UPL), Version 1.0
+
+Subject to the condition set forth below, permission is hereby granted to any
+person obtaining a copy of this software, associated documentation and/or data
+(collectively the "Software"), free of charge and under any and all copyright
+rights in the Software, and any and all patent rights owned or freely
+licensable by each licensor hereunder covering either (i) the unmodified
+Software as contributed to or provided by such licensor, or (ii) the Larger
+Works (as defined below), to deal in both
+
+(a) the Software, and
+(b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+one is included with the Software (each a "Larger Work" to which the Software
+is contributed by such licensors),
+
+without restriction, including without limitation the rights to copy, create
+derivative works of, display, perform, and distribute the Software and make,
+use, sell, offer for sale, import, export, have made, and have sold the
+Software and the Larger Work(s), and to sublicense the foregoing rights on
+either these or other terms.
+
+This license is subject to the following condition:
+The above copyright notice and either this complete permission notice or at
+a minimum a reference to the UPL must be included in all copies or
+substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+ */
+package com.oracle.timg.demo.iot.demogateway.iotupload;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.hivemq.client.mqtt.MqttClient;
+import com.hivemq.client.mqtt.datatypes.MqttQos;
+import com.hivemq.client.mqtt.mqtt5.Mqtt5AsyncClient;
+import com.hivemq.client.mqtt.mqtt5.Mqtt5ClientBuilder;
+import com.hivemq.client.mqtt.mqtt5.message.connect.connack.Mqtt5ConnAck;
+import com.hivemq.client.mqtt.mqtt5.message.publish.Mqtt5PublishResult;
+import com.oracle.timg.demo.iot.demogateway.executors.GatewayExecutors;
+import com.oracle.timg.demo.iot.demogateway.ociinterations.IotServiceDetails;
+
+import io.micronaut.context.annotation.Property;
+import io.micronaut.context.annotation.Requires;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import jakarta.inject.Inject;
+import jakarta.inject.Singleton;
+import lombok.NonNull;
+import lombok.extern.java.Log;
+
+/*
+ * uploads events over MQTT, each digital twin instance gets it's own long lived
+ * session (authenticated with the instances external key and secret) which is
+ * kept in a pool and reused for all of that instances events, so a chatty device
+ * doesn't pay for a new connection (and TLS handshake) per event. Sessions that
+ * have not been used for a while are closed. The pool is kept in access order,
+ * so when it's full the session that's been unused the longest is found
+ * straight away, and it's only changed while holding it's lock so the check for
+ * space and adding a new session can't be split by another thread.
+ *
+ * This uses the HiveMQ client directly rather than Micronaut MQTT as that only
+ * supports a single connection with fixed credentials
+ */
+@Singleton
+@Log
+@Requires(property = "gateway.iotservice.uploadmechanism", value = "MQTT")
+@Requires(property = "gateway.iotservice.digitaltwinadapter.pathprefix")
+public class IotServiceClientMqtt implements IotServiceClient {
+	private final String host;
+	private final int port;
+	private final boolean tls;
+	private final String topicPrefix;
+	private final MqttQos qos;
+	private final int keepAlive;
+	private final long idleTimeoutNanos;
+	private final int maxSessions;
+	private final int maxInFlight;
+	private final int requestTimeout;
+	private final Semaphore inFlight;
+	// in access order (least recently used first), only used while holding the lock
+	// on it
+	private final LinkedHashMap<String, DeviceSession> sessions = new LinkedHashMap<>(16, 0.75f, true);
+	private final ScheduledExecutorService sessionReaper;
+	private final LongAdder connects = new LongAdder();
+	private final LongAdder connectFailures = new LongAdder();
+	private final LongAdder publishFailures = new LongAdder();
+	private final LongAdder idleClosed = new LongAdder();
+
+	/*
+	 * a connected (or connecting) client for one instance, it's only disconnected
+	 * once nothing is using it
+	 */
+	private class DeviceSession {
+		private final String externalKey;
+		private final String deviceSecret;
+		private final Mqtt5AsyncClient client;
+		private final CompletableFuture<Mqtt5ConnAck> connected;
+		private volatile long lastUsed = System.nanoTime();
+		private int users = 0;
+		// no longer in the pool, will be closed once it has no users
+		private boolean retired = false;
+		private boolean closed = false;
+
+		private DeviceSession(String externalKey, String deviceSecret) {
+			this.externalKey = externalKey;
+			this.deviceSecret = deviceSecret;
+			Mqtt5ClientBuilder builder = MqttClient.builder().useMqttVersion5().serverHost(host).serverPort(port);
+			if (tls) {
+				builder = builder.sslWithDefaultConfig();
+			}
+			this.client = builder.buildAsync();
+			connects.increment();
+			this.connected = client.connectWith().simpleAuth().username(externalKey)
+					.password(deviceSecret.getBytes(StandardCharsets.UTF_8)).applySimpleAuth().keepAlive(keepAlive)
+					.cleanStart(true).send();
+		}
+
+		private synchronized boolean acquire() {
+			if (retired || closed) {
+				return false;
+			}
+			users++;
+			lastUsed = System.nanoTime();
+			return true;
+		}
+
+		private synchronized void release() {
+			users--;
+			lastUsed = System.nanoTime();
+			if (retired && (users == 0)) {
+				close();
+			}
+		}
+
+		/**
+		 * takes the session out of the pool, it will be closed when the last user
+		 * releases it
+		 */
+		private synchronized void retire() {
+			synchronized (sessions) {
+				sessions.remove(externalKey, this);
+			}
+			retired = true;
+			if (users == 0) {
+				close();
+			}
+		}
+
+		private synchronized boolean closeIfIdle(long now) {
+			if ((users > 0) || (now - lastUsed < idleTimeoutNanos)) {
+				return false;
+			}
+			retire();
+			return true;
+		}
+
+		private void close() {
+			if (closed) {
+				return;
+			}
+			closed = true;
+			// if it never connected there's nothing to disconnect
+			connected.thenCompose(connAck -> client.disconnect()).exceptionally(throwable -> {
+				log.fine(() -> "Problem disconnecting mqtt session for " + externalKey + ", "
+						+ throwable.getLocalizedMessage());
+				return null;
+			});
+		}
+	}
+
+	@Inject
+	public IotServiceClientMqtt(IotServiceDetails iotServiceDetails, GatewayExecutors gatewayExecutors,
+			@Property(name = "gateway.iotservice.digitaltwinadapter.pathprefix") String devicePath,
+			@Property(name = "gateway.iotservice.mqtt.host", defaultValue = "") String host,
+			@Property(name = "gateway.iotservice.mqtt.port", defaultValue = "8883") int port,
+			@Property(name = "gateway.iotservice.mqtt.tls", defaultValue = "true") boolean tls,
+			@Property(name = "gateway.iotservice.mqtt.qos", defaultValue = "1") int qos,
+			@Property(name = "gateway.iotservice.mqtt.keepalive", defaultValue = "60") int keepAlive,
+			@Property(name = "gateway.iotservice.mqtt.idletimeout", defaultValue = "300") int idleTimeout,
+			@Property(name = "gateway.iotservice.mqtt.maxsessions", defaultValue = "10000") int maxSessions,
+			@Property(name = "gateway.iotservice.mqtt.maxinflight", defaultValue = "256") int maxInFlight,
+			@Property(name = "gateway.iotservice.mqtt.requesttimeout", defaultValue = "30") int requestTimeout) {
+		// by default talk to the iot domain, but for testing this can be a local broker
+		this.host = host.isBlank() ? iotServiceDetails.getIotDomain().getDeviceHost() : host;
+		this.port = port;
+		this.tls = tls;
+		// the topic is the same as the path used for https, but without the leading /
+		this.topicPrefix = devicePath.startsWith("/") ? devicePath.substring(1) : devicePath;
+		this.qos = MqttQos.fromCode(qos);
+		if (this.qos == null) {
+			throw new IllegalArgumentException("gateway.iotservice.mqtt.qos must be 0, 1 or 2, not " + qos);
+		}
+		this.keepAlive = keepAlive;
+		this.idleTimeoutNanos = TimeUnit.SECONDS.toNanos(idleTimeout);
+		this.maxSessions = Math.max(1, maxSessions);
+		this.maxInFlight = maxInFlight;
+		this.requestTimeout = requestTimeout;
+		this.inFlight = new Semaphore(maxInFlight);
+		this.sessionReaper = Executors
+				.newSingleThreadScheduledExecutor(gatewayExecutors.newThreadFactory("mqtt-session-reaper"));
+		long reapInterval = Math.max(1, idleTimeout / 2);
+		sessionReaper.scheduleWithFixedDelay(this::closeIdleSessions, reapInterval, reapInterval, TimeUnit.SECONDS);
+	}
+
+	@Override
+	public Boolean sendEvent(@NonNull String externalKey, @NonNull String deviceSecret, String eventText) {
+		try {
+			return sendEventAsync(externalKey, deviceSecret, eventText).get(requestTimeout, TimeUnit.SECONDS);
+		} catch (InterruptedException e) {
+			log.warning("Interrupted sending event for " + externalKey);
+			Thread.currentThread().interrupt();
+			return null;
+		} catch (ExecutionException | TimeoutException e) {
+			log.warning("Problem sending event for " + externalKey + ", " + e.getLocalizedMessage());
+			return null;
+		}
+	}
+
+	@Override
+	public CompletableFuture<Boolean> sendEventAsync(@NonNull String externalKey, @NonNull String deviceSecret,
+			String eventText) {
+		try {
+			inFlight.acquire();
+		} catch (InterruptedException e) {
+			log.warning("Interrupted waiting to send event for " + externalKey);
+			Thread.currentThread().interrupt();
+			return CompletableFuture.completedFuture(null);
+		}
+		DeviceSession session;
+		try {
+			session = acquireSession(externalKey, deviceSecret);
+		} catch (RuntimeException e) {
+			inFlight.release();
+			throw e;
+		}
+		byte[] payload = eventText.getBytes(StandardCharsets.UTF_8);
+		return session.connected
+				.thenCompose(connAck -> session.client.publishWith().topic(topicPrefix + "/" + externalKey).qos(qos)
+						.contentType("application/json").payload(payload).send())
+				.handle((publishResult, throwable) -> {
+					inFlight.release();
+					Boolean result = toResult(session, publishResult, throwable);
+					session.release();
+					return result;
+				});
+	}
+
+	/**
+	 * gets the pooled session for the instance, creating (and starting to connect)
+	 * a new one if there isn't one or the secret has changed. If the pool is full
+	 * the least recently used session is removed to make space for the new one,
+	 * the sessions being replaced are retired once the pool lock has been released
+	 * as retiring locks the session
+	 */
+	private DeviceSession acquireSession(String externalKey, String deviceSecret) {
+		while (true) {
+			DeviceSession session;
+			DeviceSession replaced = null;
+			DeviceSession evicted = null;
+			synchronized (sessions) {
+				// this also makes it the most recently used
+				session = sessions.get(externalKey);
+				if ((session != null) && !session.deviceSecret.equals(deviceSecret)) {
+					log.fine(() -> "Secret for " + externalKey + " has changed, replacing it's mqtt session");
+					sessions.remove(externalKey);
+					replaced = session;
+					session = null;
+				}
+				if (session == null) {
+					if (sessions.size() >= maxSessions) {
+						Iterator<DeviceSession> leastRecentlyUsed = sessions.values().iterator();
+						evicted = leastRecentlyUsed.next();
+						leastRecentlyUsed.remove();
+					}
+					// connecting is asynchronous so creating the session doesn't hold the lock
+					// for long
+					session = new DeviceSession(externalKey, deviceSecret);
+					sessions.put(externalKey, session);
+				}
+			}
+			if (replaced != null) {
+				replaced.retire();
+			}
+			if (evicted != null) {
+				evicted.retire();
+			}
+			// if it's been retired since we got it then go round again
+			if (session.acquire()) {
+				return session;
+			}
+		}
+	}
+
+	private Boolean toResult(DeviceSession session, Mqtt5PublishResult publishResult, Throwable throwable) {
+		if (throwable != null) {
+			// most likely the connection failed or dropped, retire the session so the next
+			// event makes a new one
+			if (session.connected.isCompletedExceptionally()) {
+				connectFailures.increment();
+			} else {
+				publishFailures.increment();
+			}
+			session.retire();
+			log.warning("Problem sending event for " + session.externalKey + ", " + throwable.getLocalizedMessage());
+			return null;
+		}
+		if (publishResult.getError().isPresent()) {
+			publishFailures.increment();
+			session.retire();
+			log.warning("Problem publishing event for " + session.externalKey + ", "
+					+ publishResult.getError().get().getLocalizedMessage());
+			return null;
+		}
+		if (publishResult instanceof Mqtt5PublishResult.Mqtt5Qos1Result) {
+			Mqtt5PublishResult.Mqtt5Qos1Result qos1Result = (Mqtt5PublishResult.Mqtt5Qos1Result) publishResult;
+			if (qos1Result.getPubAck().getReasonCode().isError()) {
+				log.fine(() -> "Event for " + session.externalKey + " was rejected, "
+						+ qos1Result.getPubAck().getReasonCode());
+				return false;
+			}
+		} else if (publishResult instanceof Mqtt5PublishResult.Mqtt5Qos2Result) {
+			// the broker accepts (or rejects) the event in the pubrec, the pubcomp only
+			// completes the exchange so an error there is a failure not a rejection
+			Mqtt5PublishResult.Mqtt5Qos2Result qos2Result = (Mqtt5PublishResult.Mqtt5Qos2Result) publishResult;
+			if (qos2Result.getPubRec().getReasonCode().isError()) {
+				log.fine(() -> "Event for " + session.externalKey + " was rejected, "
+						+ qos2Result.getPubRec().getReasonCode());
+				return false;
+			}
+			if ((qos2Result instanceof Mqtt5PublishResult.Mqtt5Qos2CompleteResult)
+					&& ((Mqtt5PublishResult.Mqtt5Qos2CompleteResult) qos2Result).getPubComp().getReasonCode()
+							.isError()) {
+				publishFailures.increment();
+				session.retire();
+				log.warning("Problem completing publish of event for " + session.externalKey + ", "
+						+ ((Mqtt5PublishResult.Mqtt5Qos2CompleteResult) qos2Result).getPubComp().getReasonCode());
+				return null;
+			}
+		}
+		return true;
+	}
+
+	private void closeIdleSessions() {
+		long now = System.nanoTime();
+		int closedCount = 0;
+		// closing a session removes it from the pool, so work on a copy
+		for (DeviceSession session : sessionsSnapshot()) {
+			if (session.closeIfIdle(now)) {
+				closedCount++;
+			}
+		}
+		if (closedCount > 0) {
+			idleClosed.add(closedCount);
+			int count = closedCount;
+			log.fine(() -> "Closed " + count + " idle mqtt sessions, " + getSessionCount() + " remaining");
+		}
+	}
+
+	private List<DeviceSession> sessionsSnapshot() {
+		synchronized (sessions) {
+			return List.copyOf(sessions.values());
+		}
+	}
+
+	public int getSessionCount() {
+		synchronized (sessions) {
+			return sessions.size();
+		}
+	}
+
+	public int getInFlightCount() {
+		return maxInFlight - inFlight.availablePermits();
+	}
+
+	@Override
+	public String getConfig() {
+		return "host=" + host + ", port=" + port + ", tls=" + tls + ", topicPrefix=" + topicPrefix + ", qos="
+				+ qos.getCode() + ", keepAlive=" + keepAlive + ", idleTimeout="
+				+ TimeUnit.NANOSECONDS.toSeconds(idleTimeoutNanos) + ", maxSessions=" + maxSessions
+				+ ", maxInFlight=" + maxInFlight + ", requestTimeout=" + requestTimeout;
+	}
+
+	public String getStatus() {
+		return "IotServiceClientMqtt has " + getSessionCount() + " sessions, " + getInFlightCount()
+				+ " events in flight, connects=" + connects.sum() + ", connectFailures=" + connectFailures.sum()
+				+ ", publishFailures=" + publishFailures.sum() + ", idleClosed=" + idleClosed.sum();
+	}
+
+	@PostConstruct
+	public void postConstruct() {
+		log.info("IotServiceClientMqtt config " + getConfig());
+	}
+
+	@PreDestroy
+	public void preDestroy() {
+		sessionReaper.shutdownNow();
+		sessionsSnapshot().forEach(DeviceSession::retire);
+		log.info(getStatus());
+	}
+}
@@ -0,0 +1,167 @@
+/*Copyright (c) 2026 Oracle and/or its affiliates.
+
+The Universal Permissive License (UPL), Version 1.0
+
+Subject to the condition set forth below, permission is hereby granted to any
+person obtaining a copy of this software, associated documentation and/or data
+(collectively the "Software"), free of charge and under any and all copyright
+rights in the Software, and any and all patent rights owned or freely
+licensable by each licensor hereunder covering either (i) the unmodified
+Software as contributed to or provided by such licensor, or (ii) the Larger
+Works (as defined below), to deal in both
+
+(a) the Software, and
+(b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+one is included with the Software (each a "Larger Work" to which the Software
+is contributed by such licensors),
+
+without restriction, including without limitation the rights to copy, create
+derivative works of, display, perform, and distribute the Software and make,
+use, sell, offer for sale, import, export, have made, and have sold the
+Software and the Larger Work(s), and to sublicense the foregoing rights on
+either these or other terms.
+
+This license is subject to the following condition:
+The above copyright notice and either this complete permission notice or at
+a minimum a reference to the UPL must be included in all copies or
+substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+ */
+package com.oracle.timg.demo.iot.demogateway.metrics;
+
+import java.util.function.ToDoubleFunction;
+
+import com.oracle.timg.demo.iot.demogateway.caches.AuthIdToAuthValueCache;
+import com.oracle.timg.demo.iot.demogateway.caches.IdToInstanceMapping;
+import com.oracle.timg.demo.iot.demogateway.queue.DeviceRateLimiter;
+import com.oracle.timg.demo.iot.demogateway.queue.EventDataPending;
+import com.oracle.timg.demo.iot.demogateway.queue.EventDeadLetter;
+import com.oracle.timg.demo.iot.demogateway.queue.EventDeduplicator;
+import com.oracle.timg.demo.iot.demogateway.queue.EventLoadShedder;
+import com.oracle.timg.demo.iot.demogateway.queue.EventQueue;
+import com.oracle.timg.demo.iot.demogateway.queue.EventUploader;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import jakarta.inject.Inject;
+import jakarta.inject.Singleton;
+
+/*
+ * Micronaut will find this and bind it to the meter registry when that's
+ * created, the meters just read the current values from the gateway beans when
+ * the metrics are collected. The cache hit ratios are not recorded directly,
+ * use the hit / miss counters (e.g. in Prometheus rate(hits) / (rate(hits) +
+ * rate(misses)))
+ */
+@Singleton
+public class GatewayMeterBinder implements MeterBinder {
+	private final EventQueue eventQueue;
+	private final EventDataPending eventDataPending;
+	private final IdToInstanceMapping idToInstanceMapping;
+	private final AuthIdToAuthValueCache authIdToAuthValueCache;
+	private final EventUploader eventUploader;
+	private final EventDeadLetter eventDeadLetter;
+	private final DeviceRateLimiter deviceRateLimiter;
+	private final EventLoadShedder eventLoadShedder;
+	private final EventDeduplicator eventDeduplicator;
+
+	@Inject
+	public GatewayMeterBinder(EventQueue eventQueue, EventDataPending eventDataPending,
+			IdToInstanceMapping idToInstanceMapping, AuthIdToAuthValueCache authIdToAuthValueCache,
+			EventUploader eventUploader, EventDeadLetter eventDeadLetter, DeviceRateLimiter deviceRateLimiter,
+			EventLoadShedder eventLoadShedder, EventDeduplicator eventDeduplicator) {
+		this.eventQueue = eventQueue;
+		this.eventDataPending = eventDataPending;
+		this.idToInstanceMapping = idToInstanceMapping;
+		this.authIdToAuthValueCache = authIdToAuthValueCache;
+		this.eventUploader = eventUploader;
+		this.eventDeadLetter = eventDeadLetter;
+		this.deviceRateLimiter = deviceRateLimiter;
+		this.eventLoadShedder = eventLoadShedder;
+		this.eventDeduplicator = eventDeduplicator;
+	}
+
+	@Override
+	public void bindTo(MeterRegistry registry) {
+		Gauge.builder(GatewayMetrics.PREFIX + "eventqueue.size", eventQueue, EventQueue::getQueueSize)
+				.description("Events waiting in the event queue").register(registry);
+		Gauge.builder(GatewayMetrics.PREFIX + "eventqueue.remaining", eventQueue, EventQueue::getRemainingCapacity)
+				.description("Space left in the event queue").register(registry);
+
+		Gauge.builder(GatewayMetrics.PREFIX + "pending.instances", eventDataPending,
+				EventDataPending::getPendingInstanceCount)
+				.description("Instances being created that have events waiting for them").register(registry);
+		Gauge.builder(GatewayMetrics.PREFIX + "pending.events", eventDataPending,
+				EventDataPending::getPendingEventCount)
+				.description("Events waiting for their instance to be created").register(registry);
+
+		FunctionCounter.builder(GatewayMetrics.PREFIX + "ingest.ratelimited", deviceRateLimiter,
+				DeviceRateLimiter::getLimitedEventCount)
+				.description("Events refused as the device was over its rate limit").register(registry);
+		Gauge.builder(GatewayMetrics.PREFIX + "ingest.ratelimited.devices", deviceRateLimiter,
+				DeviceRateLimiter::getDeviceCount).description("Devices with a rate limit bucket").register(registry);
+		FunctionCounter.builder(GatewayMetrics.PREFIX + "ingest.duplicates", eventDeduplicator,
+				EventDeduplicator::getDuplicateCount)
+				.description("Events dropped as they were a copy of one received within the dedup window")
+				.register(registry);
+		Gauge.builder(GatewayMetrics.PREFIX + "ingest.dedup.fingerprints", eventDeduplicator,
+				EventDeduplicator::getFingerprintCount).description("Event fingerprints held for duplicate checks")
+				.register(registry);
+		FunctionCounter.builder(GatewayMetrics.PREFIX + "eventqueue.shed", eventLoadShedder,
+				EventLoadShedder::getShedCount)
+				.description("Events dropped as they were too old when the gateway was overloaded")
+				.register(registry);
+
+		Gauge.builder(GatewayMetrics.PREFIX + "cache.size", idToInstanceMapping, IdToInstanceMapping::getSize)
+				.tag("cache", "instancemapping").register(registry);
+		cacheCounter(registry, "instancemapping", "hit", idToInstanceMapping, IdToInstanceMapping::getHitCount);
+		cacheCounter(registry, "instancemapping", "negativehit", idToInstanceMapping,
+				IdToInstanceMapping::getNegativeHitCount);
+		cacheCounter(registry, "instancemapping", "miss", idToInstanceMapping, IdToInstanceMapping::getMissCount);
+
+		Gauge.builder(GatewayMetrics.PREFIX + "cache.size", authIdToAuthValueCache, AuthIdToAuthValueCache::getSize)
+				.tag("cache", "authvalue").register(registry);
+		cacheCounter(registry, "authvalue", "hit", authIdToAuthValueCache, AuthIdToAuthValueCache::getHitCount);
+		cacheCounter(registry, "authvalue", "miss", authIdToAuthValueCache, AuthIdToAuthValueCache::getMissCount);
+
+		FunctionCounter.builder(GatewayMetrics.PREFIX + "upload.retries", eventUploader, EventUploader::getRetryCount)
+				.description("Upload attempts that were retried").register(registry);
+		FunctionCounter
+				.builder(GatewayMetrics.PREFIX + "upload.batches", eventUploader, EventUploader::getBatchesSentCount)
+				.description("Batches of events sent in a single upload").register(registry);
+		FunctionCounter
+				.builder(GatewayMetrics.PREFIX + "upload.deadlettered", eventUploader,
+						EventUploader::getRetriesExhaustedCount)
+				.description("Events dead lettered by the uploader").tag("reason", "retriesexhausted")
+				.register(registry);
+		FunctionCounter
+				.builder(GatewayMetrics.PREFIX + "upload.deadlettered", eventUploader,
+						EventUploader::getCircuitOpenCount)
+				.description("Events dead lettered by the uploader").tag("reason", "circuitopen").register(registry);
+		FunctionCounter
+				.builder(GatewayMetrics.PREFIX + "upload.deadlettered", eventUploader, EventUploader::getRejectedCount)
+				.description("Events dead lettered by the uploader").tag("reason", "rejected").register(registry);
+		Gauge.builder(GatewayMetrics.PREFIX + "upload.circuit.open", eventUploader,
+				uploader -> uploader.getCircuitBreaker().isClosed() ? 0 : 1)
+				.description("1 if the upload circuit breaker is open (or half open), 0 if it's closed")
+				.register(registry);
+		Gauge.builder(GatewayMetrics.PREFIX + "deadletter.size", eventDeadLetter, EventDeadLetter::getCount)
+				.description("Events waiting in the dead letter spool").register(registry);
+	}
+
+	private <T> void cacheCounter(MeterRegistry registry, String cache, String result, T source,
+			ToDoubleFunction<T> count) {
+		FunctionCounter.builder(GatewayMetrics.PREFIX + "cache.gets", source, count)
+				.description("Cache lookups by result").tag("cache", cache).tag("result", result)
+				.register(registry);
+	}
+}
@@ -0,0 +1,120 @@
+/*Copyright (c) 2026 Oracle and/or its affiliates.
+
+The Universal Permissive License (UPL), Version 1.0
+
+Subject to the condition set forth below, permission is hereby granted to any
+person obtaining a copy of this software, associated documentation and/or data
+(collectively the "Software"), free of charge and under any and all copyright
+rights in the Software, and any and all patent rights owned or freely
+licensable by each licensor hereunder covering either (i) the unmodified
+Software as contributed to or provided by such licensor, or (ii) the Larger
+Works (as defined below), to deal in both
+
+(a) the Software, and
+(b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+one is included with the Software (each a "Larger Work" to which the Software
+is contributed by such licensors),
+
+without restriction, including without limitation the rights to copy, create
+derivative works of, display, perform, and distribute the Software and make,
+use, sell, offer for sale, import, export, have made, and have sold the
+Software and the Larger Work(s), and to sublicense the foregoing rights on
+either these or other terms.
+
+This license is subject to the following condition:
+The above copyright notice and either this complete permission notice or at
+a minimum a reference to the UPL must be included in all copies or
+substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+ */
+package com.oracle.timg.demo.iot.demogateway.metrics;
+
+import java.util.concurrent.TimeUnit;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.composite.CompositeMeterRegistry;
+import io.micronaut.core.annotation.Nullable;
+import jakarta.inject.Inject;
+import jakarta.inject.Singleton;
+import lombok.Getter;
+import lombok.extern.java.Log;
+
+/*
+ * Holds the meters that are updated as events are processed (the gauges for
+ * things like the queue sizes are in GatewayMeterBinder). If metrics are
+ * disabled (micronaut.metrics.enabled=false) there is no meter registry, in
+ * that case an empty composite registry is used which discards everything so
+ * the callers don't need to check.
+ */
+@Singleton
+@Log
+public class GatewayMetrics {
+	public static final String PREFIX = "gateway.";
+	@Getter
+	private final MeterRegistry meterRegistry;
+	private final Timer uploadSuccess;
+	private final Timer uploadFailed;
+	private final Timer uploadError;
+
+	@Inject
+	public GatewayMetrics(@Nullable MeterRegistry meterRegistry) {
+		if (meterRegistry == null) {
+			log.info("No meter registry available, gateway metrics will not be recorded");
+			this.meterRegistry = new CompositeMeterRegistry();
+		} else {
+			this.meterRegistry = meterRegistry;
+		}
+		this.uploadSuccess = uploadTimer("success");
+		this.uploadFailed = uploadTimer("failed");
+		this.uploadError = uploadTimer("error");
+	}
+
+	/**
+	 * returns the timer for the named event data transformer
+	 * 
+	 * @param transformerName
+	 * @return
+	 */
+	public Timer eventDataTransformerTimer(String transformerName) {
+		return Timer.builder(PREFIX + "eventdata.transform").description("Time spent in each event data transformer")
+				.tag("transformer", transformerName).register(meterRegistry);
+	}
+
+	/**
+	 * returns the timer for the named instance key transformer
+	 * 
+	 * @param transformerName
+	 * @return
+	 */
+	public Timer instanceKeyTransformerTimer(String transformerName) {
+		return Timer.builder(PREFIX + "instancekey.transform")
+				.description("Time spent in each instance key transformer").tag("transformer", transformerName)
+				.register(meterRegistry);
+	}
+
+	/**
+	 * records how long a send to the IoT service took, the result is as returned
+	 * from the IotServiceClient, true for success, false if the service rejected
+	 * it and null if there was an error sending
+	 * 
+	 * @param durationNanos
+	 * @param result
+	 */
+	public void recordUpload(long durationNanos, Boolean result) {
+		Timer timer = result == null ? uploadError : result ? uploadSuccess : uploadFailed;
+		timer.record(durationNanos, TimeUnit.NANOSECONDS);
+	}
+
+	private Timer uploadTimer(String outcome) {
+		return Timer.builder(PREFIX + "upload.send").description("Time taken to send an event to the IoT service")
+				.tag("outcome", outcome).publishPercentileHistogram().register(meterRegistry);
+	}
+}
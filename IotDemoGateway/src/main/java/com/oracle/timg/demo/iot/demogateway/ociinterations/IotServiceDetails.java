@@ -36,11 +36,18 @@ SOFTWARE.
  */
 package com.oracle.timg.demo.iot.demogateway.ociinterations;
 
+import java.util.List;
+
 import com.oracle.bmc.identity.model.Compartment;
 import com.oracle.bmc.iot.model.DigitalTwinAdapter;
+import com.oracle.bmc.iot.model.DigitalTwinInstance;
 import com.oracle.bmc.iot.model.DigitalTwinModel;
 import com.oracle.bmc.iot.model.IotDomain;
 import com.oracle.bmc.iot.model.IotDomainGroup;
+import com.oracle.timg.demo.iot.demogateway.caches.InstanceMappingSnapshot;
+import com.oracle.timg.demo.iot.demogateway.caches.InstanceMappingSnapshot.ResolvedServiceDetails;
+import com.oracle.timg.demo.iot.demogateway.executors.GatewayExecutors;
+import com.oracle.timg.demo.iot.demogateway.executors.GatewayExecutors.Upstream;
 import com.oracle.timg.oci.authentication.AuthenticationProcessor;
 import com.oracle.timg.oci.identity.IdentityProcessor;
 import com.oracle.timg.oci.iot.IotProcessor;
@@ -66,8 +73,10 @@ import lombok.extern.java.Log;
  */
 public class IotServiceDetails {
 	private final AuthenticationProcessor authProcessor;
+	private final InstanceMappingSnapshot instanceMappingSnapshot;
+	private final GatewayExecutors gatewayExecutors;
+	private final boolean fromSnapshot;
 	private final IdentityProcessor identityProcessor;
-	@Getter
 	private final IotProcessor ioTProcessor;
 
 	@Getter
@@ -93,12 +102,15 @@ public class IotServiceDetails {
 
 	@Inject
 	public IotServiceDetails(AuthenticationProcessorDetails authProcessorData, IdentityProcessorDetails identityProcessorDetails,
+			InstanceMappingSnapshot instanceMappingSnapshot, GatewayExecutors gatewayExecutors,
 			@Property(name = "gateway.iotservice.domaingroup.compartment") String compartmentName,
 			@Property(name = "gateway.iotservice.domaingroup.name") String iotDomainGroupName,
 			@Property(name = "gateway.iotservice.domain.name") String iotDomainName,
 			@Property(name = "gateway.iotservice.digitaltwinmodel.name") String digitalTwinModelName,
 			@Property(name = "gateway.iotservice.digitaltwinadapter.name") String digitalTwinAdapterName)
 			throws Exception {
+		this.instanceMappingSnapshot = instanceMappingSnapshot;
+		this.gatewayExecutors = gatewayExecutors;
 		this.compartmentName = compartmentName;
 		this.iotDomainGroupName = iotDomainGroupName;
 		this.iotDomainName = iotDomainName;
@@ -110,13 +122,101 @@ public class IotServiceDetails {
 		this.identityProcessor = identityProcessorDetails.getIdentityProcessor();
 		this.ioTProcessor = new IotProcessor(authProcessor);
 
-		this.compartment = identityProcessor.locateCompartmentByPath(compartmentName);
+		// if we resolved these names last time then use those results and check them
+		// in the background, otherwise look them all up now
+		ResolvedServiceDetails snapshotDetails = instanceMappingSnapshot.getServiceDetails(compartmentName,
+				iotDomainGroupName, iotDomainName, digitalTwinModelName, digitalTwinAdapterName);
+		this.fromSnapshot = snapshotDetails != null;
+		OciResources resources;
+		if (fromSnapshot) {
+			log.info("Using iot service details from the instance mapping snapshot, they will be checked in the background");
+			resources = fromResolvedServiceDetails(snapshotDetails);
+		} else {
+			resources = resolveFromOci();
+		}
+		this.compartment = resources.compartment();
+		this.iotDomainGroup = resources.iotDomainGroup();
+		this.iotDomain = resources.iotDomain();
+		this.digitalTwinModel = resources.digitalTwinModel();
+		this.digitalTwinAdapter = resources.digitalTwinAdapter();
+		instanceMappingSnapshot.setServiceDetails(toResolvedServiceDetails(resources));
+	}
+
+	/**
+	 * for subclasses that don't use oci at all (e.g. the stand in used for
+	 * benchmarking), the resources are provided rather than looked up and the
+	 * subclass must override the methods that call oci. Nothing is put into the
+	 * instance mapping snapshot as these resources don't really exist
+	 */
+	protected IotServiceDetails(InstanceMappingSnapshot instanceMappingSnapshot, GatewayExecutors gatewayExecutors,
+			String compartmentName, String iotDomainGroupName, String iotDomainName, String digitalTwinModelName,
+			String digitalTwinAdapterName, Compartment compartment, IotDomainGroup iotDomainGroup, IotDomain iotDomain,
+			DigitalTwinModel digitalTwinModel, DigitalTwinAdapter digitalTwinAdapter) {
+		this.instanceMappingSnapshot = instanceMappingSnapshot;
+		this.gatewayExecutors = gatewayExecutors;
+		this.compartmentName = compartmentName;
+		this.iotDomainGroupName = iotDomainGroupName;
+		this.iotDomainName = iotDomainName;
+		this.digitalTwinModelName = digitalTwinModelName;
+		this.digitalTwinAdapterName = digitalTwinAdapterName;
+		this.authProcessor = null;
+		this.identityProcessor = null;
+		this.ioTProcessor = null;
+		this.fromSnapshot = false;
+		this.compartment = compartment;
+		this.iotDomainGroup = iotDomainGroup;
+		this.iotDomain = iotDomain;
+		this.digitalTwinModel = digitalTwinModel;
+		this.digitalTwinAdapter = digitalTwinAdapter;
+	}
+
+	/**
+	 * looks for the digital twin instance with the display name in the iot domain
+	 * 
+	 * @param displayName
+	 * @return the instance or null if there isn't one
+	 */
+	public DigitalTwinInstance getDigitalTwinInstance(String displayName) {
+		return ioTProcessor.getDigitalTwinInstance(iotDomain, displayName);
+	}
+
+	/**
+	 * @return all the digital twin instances in the iot domain using the digital
+	 *         twin model
+	 */
+	public List<DigitalTwinInstance> listDigitalTwinInstances() {
+		return ioTProcessor.listDigitalTwinInstances(iotDomain, digitalTwinModel);
+	}
+
+	/**
+	 * creates a digital twin instance in the iot domain using the digital twin
+	 * model and adapter
+	 * 
+	 * @param externalKey
+	 * @param authId      the OCID of the vault secret the instance authenticates
+	 *                    with
+	 * @param displayName
+	 * @param description
+	 * @return the new instance
+	 */
+	public DigitalTwinInstance createDigitalTwinInstance(String externalKey, String authId, String displayName,
+			String description) {
+		return ioTProcessor.createDigitalTwinInstance(iotDomain.getId(), externalKey, authId, displayName, description,
+				digitalTwinModel.getId(), digitalTwinAdapter.getId());
+	}
+
+	private record OciResources(Compartment compartment, IotDomainGroup iotDomainGroup, IotDomain iotDomain,
+			DigitalTwinModel digitalTwinModel, DigitalTwinAdapter digitalTwinAdapter) {
+	}
+
+	private OciResources resolveFromOci() throws MissingOciResourceException {
+		Compartment compartment = identityProcessor.locateCompartmentByPath(compartmentName);
 		if (compartment == null) {
 			throw new MissingOciResourceException("Cannot locate compartment " + compartmentName);
 		}
 		log.info("Located compartment " + compartmentName + ", ocid=" + compartment.getId());
 
-		this.iotDomainGroup = ioTProcessor.getIotDomainGroup(compartment.getId(), iotDomainGroupName);
+		IotDomainGroup iotDomainGroup = ioTProcessor.getIotDomainGroup(compartment.getId(), iotDomainGroupName);
 		if (iotDomainGroup == null) {
 			throw new MissingOciResourceException(
 					"Cannot locate iot domain group " + iotDomainGroupName + " in compartment " + compartmentName);
@@ -124,7 +224,7 @@ public class IotServiceDetails {
 		log.info("Located IOTDomainGroup " + iotDomainGroupName + " in compartment " + compartmentName + ", ocid="
 				+ iotDomainGroup.getId());
 
-		this.iotDomain = ioTProcessor.getIotDomainInDomainGroup(iotDomainGroup, iotDomainName);
+		IotDomain iotDomain = ioTProcessor.getIotDomainInDomainGroup(iotDomainGroup, iotDomainName);
 		if (iotDomain == null) {
 			throw new MissingOciResourceException("Cannot locate iot domain " + iotDomainName + " in iot domain group "
 					+ iotDomainGroupName + " in compartment " + compartmentName);
@@ -132,7 +232,7 @@ public class IotServiceDetails {
 		log.info("Locateed iot domain " + iotDomainName + " in iot domain group " + iotDomainGroupName
 				+ " in compartment " + compartmentName + ", ocid=" + iotDomain.getId());
 
-		this.digitalTwinModel = ioTProcessor.getDigitalTwinModel(iotDomain, digitalTwinModelName);
+		DigitalTwinModel digitalTwinModel = ioTProcessor.getDigitalTwinModel(iotDomain, digitalTwinModelName);
 		if (digitalTwinModel == null) {
 			throw new MissingOciResourceException(
 					"Cannot locate digitalTwinModel " + digitalTwinModelName + " in iot domain " + iotDomainName
@@ -142,7 +242,7 @@ public class IotServiceDetails {
 				+ " in iot domain group " + iotDomainGroupName + " in compartment " + compartmentName + ", ocid="
 				+ digitalTwinModel.getId());
 
-		this.digitalTwinAdapter = ioTProcessor.getDigitalTwinAdapter(iotDomain, digitalTwinAdapterName);
+		DigitalTwinAdapter digitalTwinAdapter = ioTProcessor.getDigitalTwinAdapter(iotDomain, digitalTwinAdapterName);
 		if (digitalTwinAdapter == null) {
 			throw new MissingOciResourceException(
 					"Cannot locate digitalTwinAdapter " + digitalTwinAdapterName + " in iot domain " + iotDomainName
@@ -151,7 +251,63 @@ public class IotServiceDetails {
 		log.info("Located digitalTwinAdapter " + digitalTwinAdapterName + " in iot domain " + iotDomainName
 				+ " in iot domain group " + iotDomainGroupName + " in compartment " + compartmentName + ", ocid="
 				+ digitalTwinAdapter.getId());
+		return new OciResources(compartment, iotDomainGroup, iotDomain, digitalTwinModel, digitalTwinAdapter);
+	}
 
+	/**
+	 * the snapshot only holds the OCIDs (and the device host for the domain) so
+	 * that's all that's filled in here, which is all the gateway uses
+	 */
+	private OciResources fromResolvedServiceDetails(ResolvedServiceDetails details) {
+		return new OciResources(
+				Compartment.builder().id(details.compartmentOcid()).name(compartmentName).build(),
+				IotDomainGroup.builder().id(details.iotDomainGroupOcid()).displayName(iotDomainGroupName).build(),
+				IotDomain.builder().id(details.iotDomainOcid()).displayName(iotDomainName)
+						.iotDomainGroupId(details.iotDomainGroupOcid()).deviceHost(details.iotDomainDeviceHost())
+						.build(),
+				DigitalTwinModel.builder().id(details.digitalTwinModelOcid()).displayName(digitalTwinModelName)
+						.iotDomainId(details.iotDomainOcid()).build(),
+				DigitalTwinAdapter.builder().id(details.digitalTwinAdapterOcid()).displayName(digitalTwinAdapterName)
+						.iotDomainId(details.iotDomainOcid()).digitalTwinModelId(details.digitalTwinModelOcid())
+						.build());
+	}
+
+	private ResolvedServiceDetails toResolvedServiceDetails(OciResources resources) {
+		return new ResolvedServiceDetails(compartmentName, resources.compartment().getId(), iotDomainGroupName,
+				resources.iotDomainGroup().getId(), iotDomainName, resources.iotDomain().getId(),
+				resources.iotDomain().getDeviceHost(), digitalTwinModelName, resources.digitalTwinModel().getId(),
+				digitalTwinAdapterName, resources.digitalTwinAdapter().getId());
+	}
+
+	/**
+	 * looks everything up in oci and compares it to what came from the snapshot,
+	 * the details are used all over the gateway so they can't be safely swapped
+	 * while it's running, if they have changed the snapshot is discarded and the
+	 * gateway needs restarting
+	 */
+	private void verifySnapshotDetails() {
+		ResolvedServiceDetails snapshotDetails = toResolvedServiceDetails(
+				new OciResources(compartment, iotDomainGroup, iotDomain, digitalTwinModel, digitalTwinAdapter));
+		try {
+			ResolvedServiceDetails liveDetails = toResolvedServiceDetails(
+					gatewayExecutors.callUpstream(Upstream.IOT_CONTROL_PLANE, this::resolveFromOci));
+			if (liveDetails.hasSameOcids(snapshotDetails)) {
+				log.info("Iot service details from the instance mapping snapshot match oci");
+			} else {
+				log.severe("Iot service details from the instance mapping snapshot " + snapshotDetails
+						+ " do not match oci " + liveDetails
+						+ ", discarding the snapshot, the gateway must be restarted to use the new details");
+				instanceMappingSnapshot.discard();
+			}
+		} catch (MissingOciResourceException e) {
+			log.severe("Unable to verify iot service details from the instance mapping snapshot, "
+					+ e.getLocalizedMessage()
+					+ ", discarding the snapshot, the gateway must be restarted to use the new details");
+			instanceMappingSnapshot.discard();
+		} catch (RuntimeException e) {
+			log.warning("Problem verifying iot service details from the instance mapping snapshot, "
+					+ e.getLocalizedMessage() + ", they will be checked again on the next restart");
+		}
 	}
 
 	public String getConfig() {
@@ -167,6 +323,9 @@ public class IotServiceDetails {
 
 	@PostConstruct
 	private void loadExistingDigitalTwinInstances() {
-		log.info("iotservice config data " + getConfig());
+		log.info("iotservice config data " + getConfig() + ", fromSnapshot=" + fromSnapshot);
+		if (fromSnapshot) {
+			gatewayExecutors.newThreadFactory("iotservice-verify").newThread(this::verifySnapshotDetails).start();
+		}
 	}
 }
@@ -40,4 +40,13 @@ public interface NewInstanceSecretProvider {
 	public String getConfig();
 
 	public String getVaultSecretOcidForNewInstance(String instanceIdentifier) throws MissingOciResourceException;
+
+	/**
+	 * called if the instance the secret was got for could not be created, so a
+	 * provider that hands out secrets it has made in advance can use it again
+	 * 
+	 * @param secretOcid
+	 */
+	public default void returnUnusedSecret(String secretOcid) {
+	}
 }
@@ -40,6 +40,8 @@ import java.io.IOException;
 
 import com.oracle.bmc.keymanagement.model.Key;
 import com.oracle.bmc.vault.model.Secret;
+import com.oracle.timg.demo.iot.demogateway.executors.GatewayExecutors;
+import com.oracle.timg.demo.iot.demogateway.executors.GatewayExecutors.Upstream;
 
 import io.micronaut.context.annotation.Property;
 import io.micronaut.context.annotation.Requires;
@@ -54,16 +56,16 @@ import lombok.extern.java.Log;
 @Log
 public class NewInstanceSecretProviderGenerateUniqueSecret implements NewInstanceSecretProvider {
 	private final VaultServiceDetails vaultServiceDetails;
+	private final GatewayExecutors gatewayExecutors;
 	private final String keyName;
 	private final String secretPrefix;
 	private final int secretLength;
-	private final String compartmentOcid;
-	private final String vaultOcid;
 	private final String keyOcid;
 	private final int secretCheckTime;
 
 	@Inject
 	public NewInstanceSecretProviderGenerateUniqueSecret(VaultServiceDetails vaultServiceDetails,
+			GatewayExecutors gatewayExecutors,
 			@Property(name = "gateway.instance.secret.generate.key") String keyName,
 			@Property(name = "gateway.instance.secret.generate.secretprefix", defaultValue = "iot-gateway-generated-secret") String secretPrefix,
 			@Property(name = "gateway.instance.secret.generate.secretlength", defaultValue = "16") int secretLength,
@@ -71,18 +73,17 @@ public class NewInstanceSecretProviderGenerateUniqueSecret implements NewInstanc
 			throws MissingOciResourceException, IllegalArgumentException, IOException {
 		// stash the inputs away
 		this.vaultServiceDetails = vaultServiceDetails;
+		this.gatewayExecutors = gatewayExecutors;
 		this.keyName = keyName;
 		this.secretPrefix = secretPrefix;
 		this.secretLength = secretLength;
 		this.secretCheckTime = secretCheckTime;
 		// get the data
-		Key key = vaultServiceDetails.getVaultProcessor().getKeyByName(vaultServiceDetails.getVault(), keyName);
+		Key key = vaultServiceDetails.getKeyByName(keyName);
 		if (key == null) {
 			throw new MissingOciResourceException("Can't locate key " + keyName);
 		}
 		this.keyOcid = key.getId();
-		this.vaultOcid = vaultServiceDetails.getVault().getId();
-		this.compartmentOcid = vaultServiceDetails.getCompartment().getId();
 	}
 
 	@Override
@@ -96,11 +97,12 @@ public class NewInstanceSecretProviderGenerateUniqueSecret implements NewInstanc
 	public String getVaultSecretOcidForNewInstance(String instanceIdentifier) throws MissingOciResourceException {
 		log.fine("Creating new vault secret for " + instanceIdentifier);
 		String secretDisplayName = secretPrefix + "-" + instanceIdentifier;
-		Secret vaultSecret = vaultServiceDetails.getVaultProcessor().createSecretGeneratedPassphrase(compartmentOcid,
-				secretDisplayName, keyOcid, vaultOcid, secretLength,
-				"Encryption key for iot instance " + instanceIdentifier, null);
-		Boolean secretCreation = vaultServiceDetails.getVaultProcessor().waitForSecretToBecomeActive(vaultSecret, 10,
-				secretCheckTime);
+		// only the create counts against the vault limit, not the wait for it to become
+		// active
+		Secret vaultSecret = gatewayExecutors.callUpstream(Upstream.VAULT,
+				() -> vaultServiceDetails.createSecretGeneratedPassphrase(secretDisplayName, keyOcid, secretLength,
+						"Encryption key for iot instance " + instanceIdentifier));
+		Boolean secretCreation = vaultServiceDetails.waitForSecretToBecomeActive(vaultSecret, 10, secretCheckTime);
 		if (secretCreation == null) {
 			throw new MissingOciResourceException(
 					"Returned OCID is null, call was probabaly interruped, can't continue");
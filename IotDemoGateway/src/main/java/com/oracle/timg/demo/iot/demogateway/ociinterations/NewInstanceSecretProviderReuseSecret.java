@@ -67,13 +67,12 @@ public class NewInstanceSecretProviderReuseSecret implements NewInstanceSecretPr
 		this.vaultServiceDetails = vaultServiceDetails;
 		this.secretName = secretName;
 		// get the data
-		this.secret = vaultServiceDetails.getVaultProcessor().getSecretByName(vaultServiceDetails.getVault(),
-				secretName);
+		this.secret = vaultServiceDetails.getSecretByName(secretName);
 		if (this.secret == null) {
 			throw new MissingOciResourceException("Can't locate secret " + secretName);
 		}
 		this.secretOcid = secret.getId();
-		secretContents = vaultServiceDetails.getVaultProcessor().getSecretContents(secretOcid);
+		secretContents = vaultServiceDetails.getSecretContents(secretOcid);
 	}
 
 	@Override
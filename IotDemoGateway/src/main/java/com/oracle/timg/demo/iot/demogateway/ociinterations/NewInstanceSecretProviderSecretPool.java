@@ -0,0 +1,323 @@
+/*Copyright (c) 2026 Oracle and/or its affiliates.
+
+The Universal Permissive License (UPL), Version 1.0
+
+Subject to the condition set forth below, permission is hereby granted to any
+person obtaining a copy of this software, associated documentation and/or data
+(collectively the "Software"), free of charge and under any and all copyright
+rights in the Software, and any and all patent rights owned or freely
+licensable by each licensor hereunder covering either (i) the unmodified
+Software as contributed to or provided by such licensor, or (ii) the Larger
+Works (as defined below), to deal in both
+
+(a) the Software, and
+(b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+one is included with the Software (each a "Larger Work" to which the Software
+is contributed by such licensors),
+
+without restriction, including without limitation the rights to copy, create
+derivative works of, display, perform, and distribute the Software and make,
+use, sell, offer for sale, import, export, have made, and have sold the
+Software and the Larger Work(s), and to sublicense the foregoing rights on
+either these or other terms.
+
+This license is subject to the following condition:
+The above copyright notice and either this complete permission notice or at
+a minimum a reference to the UPL must be included in all copies or
+substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+ */
+package com.oracle.timg.demo.iot.demogateway.ociinterations;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.oracle.bmc.keymanagement.model.Key;
+import com.oracle.bmc.vault.model.Secret;
+import com.oracle.timg.demo.iot.demogateway.executors.GatewayExecutors;
+import com.oracle.timg.demo.iot.demogateway.executors.GatewayExecutors.Upstream;
+
+import io.micronaut.context.annotation.Property;
+import io.micronaut.context.annotation.Requires;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import jakarta.inject.Inject;
+import jakarta.inject.Singleton;
+import lombok.extern.java.Log;
+
+/*
+ * Like NewInstanceSecretProviderGenerateUniqueSecret each instance gets it's
+ * own secret, but rather than creating the secret when the instance is created
+ * (and waiting for it to become active) a pool of secrets that are already
+ * active is kept ready. When the pool drops below the low water mark a
+ * background thread creates more until it reaches the high water mark, the
+ * secrets are all created first then waited for so the waits overlap.
+ * 
+ * OCI secret names can't be changed so the pooled secrets keep their pool
+ * names, the link from instance to secret is the auth id on the instance. The
+ * ocids of the secrets in the pool are saved to a file so they are not lost
+ * (and left unused in the vault) if the gateway restarts.
+ * 
+ * If the pool is empty a secret is created for the instance in the same way as
+ * NewInstanceSecretProviderGenerateUniqueSecret does. If the instance can't be
+ * created the secret is put back in the pool rather than being left unused in
+ * the vault.
+ */
+@Singleton
+@Requires(property = "gateway.instance.secret.newinstancesecretmode", value = "SECRET_POOL", defaultValue = "unknown")
+@Requires(property = "gateway.instance.secret.pool.key")
+@Log
+public class NewInstanceSecretProviderSecretPool implements NewInstanceSecretProvider {
+	// how often to check the pool even if nothing has been taken from it
+	private static final long FILL_CHECK_INTERVAL_MILLIS = TimeUnit.SECONDS.toMillis(30);
+	private final VaultServiceDetails vaultServiceDetails;
+	private final GatewayExecutors gatewayExecutors;
+	private final String keyName;
+	private final String secretPrefix;
+	private final int secretLength;
+	private final int secretCheckTime;
+	private final int lowWaterMark;
+	private final int highWaterMark;
+	private final Path poolFile;
+	private final String keyOcid;
+	private final LinkedBlockingDeque<String> pool = new LinkedBlockingDeque<>();
+	private final Object fillSignal = new Object();
+	private final LongAdder assignedFromPool = new LongAdder();
+	private final LongAdder assignedDirect = new LongAdder();
+	private final LongAdder created = new LongAdder();
+	private final LongAdder failedCreations = new LongAdder();
+	private final LongAdder returned = new LongAdder();
+	private volatile boolean running = false;
+	private Thread fillThread;
+
+	@Inject
+	public NewInstanceSecretProviderSecretPool(VaultServiceDetails vaultServiceDetails,
+			GatewayExecutors gatewayExecutors, @Property(name = "gateway.instance.secret.pool.key") String keyName,
+			@Property(name = "gateway.instance.secret.pool.secretprefix", defaultValue = "iot-gateway-pool-secret") String secretPrefix,
+			@Property(name = "gateway.instance.secret.pool.secretlength", defaultValue = "16") int secretLength,
+			@Property(name = "gateway.instance.secret.pool.secretchecktime", defaultValue = "300") int secretCheckTime,
+			@Property(name = "gateway.instance.secret.pool.lowwatermark", defaultValue = "10") int lowWaterMark,
+			@Property(name = "gateway.instance.secret.pool.highwatermark", defaultValue = "50") int highWaterMark,
+			@Property(name = "gateway.instance.secret.pool.file", defaultValue = "secretpool.txt") String poolFile)
+			throws MissingOciResourceException, IllegalArgumentException, IOException {
+		if ((lowWaterMark < 0) || (highWaterMark < 1) || (lowWaterMark >= highWaterMark)) {
+			throw new IllegalArgumentException(
+					"gateway.instance.secret.pool.lowwatermark must be at least 0 and less than gateway.instance.secret.pool.highwatermark, they are "
+							+ lowWaterMark + " and " + highWaterMark);
+		}
+		// stash the inputs away
+		this.vaultServiceDetails = vaultServiceDetails;
+		this.gatewayExecutors = gatewayExecutors;
+		this.keyName = keyName;
+		this.secretPrefix = secretPrefix;
+		this.secretLength = secretLength;
+		this.secretCheckTime = secretCheckTime;
+		this.lowWaterMark = lowWaterMark;
+		this.highWaterMark = highWaterMark;
+		this.poolFile = Path.of(poolFile);
+		// get the data
+		Key key = vaultServiceDetails.getKeyByName(keyName);
+		if (key == null) {
+			throw new MissingOciResourceException("Can't locate key " + keyName);
+		}
+		this.keyOcid = key.getId();
+		// pick up any secrets that were in the pool when we last stopped
+		if (Files.exists(this.poolFile)) {
+			Files.readAllLines(this.poolFile, StandardCharsets.UTF_8).stream().map(String::trim)
+					.filter(line -> !line.isEmpty()).forEach(pool::addLast);
+		}
+	}
+
+	@Override
+	public String getConfig() {
+		String resp = ", KeyName=" + keyName + ", keyOcid=" + keyOcid;
+		resp += ", secretPrefix = " + secretPrefix + ", Secret length=" + secretLength;
+		resp += ", lowWaterMark=" + lowWaterMark + ", highWaterMark=" + highWaterMark + ", poolFile=" + poolFile;
+		return resp;
+	}
+
+	public String getStatus() {
+		return "NewInstanceSecretProviderSecretPool has " + pool.size() + " secrets ready, assignedFromPool="
+				+ assignedFromPool.sum() + ", assignedDirect=" + assignedDirect.sum() + ", created=" + created.sum()
+				+ ", failedCreations=" + failedCreations.sum() + ", returned=" + returned.sum();
+	}
+
+	@Override
+	public String getVaultSecretOcidForNewInstance(String instanceIdentifier) throws MissingOciResourceException {
+		String secretOcid = pool.pollFirst();
+		if (secretOcid != null) {
+			assignedFromPool.increment();
+			savePool();
+			if (pool.size() < lowWaterMark) {
+				requestFill();
+			}
+			log.fine("Assigned pooled secret " + secretOcid + " to instance " + instanceIdentifier);
+			return secretOcid;
+		}
+		// nothing ready, the pool will be refilled in the background but this instance
+		// can't wait for that
+		assignedDirect.increment();
+		requestFill();
+		log.info("Secret pool is empty, creating new vault secret for " + instanceIdentifier);
+		Secret vaultSecret = createSecret(secretPrefix + "-" + instanceIdentifier,
+				"Encryption key for iot instance " + instanceIdentifier);
+		if (waitForSecret(vaultSecret)) {
+			log.fine("Created secret for instance " + instanceIdentifier + " with ocid " + vaultSecret.getId());
+			return vaultSecret.getId();
+		}
+		throw new MissingOciResourceException("Waited " + secretCheckTime + " seconds for secret "
+				+ vaultSecret.getSecretName() + " to be created but no luck");
+	}
+
+	/**
+	 * the secret came from the pool (or was created for an instance) but the
+	 * instance couldn't be created, put it at the front of the pool so it's the
+	 * next one used
+	 */
+	@Override
+	public void returnUnusedSecret(String secretOcid) {
+		pool.addFirst(secretOcid);
+		returned.increment();
+		savePool();
+		log.fine("Returned unused secret " + secretOcid + " to the pool");
+	}
+
+	/**
+	 * only the create takes a vault permit, the wait for the secret to become
+	 * active doesn't hold one
+	 */
+	private Secret createSecret(String secretDisplayName, String description) {
+		return gatewayExecutors.callUpstream(Upstream.VAULT,
+				() -> vaultServiceDetails.createSecretGeneratedPassphrase(secretDisplayName, keyOcid, secretLength,
+						description));
+	}
+
+	/**
+	 * returns true if the secret became active, false if it didn't in time
+	 */
+	private boolean waitForSecret(Secret vaultSecret) throws MissingOciResourceException {
+		Boolean secretCreation = vaultServiceDetails.waitForSecretToBecomeActive(vaultSecret, 10, secretCheckTime);
+		if (secretCreation == null) {
+			throw new MissingOciResourceException(
+					"Returned OCID is null, call was probabaly interruped, can't continue");
+		}
+		return secretCreation;
+	}
+
+	private void requestFill() {
+		synchronized (fillSignal) {
+			fillSignal.notifyAll();
+		}
+	}
+
+	private void fillPool() {
+		while (running) {
+			int available = pool.size();
+			if (available >= lowWaterMark) {
+				synchronized (fillSignal) {
+					try {
+						fillSignal.wait(FILL_CHECK_INTERVAL_MILLIS);
+					} catch (InterruptedException e) {
+						if (!running) {
+							return;
+						}
+					}
+				}
+				continue;
+			}
+			int needed = highWaterMark - available;
+			log.info("Secret pool has " + available + " secrets, creating " + needed + " more");
+			// create them all before waiting so the waits overlap
+			List<Secret> creating = new ArrayList<>(needed);
+			for (int i = 0; (i < needed) && running; i++) {
+				try {
+					creating.add(createSecret(secretPrefix + "-" + UUID.randomUUID(),
+							"Pooled encryption key for an iot instance"));
+				} catch (RuntimeException e) {
+					failedCreations.increment();
+					log.warning("Problem creating pooled secret, " + e.getLocalizedMessage());
+					break;
+				}
+			}
+			boolean problems = creating.size() < needed;
+			for (Secret vaultSecret : creating) {
+				try {
+					if (waitForSecret(vaultSecret)) {
+						pool.addLast(vaultSecret.getId());
+						created.increment();
+						savePool();
+					} else {
+						problems = true;
+						failedCreations.increment();
+						log.warning("Pooled secret " + vaultSecret.getSecretName() + " did not become active within "
+								+ secretCheckTime + " seconds");
+					}
+				} catch (MissingOciResourceException | RuntimeException e) {
+					if (!running) {
+						return;
+					}
+					problems = true;
+					failedCreations.increment();
+					log.warning("Problem waiting for pooled secret " + vaultSecret.getSecretName() + ", "
+							+ e.getLocalizedMessage());
+				}
+			}
+			// if the vault is having problems don't immediately try again
+			if (problems && running) {
+				try {
+					Thread.sleep(FILL_CHECK_INTERVAL_MILLIS);
+				} catch (InterruptedException e) {
+					return;
+				}
+			}
+		}
+	}
+
+	/**
+	 * write the current pool to a temp file then move it into place so a crash
+	 * can't leave a partial file
+	 */
+	private synchronized void savePool() {
+		try {
+			Path tempFile = poolFile.resolveSibling(poolFile.getFileName() + ".tmp");
+			Files.write(tempFile, List.copyOf(pool), StandardCharsets.UTF_8);
+			Files.move(tempFile, poolFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} catch (IOException e) {
+			log.warning("Unable to save secret pool to " + poolFile + ", " + e.getLocalizedMessage());
+		}
+	}
+
+	@PostConstruct
+	public void postConstruct() {
+		log.info("Secret pool handler config: " + getConfig() + ", " + pool.size() + " secrets loaded from "
+				+ poolFile);
+		running = true;
+		fillThread = gatewayExecutors.newThreadFactory("secret-pool-fill").newThread(this::fillPool);
+		fillThread.start();
+	}
+
+	@PreDestroy
+	public void preDestroy() {
+		running = false;
+		if (fillThread != null) {
+			fillThread.interrupt();
+		}
+		log.info(getStatus());
+	}
+}
@@ -39,7 +39,9 @@ package com.oracle.timg.demo.iot.demogateway.ociinterations;
 import java.io.IOException;
 
 import com.oracle.bmc.identity.model.Compartment;
+import com.oracle.bmc.keymanagement.model.Key;
 import com.oracle.bmc.keymanagement.model.Vault;
+import com.oracle.bmc.vault.model.Secret;
 import com.oracle.timg.oci.authentication.AuthenticationProcessor;
 import com.oracle.timg.oci.identity.IdentityProcessor;
 import com.oracle.timg.oci.vault.VaultProcessor;
@@ -59,7 +61,6 @@ import lombok.extern.java.Log;
 public class VaultServiceDetails {
 	private final AuthenticationProcessor authProcessor;
 	private final IdentityProcessor identityProcessor;
-	@Getter
 	private final VaultProcessor vaultProcessor;
 	@Getter
 	private final String compartmentName;
@@ -100,6 +101,72 @@ public class VaultServiceDetails {
 		log.info("Located vault " + vaultName + " in compartment " + compartmentName + ", ocid=" + vault.getId());
 	}
 
+	/**
+	 * for subclasses that don't use oci at all (e.g. the stand in used for
+	 * benchmarking), the compartment and vault are provided rather than looked up
+	 * and the subclass must override the methods that call oci
+	 */
+	protected VaultServiceDetails(String compartmentName, String vaultName, Compartment compartment, Vault vault) {
+		this.authProcessor = null;
+		this.identityProcessor = null;
+		this.vaultProcessor = null;
+		this.compartmentName = compartmentName;
+		this.vaultName = vaultName;
+		this.compartment = compartment;
+		this.vault = vault;
+	}
+
+	/**
+	 * @param keyName
+	 * @return the key in the vault with the name or null if there isn't one
+	 */
+	public Key getKeyByName(String keyName) {
+		return vaultProcessor.getKeyByName(vault, keyName);
+	}
+
+	/**
+	 * @param secretName
+	 * @return the secret in the vault with the name or null if there isn't one
+	 */
+	public Secret getSecretByName(String secretName) {
+		return vaultProcessor.getSecretByName(vault, secretName);
+	}
+
+	/**
+	 * @param secretOcid
+	 * @return the current contents of the secret or null if there isn't one
+	 */
+	public String getSecretContents(String secretOcid) {
+		return vaultProcessor.getSecretContents(secretOcid);
+	}
+
+	/**
+	 * creates a new secret in the vault (and it's compartment) with a generated
+	 * passphrase, the secret will not be usable until it becomes active
+	 * 
+	 * @param secretName
+	 * @param keyOcid      the key used to encrypt the secret
+	 * @param secretLength
+	 * @param description
+	 * @return
+	 */
+	public Secret createSecretGeneratedPassphrase(String secretName, String keyOcid, int secretLength,
+			String description) {
+		return vaultProcessor.createSecretGeneratedPassphrase(compartment.getId(), secretName, keyOcid, vault.getId(),
+				secretLength, description, null);
+	}
+
+	/**
+	 * @param secret
+	 * @param checkInterval how often to check in seconds
+	 * @param maxWait       the longest to wait in seconds
+	 * @return true if the secret became active, false if it didn't in time, null
+	 *         if the wait was interrupted
+	 */
+	public Boolean waitForSecretToBecomeActive(Secret secret, int checkInterval, int maxWait) {
+		return vaultProcessor.waitForSecretToBecomeActive(secret, checkInterval, maxWait);
+	}
+
 	public String getConfig() {
 		String resp = "CompartmentName=" + compartmentName + ", compartmentOcid=" + compartment.getId();
 		resp += ", VaultName=" + vaultName + ", vaultOcid=" + vault.getId();
@@ -0,0 +1,206 @@
+/*Copyright (c) 2026 Oracle and/or its affiliates.
+
+The Universal Permissive License (UPL), Version 1.0
+
+Subject to the condition set forth below, permission is hereby granted to any
+person obtaining a copy of this software, associated documentation and/or data
+(collectively the "Software"), free of charge and under any and all copyright
+rights in the Software, and any and all patent rights owned or freely
+licensable by each licensor hereunder covering either (i) the unmodified
+Software as contributed to or provided by such licensor, or (ii) the Larger
+Works (as defined below), to deal in both
+
+(a) the Software, and
+(b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+one is included with the Software (each a "Larger Work" to which the Software
+is contributed by such licensors),
+
+without restriction, including without limitation the rights to copy, create
+derivative works of, display, perform, and distribute the Software and make,
+use, sell, offer for sale, import, export, have made, and have sold the
+Software and the Larger Work(s), and to sublicense the foregoing rights on
+either these or other terms.
+
+This license is subject to the following condition:
+The above copyright notice and either this complete permission notice or at
+a minimum a reference to the UPL must be included in all copies or
+substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+ */
+package com.oracle.timg.demo.iot.demogateway.queue;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.oracle.timg.demo.iot.demogateway.executors.GatewayExecutors;
+
+import io.micronaut.context.annotation.Property;
+import jakarta.annotation.PreDestroy;
+import jakarta.inject.Inject;
+import jakarta.inject.Singleton;
+import lombok.extern.java.Log;
+
+/*
+ * limits how fast each device can add events to the event queue, so a few
+ * devices sending far more than they should can't fill the queue and hold up
+ * everyone else. Each instance key (as received, before the instance key
+ * transformers) gets a token bucket that holds up to burst tokens and refills
+ * at rate tokens a second, an event takes a token, if there isn't one the
+ * event is refused.
+ *
+ * A bucket that has not been used for long enough to have refilled completely
+ * is the same as a new one, so these are removed every so often (on a separate
+ * thread, so the requests adding events don't do it) to stop the number of
+ * buckets growing with every device ever seen. If an event that was allowed is
+ * then refused anyway (e.g. the event queue is full) the token is given back so
+ * the device's retry isn't held against it.
+ */
+@Singleton
+@Log
+public class DeviceRateLimiter {
+	private final double rate;
+	private final double burst;
+	// how long a bucket takes to refill completely, once it's been idle this long
+	// it can be removed
+	private final long idleNanos;
+	private final Map<String, TokenBucket> buckets = new ConcurrentHashMap<>();
+	private final LongAdder limitedCount = new LongAdder();
+	private final LongAdder refundedCount = new LongAdder();
+	private final ScheduledExecutorService bucketSweeper;
+
+	@Inject
+	public DeviceRateLimiter(GatewayExecutors gatewayExecutors,
+			@Property(name = "gateway.ingest.ratelimit.rate", defaultValue = "0") double rate,
+			@Property(name = "gateway.ingest.ratelimit.burst", defaultValue = "10") int burst) {
+		this.rate = Math.max(0, rate);
+		this.burst = Math.max(1, burst);
+		this.idleNanos = this.rate == 0 ? 0
+				: Math.max(TimeUnit.SECONDS.toNanos(1), (long) ((this.burst / this.rate) * 1000000000.0));
+		if (isEnabled()) {
+			bucketSweeper = Executors
+					.newSingleThreadScheduledExecutor(gatewayExecutors.newThreadFactory("ratelimit-sweeper"));
+			bucketSweeper.scheduleWithFixedDelay(this::sweepIdleBuckets, idleNanos, idleNanos, TimeUnit.NANOSECONDS);
+		} else {
+			bucketSweeper = null;
+		}
+	}
+
+	public boolean isEnabled() {
+		return rate > 0;
+	}
+
+	/**
+	 * takes a token from the bucket for the instance key
+	 *
+	 * @param instanceKey
+	 * @return 0 if the event can be accepted, otherwise the number of
+	 *         milliseconds until the device could send another event
+	 */
+	public long tryAcquire(String instanceKey) {
+		if (rate <= 0) {
+			return 0;
+		}
+		long now = System.nanoTime();
+		// if the sweep removes the bucket between here and the acquire the event is
+		// taken from a full bucket that's been thrown away, so at worst a device gets
+		// one extra burst
+		long wait = buckets.computeIfAbsent(instanceKey, key -> new TokenBucket(burst, now)).tryAcquire(now, rate,
+				burst);
+		if (wait > 0) {
+			limitedCount.increment();
+		}
+		return wait;
+	}
+
+	/**
+	 * gives back the token taken for an event that was then refused for another
+	 * reason, so when the device sends it again it's not limited because of it
+	 *
+	 * @param instanceKey
+	 */
+	public void refund(String instanceKey) {
+		if (rate <= 0) {
+			return;
+		}
+		// if the bucket has been removed it was full anyway
+		TokenBucket bucket = buckets.get(instanceKey);
+		if (bucket != null) {
+			bucket.refund(burst);
+			refundedCount.increment();
+		}
+	}
+
+	private void sweepIdleBuckets() {
+		long now = System.nanoTime();
+		int before = buckets.size();
+		buckets.values().removeIf(bucket -> bucket.isIdle(now, idleNanos));
+		log.finer(() -> "Removed " + (before - buckets.size()) + " idle rate limit buckets");
+	}
+
+	public long getLimitedEventCount() {
+		return limitedCount.sum();
+	}
+
+	public int getDeviceCount() {
+		return buckets.size();
+	}
+
+	public String getConfig() {
+		return isEnabled() ? "rate=" + rate + " events per second per device, burst=" + (int) burst : "disabled";
+	}
+
+	public String getStatus() {
+		return "DeviceRateLimiter " + getConfig() + ", tracking " + buckets.size() + " devices, has limited "
+				+ limitedCount.sum() + " events, refunded " + refundedCount.sum() + " tokens";
+	}
+
+	@PreDestroy
+	public void preDestroy() {
+		if (bucketSweeper != null) {
+			bucketSweeper.shutdownNow();
+		}
+	}
+
+	private static class TokenBucket {
+		private double tokens;
+		private long lastRefill;
+
+		TokenBucket(double tokens, long now) {
+			this.tokens = tokens;
+			this.lastRefill = now;
+		}
+
+		synchronized long tryAcquire(long now, double rate, double burst) {
+			// the bucket may have been created by another thread with a slightly later
+			// time
+			if (now > lastRefill) {
+				tokens = Math.min(burst, tokens + ((now - lastRefill) / 1000000000.0) * rate);
+				lastRefill = now;
+			}
+			if (tokens >= 1) {
+				tokens -= 1;
+				return 0;
+			}
+			return Math.max(1, (long) Math.ceil(((1 - tokens) / rate) * 1000));
+		}
+
+		synchronized void refund(double burst) {
+			tokens = Math.min(burst, tokens + 1);
+		}
+
+		synchronized boolean isIdle(long now, long idleNanos) {
+			return (now - lastRefill) >= idleNanos;
+		}
+	}
+}
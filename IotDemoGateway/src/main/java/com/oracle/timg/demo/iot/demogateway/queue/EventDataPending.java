@@ -36,6 +36,7 @@ SOFTWARE.
  */
 package com.oracle.timg.demo.iot.demogateway.queue;
 
+import java.util.List;
 import java.util.concurrent.Executor;
 
 import jakarta.inject.Singleton;
@@ -95,15 +96,40 @@ public interface EventDataPending {
 	public int deletePendingregistrationEvents(EventQueueData eventData);
 
 	/**
-	 * @param eventData  is used to figure out what pending events (if any) to
-	 *                   transfer over
-	 * @param eventQueue the queue to transfer any pending events to
-	 * @param executor   used to generate the thread to do the transfer
-	 * @return -1 if there was no list of pending events (probably a coding or
-	 *         timing error) or the number of events that are going to be transfered
-	 *         to the events queue
+	 * Once the device has been created this is used to remove the pending events
+	 * so they can be uploaded. The events have already been transformed so they can
+	 * go straight to the upload rather than back through the event queue
+	 * 
+	 * @param eventData is used to figure out what pending events (if any) to
+	 *                  return
+	 * @return null if there was no list of pending events (probably a coding or
+	 *         timing error) or the pending events in the order they arrived
+	 */
+	public List<EventQueueData> takePendingRegistrationEvents(EventQueueData eventData);
+
+	/**
+	 * removes the pending events for all of the instances, this is used when the
+	 * gateway is stopping so the events can be saved. The events for each instance
+	 * are in the order they arrived
+	 * 
+	 * @return
+	 */
+	public List<EventQueueData> takeAllPendingEvents();
+
+	/**
+	 * returns the number of instances that currently have events waiting for them
+	 * to be created
+	 * 
+	 * @return
+	 */
+	public int getPendingInstanceCount();
+
+	/**
+	 * returns the total number of events waiting for their instances to be created
+	 * 
+	 * @return
 	 */
-	public int clearPendingRegistrationEvents(EventQueueData eventData, EventQueue eventQueue, Executor executor);
+	public int getPendingEventCount();
 
 	/**
 	 * returns a string describing the current configuration
@@ -0,0 +1,502 @@
+/*Copyright (c) 2026 Oracle and/or its affiliates.
+
+The Universal Permissive License (UPL), Version 1.0
+
+Subject to the condition set forth below, permission is hereby granted to any
+person obtaining a copy of this software, associated documentation and/or data
+(collectively the "Software"), free of charge and under any and all copyright
+rights in the Software, and any and all patent rights owned or freely
+licensable by each licensor hereunder covering either (i) the unmodified
+Software as contributed to or provided by such licensor, or (ii) the Larger
+Works (as defined below), to deal in both
+
+(a) the Software, and
+(b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+one is included with the Software (each a "Larger Work" to which the Software
+is contributed by such licensors),
+
+without restriction, including without limitation the rights to copy, create
+derivative works of, display, perform, and distribute the Software and make,
+use, sell, offer for sale, import, export, have made, and have sold the
+Software and the Larger Work(s), and to sublicense the foregoing rights on
+either these or other terms.
+
+This license is subject to the following condition:
+The above copyright notice and either this complete permission notice or at
+a minimum a reference to the UPL must be included in all copies or
+substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+ */
+package com.oracle.timg.demo.iot.demogateway.queue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Stream;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import io.micronaut.context.annotation.Property;
+import io.micronaut.context.annotation.Requires;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import jakarta.inject.Inject;
+import jakarta.inject.Singleton;
+import lombok.extern.java.Log;
+
+@Singleton
+@Log
+@Requires(property = "gateway.eventdatapending.type", value = "CONCURRENT", defaultValue = "unknown")
+
+/*
+ * holds the events that arrive while the device for the event is being
+ * created, like EventDataPendingInMemory but without a single lock. Each
+ * device's pending events are only changed inside a compute on the concurrent
+ * map so threads working on different devices don't wait for each other, and
+ * checking for a device that's not pending (the usual case) doesn't lock at
+ * all.
+ * 
+ * The number of events held for each device and in total is limited, once a
+ * limit is reached the overflow policy decides what happens to an event:
+ * 
+ * DROP_NEWEST - the new event is discarded
+ * 
+ * DROP_OLDEST - the oldest event held for the device is discarded to make room
+ * for the new one
+ * 
+ * SPILL - the event is written to a spool file for the device, once a device
+ * has started spilling all of it's later events are spilled as well so they
+ * stay in order. When the events are resubmitted the spilled events follow
+ * those held in memory. Which events are spilled is decided inside the compute
+ * but they are written to the file after it, holding a lock for just that
+ * device, so the disk I/O doesn't hold up other devices.
+ * 
+ * If the event queue doesn't have space for resubmitted events as many as will
+ * fit are added and the rest are held again (ahead of any that have arrived
+ * since) and retried a little later, so they are not lost.
+ */
+public class EventDataPendingConcurrent implements EventDataPending {
+	public enum OverflowPolicy {
+		DROP_NEWEST, DROP_OLDEST, SPILL
+	}
+
+	private static final String SPOOL_FILE_SUFFIX = ".ndjson";
+	private static final long REQUEUE_RETRY_MILLIS = 1000;
+	private final ConcurrentHashMap<String, PendingEvents> pendingInstanceCreation = new ConcurrentHashMap<>();
+	private final int maxPerDevice;
+	private final int maxTotal;
+	private final OverflowPolicy overflowPolicy;
+	private final Path spoolDirectory;
+	private final ObjectMapper objectMapper;
+	// the counts are maintained as events come and go so the status doesn't need
+	// to look at the lists
+	private final AtomicInteger eventsInMemory = new AtomicInteger();
+	private final AtomicInteger eventsSpooled = new AtomicInteger();
+	private final LongAdder dropped = new LongAdder();
+	private final LongAdder spilled = new LongAdder();
+	private final LongAdder requeueRetries = new LongAdder();
+	private final AtomicLong spoolFileCounter = new AtomicLong();
+
+	@Inject
+	public EventDataPendingConcurrent(
+			@Property(name = "gateway.eventdatapending.concurrent.maxperdevice", defaultValue = "1000") int maxPerDevice,
+			@Property(name = "gateway.eventdatapending.concurrent.maxtotal", defaultValue = "100000") int maxTotal,
+			@Property(name = "gateway.eventdatapending.concurrent.overflowpolicy", defaultValue = "DROP_NEWEST") String overflowPolicy,
+			@Property(name = "gateway.eventdatapending.concurrent.spooldirectory", defaultValue = "pendingspool") String spoolDirectory,
+			ObjectMapper objectMapper) {
+		if ((maxPerDevice < 1) || (maxTotal < 1)) {
+			throw new IllegalArgumentException(
+					"gateway.eventdatapending.concurrent.maxperdevice and gateway.eventdatapending.concurrent.maxtotal must be at least 1, they are "
+							+ maxPerDevice + " and " + maxTotal);
+		}
+		this.maxPerDevice = maxPerDevice;
+		this.maxTotal = maxTotal;
+		this.overflowPolicy = OverflowPolicy.valueOf(overflowPolicy.toUpperCase());
+		this.spoolDirectory = Path.of(spoolDirectory);
+		this.objectMapper = objectMapper;
+	}
+
+	@Override
+	public boolean ifPendingRegistrationAddToList(EventQueueData eventData) {
+		String instanceKey = eventData.getInstanceKey();
+		// most events are for devices that are not being created, this check doesn't
+		// lock so those events don't wait
+		if (!pendingInstanceCreation.containsKey(instanceKey)) {
+			log.finest(() -> "Event from source " + instanceKey + " is not related to an instance being created");
+			return false;
+		}
+		boolean[] added = new boolean[1];
+		PendingEvents[] toSpill = new PendingEvents[1];
+		pendingInstanceCreation.computeIfPresent(instanceKey, (key, pendingEvents) -> {
+			if (addEvent(pendingEvents, eventData)) {
+				toSpill[0] = pendingEvents;
+			}
+			added[0] = true;
+			return pendingEvents;
+		});
+		// the file I/O is done outside the compute so other devices in the same map bin
+		// are not held up
+		if (toSpill[0] != null) {
+			writeSpilledEvents(toSpill[0]);
+		}
+		if (added[0]) {
+			log.finer(() -> "Event from source " + instanceKey + " relates to a instance thats being created, held it");
+		}
+		return added[0];
+	}
+
+	@Override
+	public boolean createPendingEntry(EventQueueData eventData) {
+		log.fine(() -> "Creating pending queue for Event from source " + eventData.getInstanceKey());
+		// if there is already an entry send false back so a caller can know if there
+		// was a problem
+		return pendingInstanceCreation.putIfAbsent(eventData.getInstanceKey(), new PendingEvents()) == null;
+	}
+
+	@Override
+	public int resubmitPendingRegistrationEvents(EventQueueData eventData, EventQueue eventQueue, Executor executor) {
+		PendingEvents pendingEvents = removePendingEvents(eventData.getInstanceKey());
+		if (pendingEvents == null) {
+			return -1;
+		}
+		pendingEvents.events.addFirst(eventData);
+		return transferPendingEvents(eventData, pendingEvents, eventQueue, executor);
+	}
+
+	@Override
+	public int deletePendingregistrationEvents(EventQueueData eventData) {
+		PendingEvents pendingEvents = removePendingEvents(eventData.getInstanceKey());
+		if (pendingEvents == null) {
+			return -1;
+		}
+		int discarded = pendingEvents.events.size() + pendingEvents.toSpill.size();
+		if (pendingEvents.spool != null) {
+			discarded += pendingEvents.spool.getCount();
+			try {
+				pendingEvents.spool.delete();
+			} catch (IOException e) {
+				log.warning("Unable to delete spool file " + pendingEvents.spool.getFile() + ", "
+						+ e.getLocalizedMessage());
+			}
+		}
+		return discarded;
+	}
+
+	@Override
+	public List<EventQueueData> takePendingRegistrationEvents(EventQueueData eventData) {
+		PendingEvents pendingEvents = removePendingEvents(eventData.getInstanceKey());
+		if (pendingEvents == null) {
+			return null;
+		}
+		return allEvents(eventData.getInstanceKey(), pendingEvents);
+	}
+
+	@Override
+	public List<EventQueueData> takeAllPendingEvents() {
+		List<EventQueueData> takenEvents = new ArrayList<>();
+		for (String instanceKey : new ArrayList<>(pendingInstanceCreation.keySet())) {
+			PendingEvents pendingEvents = removePendingEvents(instanceKey);
+			if (pendingEvents != null) {
+				takenEvents.addAll(allEvents(instanceKey, pendingEvents));
+			}
+		}
+		return takenEvents;
+	}
+
+	@Override
+	public int getPendingInstanceCount() {
+		return pendingInstanceCreation.size();
+	}
+
+	@Override
+	public int getPendingEventCount() {
+		return eventsInMemory.get() + eventsSpooled.get();
+	}
+
+	@Override
+	public String getConfig() {
+		return "EventDataPendingConcurrent maxPerDevice=" + maxPerDevice + ", maxTotal=" + maxTotal
+				+ ", overflowPolicy=" + overflowPolicy
+				+ (overflowPolicy == OverflowPolicy.SPILL ? ", spoolDirectory=" + spoolDirectory : "");
+	}
+
+	@Override
+	public String getStatus() {
+		return "There are " + pendingInstanceCreation.size() + " lists with a total of " + eventsInMemory.get()
+				+ " pending in memory and " + eventsSpooled.get() + " spooled, " + dropped.sum()
+				+ " events have been dropped and " + spilled.sum() + " spilled, requeues retried "
+				+ requeueRetries.sum();
+	}
+
+	/**
+	 * called inside the compute for the device so nothing else can change it's
+	 * events at the same time
+	 * 
+	 * @return true if the event is waiting to be written to the device's spool
+	 *         file, the caller must call writeSpilledEvents once out of the compute
+	 */
+	private boolean addEvent(PendingEvents pendingEvents, EventQueueData eventData) {
+		// if we have already started spilling then keep doing so, otherwise the
+		// events would get out of order
+		if (pendingEvents.spilling) {
+			spill(pendingEvents, eventData);
+			return true;
+		}
+		if ((pendingEvents.events.size() < maxPerDevice) && reserveSpace()) {
+			pendingEvents.events.addLast(eventData);
+			return false;
+		}
+		switch (overflowPolicy) {
+		case DROP_NEWEST:
+			dropped.increment();
+			log.fine(() -> "Pending events limit reached, dropping new event for " + eventData.getInstanceKey());
+			break;
+		case DROP_OLDEST:
+			dropped.increment();
+			// if there are no events for this device (the total limit has been reached by
+			// other devices) then there is nothing to make room with, so the new event is
+			// the one that goes
+			if (!pendingEvents.events.isEmpty()) {
+				pendingEvents.events.pollFirst();
+				pendingEvents.events.addLast(eventData);
+			}
+			log.fine(() -> "Pending events limit reached, dropping oldest event for " + eventData.getInstanceKey());
+			break;
+		case SPILL:
+			spill(pendingEvents, eventData);
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * called inside the compute, this just queues the event to be written so the
+	 * order the events are written in is the order they were added
+	 */
+	private void spill(PendingEvents pendingEvents, EventQueueData eventData) {
+		pendingEvents.spilling = true;
+		pendingEvents.toSpill.add(eventData);
+		pendingEvents.spillCount.incrementAndGet();
+		eventsSpooled.incrementAndGet();
+	}
+
+	/**
+	 * writes any events waiting to be spilled for the device to it's spool file,
+	 * the events may have been queued by other threads which is fine as the lock
+	 * means they are written in the order they were queued
+	 */
+	private void writeSpilledEvents(PendingEvents pendingEvents) {
+		synchronized (pendingEvents.spoolLock) {
+			// once removed whoever removed it takes the events that haven't been written
+			if (pendingEvents.removed) {
+				return;
+			}
+			EventQueueData eventData;
+			while ((eventData = pendingEvents.toSpill.poll()) != null) {
+				try {
+					if (pendingEvents.spool == null) {
+						// the instance key may not be a valid file name, so just number the files
+						Path spoolFile = spoolDirectory
+								.resolve("pending-" + spoolFileCounter.incrementAndGet() + SPOOL_FILE_SUFFIX);
+						pendingEvents.spool = new EventDataSpool(spoolFile, objectMapper);
+						String instanceKey = eventData.getInstanceKey();
+						log.fine(() -> "Spilling pending events for " + instanceKey + " to " + spoolFile);
+					}
+					pendingEvents.spool.append(eventData);
+					spilled.increment();
+				} catch (IOException e) {
+					pendingEvents.spillCount.decrementAndGet();
+					eventsSpooled.decrementAndGet();
+					dropped.increment();
+					log.warning("Unable to spill pending event for " + eventData.getInstanceKey()
+							+ " so dropping it, " + e.getLocalizedMessage());
+				}
+			}
+		}
+	}
+
+	/**
+	 * takes a place in the total limit, returns false if it's been reached
+	 */
+	private boolean reserveSpace() {
+		int current;
+		do {
+			current = eventsInMemory.get();
+			if (current >= maxTotal) {
+				return false;
+			}
+		} while (!eventsInMemory.compareAndSet(current, current + 1));
+		return true;
+	}
+
+	/**
+	 * once removed from the map nothing else can add to the device's events, and
+	 * once it's marked as removed nothing else will write to the spool, so they can
+	 * be used without the locks
+	 */
+	private PendingEvents removePendingEvents(String instanceKey) {
+		PendingEvents pendingEvents = pendingInstanceCreation.remove(instanceKey);
+		if (pendingEvents != null) {
+			eventsInMemory.addAndGet(-pendingEvents.events.size());
+			synchronized (pendingEvents.spoolLock) {
+				pendingEvents.removed = true;
+				eventsSpooled.addAndGet(-pendingEvents.spillCount.get());
+			}
+		}
+		return pendingEvents;
+	}
+
+	private int transferPendingEvents(EventQueueData eventData, PendingEvents pendingEvents, EventQueue eventQueue,
+			Executor executor) {
+		int eventsPendingCount = pendingEvents.events.size() + pendingEvents.spillCount.get();
+		// as with the in memory version the transfer is done in a separate thread so
+		// the caller (which is taking events off the queue) can't deadlock with a full
+		// queue, reading any spooled events is also done there
+		log.fine(() -> "Scheduling requeue for pending events for " + eventData.getInstanceKey());
+		String instanceKey = eventData.getInstanceKey();
+		executor.execute(() -> transferEventData(instanceKey, allEvents(instanceKey, pendingEvents), eventQueue,
+				executor));
+		return eventsPendingCount;
+	}
+
+	/**
+	 * the events held in memory followed by any that were spooled (including any
+	 * that were waiting to be written), the spool file is removed once it's been
+	 * read
+	 */
+	private List<EventQueueData> allEvents(String instanceKey, PendingEvents pendingEvents) {
+		List<EventQueueData> eventsList = new ArrayList<>(pendingEvents.events);
+		if (pendingEvents.spool != null) {
+			try {
+				eventsList.addAll(pendingEvents.spool.readAll());
+				pendingEvents.spool.delete();
+			} catch (IOException e) {
+				log.warning("Unable to read spooled pending events for " + instanceKey + " from "
+						+ pendingEvents.spool.getFile() + ", " + e.getLocalizedMessage());
+			}
+		}
+		eventsList.addAll(pendingEvents.toSpill);
+		pendingEvents.toSpill.clear();
+		return eventsList;
+	}
+
+	/**
+	 * adds the events to the event queue, if there isn't space for all of them as
+	 * many as will fit are added (in order) and the rest are held for the device
+	 * again and retried later
+	 */
+	private void transferEventData(String instanceKey, List<EventQueueData> eventsList, EventQueue eventQueue,
+			Executor executor) {
+		log.fine(() -> "Requeue of " + eventsList.size() + " pending events for " + instanceKey);
+		if (eventsList.isEmpty() || eventQueue.addToQueue(eventsList)) {
+			return;
+		}
+		List<EventQueueData> remaining = eventsList;
+		int space = eventQueue.getRemainingCapacity();
+		if ((space > 0) && (space < eventsList.size()) && eventQueue.addToQueue(eventsList.subList(0, space))) {
+			remaining = eventsList.subList(space, eventsList.size());
+		}
+		holdForRetry(instanceKey, new ArrayList<>(remaining), eventQueue, executor);
+	}
+
+	private void holdForRetry(String instanceKey, List<EventQueueData> eventsList, EventQueue eventQueue,
+			Executor executor) {
+		requeueRetries.increment();
+		boolean[] scheduleRetry = new boolean[1];
+		pendingInstanceCreation.compute(instanceKey, (key, existing) -> {
+			PendingEvents pendingEvents = existing == null ? new PendingEvents() : existing;
+			// these arrived before anything held since so they go in front, the limits
+			// are not applied as they have already been accepted
+			for (int i = eventsList.size() - 1; i >= 0; i--) {
+				pendingEvents.events.addFirst(eventsList.get(i));
+			}
+			eventsInMemory.addAndGet(eventsList.size());
+			// if there was already an entry the instance is being created again, the events
+			// will be handled along with those held for that
+			scheduleRetry[0] = existing == null;
+			return pendingEvents;
+		});
+		log.warning("Event queue did not have space for the " + eventsList.size() + " pending events for "
+				+ instanceKey + ", holding them" + (scheduleRetry[0] ? " and retrying in " + REQUEUE_RETRY_MILLIS + "ms"
+						: " with the events for the instance creation in progress"));
+		if (scheduleRetry[0]) {
+			CompletableFuture.delayedExecutor(REQUEUE_RETRY_MILLIS, TimeUnit.MILLISECONDS, executor)
+					.execute(() -> retryTransfer(instanceKey, eventQueue, executor));
+		}
+	}
+
+	private void retryTransfer(String instanceKey, EventQueue eventQueue, Executor executor) {
+		PendingEvents pendingEvents = removePendingEvents(instanceKey);
+		// if it's gone they have been taken by something else (e.g. the gateway is
+		// stopping)
+		if (pendingEvents != null) {
+			transferEventData(instanceKey, allEvents(instanceKey, pendingEvents), eventQueue, executor);
+		}
+	}
+
+	@PostConstruct
+	public void postConstruct() {
+		log.info(getConfig() + " - " + getStatus());
+		// the pending lists don't survive a restart so spool files from an earlier run
+		// can't be matched up, leave them for someone to look at
+		if ((overflowPolicy == OverflowPolicy.SPILL) && Files.isDirectory(spoolDirectory)) {
+			try (Stream<Path> files = Files.list(spoolDirectory)) {
+				long leftOver = files.filter(file -> file.toString().endsWith(SPOOL_FILE_SUFFIX)).count();
+				if (leftOver > 0) {
+					log.warning("There are " + leftOver + " spool files from a previous run in " + spoolDirectory
+							+ " they will not be processed");
+				}
+			} catch (IOException e) {
+				log.warning("Unable to check spool directory " + spoolDirectory + ", " + e.getLocalizedMessage());
+			}
+		}
+	}
+
+	@PreDestroy
+	public void preDestroy() {
+		pendingInstanceCreation.values().forEach(pendingEvents -> {
+			synchronized (pendingEvents.spoolLock) {
+				if (pendingEvents.spool != null) {
+					try {
+						pendingEvents.spool.close();
+					} catch (IOException e) {
+						log.warning("Unable to close spool file " + pendingEvents.spool.getFile() + ", "
+								+ e.getLocalizedMessage());
+					}
+				}
+			}
+		});
+	}
+
+	private static class PendingEvents {
+		// only changed inside a compute for the device
+		private final ArrayDeque<EventQueueData> events = new ArrayDeque<>();
+		private boolean spilling = false;
+		// events decided on inside the compute but not yet written to the spool, and the
+		// total of those and the ones that have been written
+		private final ConcurrentLinkedQueue<EventQueueData> toSpill = new ConcurrentLinkedQueue<>();
+		private final AtomicInteger spillCount = new AtomicInteger();
+		// the spool is only used while holding the spoolLock
+		private final Object spoolLock = new Object();
+		private EventDataSpool spool;
+		private boolean removed = false;
+	}
+}
@@ -36,6 +36,7 @@ SOFTWARE.
  */
 package com.oracle.timg.demo.iot.demogateway.queue;
 
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
@@ -170,29 +171,22 @@ public class EventDataPendingInMemory implements EventDataPending {
 		return eventsPendingCount;
 	}
 
-	/**
-	 * Do the actual event transfer in a separate thread to remove blocking
-	 * situations
-	 *
-	 * @param eventData  is used to figure out what pending events (if any) to
-	 *                   transfer over
-	 * @param eventQueue the queue to transfer any pending events to
-	 * @param executor   used to generate the thread to do the transfer
-	 * @return -1 if there was no list of pending events (probably a coding or
-	 *         timing error) or the number of events that are going to be transfered
-	 *         to the events queue
-	 */
 	@Override
-	public int clearPendingRegistrationEvents(EventQueueData eventData, EventQueue eventQueue, Executor executor) {
-		List<EventQueueData> eventsList;
+	public List<EventQueueData> takePendingRegistrationEvents(EventQueueData eventData) {
 		synchronized (pendingInstanceCreation) {
 			// get the saved list (if there was one) while removing it from the map
-			eventsList = pendingInstanceCreation.remove(eventData.getInstanceKey());
-			if (eventsList == null) {
-				return -1;
-			}
+			return pendingInstanceCreation.remove(eventData.getInstanceKey());
 		}
-		return uploadPendingRegistrationEvents(eventData, eventQueue, executor, eventsList);
+	}
+
+	@Override
+	public List<EventQueueData> takeAllPendingEvents() {
+		List<EventQueueData> takenEvents = new ArrayList<>();
+		synchronized (pendingInstanceCreation) {
+			pendingInstanceCreation.values().forEach(takenEvents::addAll);
+			pendingInstanceCreation.clear();
+		}
+		return takenEvents;
 	}
 
 	private void transferEventData(EventQueueData eventData, List<EventQueueData> eventsList, EventQueue eventQueue) {
@@ -207,11 +201,24 @@ public class EventDataPendingInMemory implements EventDataPending {
 		return "EventDataPendingInMemory";
 	}
 
+	@Override
+	public int getPendingInstanceCount() {
+		synchronized (pendingInstanceCreation) {
+			return pendingInstanceCreation.size();
+		}
+	}
+
+	@Override
+	public int getPendingEventCount() {
+		synchronized (pendingInstanceCreation) {
+			return pendingInstanceCreation.values().stream().mapToInt(List::size).sum();
+		}
+	}
+
 	@Override
 	public String getStatus() {
 		synchronized (pendingInstanceCreation) {
-			int pendingEvents = pendingInstanceCreation.values().stream().mapToInt(List::size).sum();
-			return "There are " + pendingInstanceCreation.size() + " lists with a total of " + pendingEvents
+			return "There are " + getPendingInstanceCount() + " lists with a total of " + getPendingEventCount()
 					+ " pending";
 		}
 	}
@@ -0,0 +1,235 @@
+/*Copyright (c) 2026 Oracle and/or its affiliates.
+
+The Universal Permissive License (UPL), Version 1.0
+
+Subject to the condition set forth below, permission is hereby granted to any
+person obtaining a copy of this software, associated documentation and/or data
+(collectively the "Software"), free of charge and under any and all copyright
+rights in the Software, and any and all patent rights owned or freely
+licensable by each licensor hereunder covering either (i) the unmodified
+Software as contributed to or provided by such licensor, or (ii) the Larger
+Works (as defined below), to deal in both
+
+(a) the Software, and
+(b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+one is included with the Software (each a "Larger Work" to which the Software
+is contributed by such licensors),
+
+without restriction, including without limitation the rights to copy, create
+derivative works of, display, perform, and distribute the Software and make,
+use, sell, offer for sale, import, export, have made, and have sold the
+Software and the Larger Work(s), and to sublicense the foregoing rights on
+either these or other terms.
+
+This license is subject to the following condition:
+The above copyright notice and either this complete permission notice or at
+a minimum a reference to the UPL must be included in all copies or
+substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+ */
+package com.oracle.timg.demo.iot.demogateway.queue;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import lombok.Getter;
+import lombok.extern.java.Log;
+
+/*
+ * an append only file of events, one JSON object per line (the same format as
+ * the bulk upload plus the time the event was received, with the transformed
+ * key and payload as well if the event has been through the transformers). This
+ * is for holding events that can't be kept in memory or processed right now so
+ * they can be read back later, it's not a queue, the events are read back all
+ * at once and the file then deleted.
+ */
+@Log
+public class EventDataSpool implements Closeable {
+	public static final String INSTANCE_KEY_FIELD = "instanceKey";
+	public static final String PAYLOAD_FIELD = "payload";
+	public static final String TRANSFORMED_INSTANCE_KEY_FIELD = "transformedInstanceKey";
+	public static final String TRANSFORMED_PAYLOAD_FIELD = "transformedPayload";
+	public static final String RECEIVED_TIME_FIELD = "receivedTime";
+	@Getter
+	private final Path file;
+	private final ObjectMapper objectMapper;
+	private BufferedWriter writer;
+	private int count;
+
+	/**
+	 * if the file already exists the events in it are kept and new events are
+	 * added after them
+	 * 
+	 * @param file
+	 * @param objectMapper
+	 * @throws IOException
+	 */
+	public EventDataSpool(Path file, ObjectMapper objectMapper) throws IOException {
+		this.file = file;
+		this.objectMapper = objectMapper;
+		if (Files.exists(file)) {
+			try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+				count = (int) reader.lines().filter(line -> !line.isBlank()).count();
+			}
+		} else if (file.getParent() != null) {
+			Files.createDirectories(file.getParent());
+		}
+	}
+
+	public synchronized void append(EventQueueData eventData) throws IOException {
+		writeEvent(eventData);
+		writer.flush();
+	}
+
+	/**
+	 * adds the events in list order, they are all written before the file is
+	 * flushed
+	 * 
+	 * @param eventsData
+	 * @throws IOException
+	 */
+	public synchronized void append(List<EventQueueData> eventsData) throws IOException {
+		for (EventQueueData eventData : eventsData) {
+			writeEvent(eventData);
+		}
+		writer.flush();
+	}
+
+	/**
+	 * returns all of the events in the spool in the order they were added, lines
+	 * that can't be read are logged and skipped
+	 * 
+	 * @return
+	 * @throws IOException
+	 */
+	public synchronized List<EventQueueData> readAll() throws IOException {
+		closeWriter();
+		List<EventQueueData> eventsData = new ArrayList<>(count);
+		if (!Files.exists(file)) {
+			return eventsData;
+		}
+		try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+			String line;
+			int lineNumber = 0;
+			while ((line = reader.readLine()) != null) {
+				lineNumber++;
+				if (line.isBlank()) {
+					continue;
+				}
+				try {
+					eventsData.add(fromJson(objectMapper.readTree(line)));
+				} catch (IOException | IllegalArgumentException e) {
+					log.warning("Skipping unreadable line " + lineNumber + " in spool file " + file + ", "
+							+ e.getLocalizedMessage());
+				}
+			}
+		}
+		return eventsData;
+	}
+
+	/**
+	 * removes the file and any events in it
+	 * 
+	 * @throws IOException
+	 */
+	public synchronized void delete() throws IOException {
+		closeWriter();
+		Files.deleteIfExists(file);
+		count = 0;
+	}
+
+	/**
+	 * replaces the events in the file with the ones provided, they are written to
+	 * a temp file which is then moved into place so a failure part way through
+	 * leaves the existing events untouched
+	 * 
+	 * @param eventsData
+	 * @throws IOException
+	 */
+	public synchronized void replace(List<EventQueueData> eventsData) throws IOException {
+		closeWriter();
+		Path tempFile = file.resolveSibling(file.getFileName() + ".tmp");
+		try (BufferedWriter tempWriter = Files.newBufferedWriter(tempFile, StandardCharsets.UTF_8)) {
+			for (EventQueueData eventData : eventsData) {
+				tempWriter.write(objectMapper.writeValueAsString(toJson(eventData)));
+				tempWriter.newLine();
+			}
+		}
+		Files.move(tempFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		count = eventsData.size();
+	}
+
+	public synchronized int getCount() {
+		return count;
+	}
+
+	@Override
+	public synchronized void close() throws IOException {
+		closeWriter();
+	}
+
+	private void writeEvent(EventQueueData eventData) throws IOException {
+		if (writer == null) {
+			writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8, StandardOpenOption.CREATE,
+					StandardOpenOption.APPEND);
+		}
+		writer.write(objectMapper.writeValueAsString(toJson(eventData)));
+		writer.newLine();
+		count++;
+	}
+
+	private void closeWriter() throws IOException {
+		if (writer != null) {
+			writer.close();
+			writer = null;
+		}
+	}
+
+	private ObjectNode toJson(EventQueueData eventData) {
+		ObjectNode node = objectMapper.createObjectNode();
+		node.put(INSTANCE_KEY_FIELD, eventData.getInstanceKey());
+		node.put(PAYLOAD_FIELD, eventData.getPayload());
+		node.put(RECEIVED_TIME_FIELD, eventData.getReceivedTime());
+		if (eventData.isTransformed()) {
+			node.put(TRANSFORMED_INSTANCE_KEY_FIELD, eventData.getTransformedInstanceKey());
+			node.put(TRANSFORMED_PAYLOAD_FIELD, eventData.getTransformedPayload());
+		}
+		return node;
+	}
+
+	private EventQueueData fromJson(JsonNode node) {
+		JsonNode instanceKey = node.get(INSTANCE_KEY_FIELD);
+		JsonNode payload = node.get(PAYLOAD_FIELD);
+		JsonNode receivedTime = node.get(RECEIVED_TIME_FIELD);
+		if ((instanceKey == null) || !instanceKey.isTextual() || (payload == null) || !payload.isTextual()
+				|| (receivedTime == null) || !receivedTime.canConvertToLong()) {
+			throw new IllegalArgumentException(
+					"missing " + INSTANCE_KEY_FIELD + ", " + PAYLOAD_FIELD + " or " + RECEIVED_TIME_FIELD);
+		}
+		JsonNode transformedInstanceKey = node.get(TRANSFORMED_INSTANCE_KEY_FIELD);
+		JsonNode transformedPayload = node.get(TRANSFORMED_PAYLOAD_FIELD);
+		return new EventQueueData(instanceKey.asText(), payload.asText(),
+				transformedInstanceKey == null ? null : transformedInstanceKey.asText(),
+				transformedPayload == null ? null : transformedPayload.asText(), receivedTime.asLong());
+	}
+}
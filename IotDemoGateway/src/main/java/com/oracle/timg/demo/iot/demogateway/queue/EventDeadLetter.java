@@ -0,0 +1,179 @@
+/*Copyright (c) 2026 Oracle and/or its affiliates.
+
+The Universal Permissive License (UPL), Version 1.0
+
+Subject to the condition set forth below, permission is hereby granted to any
+person obtaining a copy of this software, associated documentation and/or data
+(collectively the "Software"), free of charge and under any and all copyright
+rights in the Software, and any and all patent rights owned or freely
+licensable by each licensor hereunder covering either (i) the unmodified
+Software as contributed to or provided by such licensor, or (ii) the Larger
+Works (as defined below), to deal in both
+
+(a) the Software, and
+(b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+one is included with the Software (each a "Larger Work" to which the Software
+is contributed by such licensors),
+
+without restriction, including without limitation the rights to copy, create
+derivative works of, display, perform, and distribute the Software and make,
+use, sell, offer for sale, import, export, have made, and have sold the
+Software and the Larger Work(s), and to sublicense the foregoing rights on
+either these or other terms.
+
+This license is subject to the following condition:
+The above copyright notice and either this complete permission notice or at
+a minimum a reference to the UPL must be included in all copies or
+substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+ */
+package com.oracle.timg.demo.iot.demogateway.queue;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import io.micronaut.context.annotation.Property;
+import io.micronaut.serde.annotation.Serdeable;
+import jakarta.annotation.PreDestroy;
+import jakarta.inject.Inject;
+import jakarta.inject.Singleton;
+import lombok.extern.java.Log;
+
+/*
+ * holds events that could not be uploaded (e.g. the retries ran out or the
+ * upload circuit was open) in an append only spool file so they are not lost,
+ * they stay there (including over restarts) until they are replayed back onto
+ * the event queue.
+ */
+@Singleton
+@Log
+public class EventDeadLetter {
+	private final EventQueue eventQueue;
+	private final Path deadLetterFile;
+	private final int replayBatchSize;
+	private final EventDataSpool spool;
+	private final LongAdder added = new LongAdder();
+	private final LongAdder replayed = new LongAdder();
+	private final LongAdder lost = new LongAdder();
+
+	/**
+	 * how a replay went, replayed events were added to the event queue, remaining
+	 * events are still in the dead letter spool (e.g. the event queue filled up)
+	 */
+	@Serdeable
+	public record ReplayResult(int replayed, int remaining) {
+	}
+
+	@Inject
+	public EventDeadLetter(EventQueue eventQueue, ObjectMapper objectMapper,
+			@Property(name = "gateway.deadletter.file", defaultValue = "deadletter/deadletter.ndjson") String deadLetterFile,
+			@Property(name = "gateway.deadletter.replaybatchsize", defaultValue = "100") int replayBatchSize)
+			throws IOException {
+		this.eventQueue = eventQueue;
+		this.deadLetterFile = Path.of(deadLetterFile);
+		this.replayBatchSize = Math.max(1, replayBatchSize);
+		this.spool = new EventDataSpool(this.deadLetterFile, objectMapper);
+		if (spool.getCount() > 0) {
+			log.warning("There are " + spool.getCount() + " events in the dead letter spool " + this.deadLetterFile
+					+ " from a previous run, they can be replayed");
+		}
+	}
+
+	/**
+	 * adds the event to the dead letter spool, if that fails the event is lost
+	 *
+	 * @param eventData
+	 * @param reason    why the event is being dead lettered, this is only logged
+	 */
+	public void add(EventQueueData eventData, String reason) {
+		try {
+			spool.append(eventData);
+			added.increment();
+			log.fine(() -> "Added event for " + eventData.getInstanceKey() + " to the dead letter spool, " + reason);
+		} catch (IOException e) {
+			lost.increment();
+			log.severe("Unable to add event for " + eventData.getInstanceKey() + " to the dead letter spool (" + reason
+					+ "), the event is lost, " + e.getLocalizedMessage());
+		}
+	}
+
+	/**
+	 * moves the events in the dead letter spool back onto the event queue in the
+	 * order they were added, they are added in batches and if the queue fills up
+	 * the events that were not added are kept in the spool. The spool is only
+	 * changed once the events are on the queue, so if that fails the events that
+	 * were replayed may be replayed again, but none are lost
+	 *
+	 * @return
+	 * @throws IOException
+	 */
+	public synchronized ReplayResult replay() throws IOException {
+		List<EventQueueData> events;
+		int replayedCount = 0;
+		List<EventQueueData> remaining;
+		// make sure nothing is added between the read and the update, adding to the
+		// queue doesn't wait so this isn't held for long
+		synchronized (spool) {
+			events = spool.readAll();
+			while (replayedCount < events.size()) {
+				List<EventQueueData> batch = events.subList(replayedCount,
+						Math.min(events.size(), replayedCount + replayBatchSize));
+				if (!eventQueue.addToQueue(batch)) {
+					break;
+				}
+				replayedCount += batch.size();
+			}
+			remaining = events.subList(replayedCount, events.size());
+			if (remaining.isEmpty()) {
+				spool.delete();
+			} else if (replayedCount > 0) {
+				spool.replace(remaining);
+			}
+		}
+		if (!remaining.isEmpty()) {
+			log.warning("Event queue is full, only replayed " + replayedCount + " of " + events.size()
+					+ " dead letter events, the rest have been kept");
+		}
+		replayed.add(replayedCount);
+		log.info("Replayed " + replayedCount + " dead letter events onto the event queue");
+		return new ReplayResult(replayedCount, remaining.size());
+	}
+
+	public int getCount() {
+		return spool.getCount();
+	}
+
+	public long getAddedCount() {
+		return added.sum();
+	}
+
+	public String getConfig() {
+		return "deadLetterFile=" + deadLetterFile + ", replayBatchSize=" + replayBatchSize;
+	}
+
+	public String getStatus() {
+		return "EventDeadLetter has " + spool.getCount() + " events in the spool, " + added.sum() + " added, "
+				+ replayed.sum() + " replayed, " + lost.sum() + " lost as they could not be added";
+	}
+
+	@PreDestroy
+	public void preDestroy() {
+		try {
+			spool.close();
+		} catch (IOException e) {
+			log.warning("Problem closing dead letter spool " + deadLetterFile + ", " + e.getLocalizedMessage());
+		}
+		log.info(getStatus());
+	}
+}
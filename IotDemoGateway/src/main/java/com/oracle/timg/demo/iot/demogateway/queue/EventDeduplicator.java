@@ -0,0 +1,257 @@
+/*Copyright (c) 2026 Oracle and/or its affiliates.
+
+The Universal Permissive License (UPL), Version 1.0
+
+Subject to the condition set forth below, permission is hereby granted to any
+person obtaining a copy of this software, associated documentation and/or data
+(collectively the "Software"), free of charge and under any and all copyright
+rights in the Software, and any and all patent rights owned or freely
+licensable by each licensor hereunder covering either (i) the unmodified
+Software as contributed to or provided by such licensor, or (ii) the Larger
+Works (as defined below), to deal in both
+
+(a) the Software, and
+(b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+one is included with the Software (each a "Larger Work" to which the Software
+is contributed by such licensors),
+
+without restriction, including without limitation the rights to copy, create
+derivative works of, display, perform, and distribute the Software and make,
+use, sell, offer for sale, import, export, have made, and have sold the
+Software and the Larger Work(s), and to sublicense the foregoing rights on
+either these or other terms.
+
+This license is subject to the following condition:
+The above copyright notice and either this complete permission notice or at
+a minimum a reference to the UPL must be included in all copies or
+substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+ */
+package com.oracle.timg.demo.iot.demogateway.queue;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+import io.micronaut.context.annotation.Property;
+import jakarta.inject.Inject;
+import jakarta.inject.Singleton;
+import lombok.extern.java.Log;
+
+/*
+ * devices on flaky links often resend an event they have already sent because
+ * they didn't see the response, this spots events with the same instance key
+ * (as received) and payload arriving within a short window of each other so
+ * the copies can be dropped before they are queued, transformed and uploaded.
+ * An event's fingerprint is only recorded once the event has been added to the
+ * event queue, so a copy sent because the first was refused is never dropped.
+ * Two copies arriving at the same moment may both be queued, an extra upload is
+ * better than losing the event.
+ *
+ * Rather than the events themselves a 64 bit fingerprint of the instance key
+ * and payload is held, in a set for the time bucket the event arrived in. The
+ * window is split into a number of buckets, an event is a duplicate if its
+ * fingerprint is in the bucket for now or any of the buckets covering the
+ * window before that, so depending on where in the current bucket the event
+ * arrives the window checked is between the window and the window plus one
+ * bucket. When a new bucket starts it replaces the oldest one, so expiring the
+ * fingerprints is just dropping a set. The number of fingerprints held is
+ * counted from the sets that are in place rather than kept separately, so an
+ * event recorded into a bucket as it's being replaced can't leave the count
+ * out. If the number of fingerprints held gets to the max entries the oldest
+ * bucket is dropped early (in effect shortening the window), if the current
+ * bucket is the only one left new fingerprints are not recorded until it's
+ * replaced, so the memory used is bounded.
+ */
+@Singleton
+@Log
+public class EventDeduplicator {
+	private final long window;
+	private final int bucketCount;
+	private final long bucketMillis;
+	private final int maxEntries;
+	// the buckets being checked, plus the current one
+	private final AtomicReferenceArray<FingerprintBucket> buckets;
+	private final LongAdder duplicates = new LongAdder();
+	private final LongAdder bucketsDroppedEarly = new LongAdder();
+	private final LongAdder notRecorded = new LongAdder();
+
+	@Inject
+	public EventDeduplicator(@Property(name = "gateway.ingest.dedup.window", defaultValue = "0") long window,
+			@Property(name = "gateway.ingest.dedup.buckets", defaultValue = "4") int bucketCount,
+			@Property(name = "gateway.ingest.dedup.maxentries", defaultValue = "100000") int maxEntries) {
+		this.window = Math.max(0, window);
+		this.bucketCount = Math.max(1, bucketCount);
+		this.bucketMillis = Math.max(1, this.window / this.bucketCount);
+		this.maxEntries = Math.max(1, maxEntries);
+		this.buckets = new AtomicReferenceArray<>(this.bucketCount + 1);
+	}
+
+	public boolean isEnabled() {
+		return window > 0;
+	}
+
+	/**
+	 * checks if an event with the same instance key and payload has been queued
+	 * within the window
+	 *
+	 * @param eventData
+	 * @return true if the event is a duplicate and should be dropped
+	 */
+	public boolean isDuplicate(EventQueueData eventData) {
+		if (!isEnabled()) {
+			return false;
+		}
+		long bucketNumber = eventData.getReceivedTime() / bucketMillis;
+		Long fingerprint = fingerprint(eventData.getInstanceKey(), eventData.getPayload());
+		for (int i = 0; i <= bucketCount; i++) {
+			FingerprintBucket bucket = buckets.get(slot(bucketNumber - i));
+			if ((bucket != null) && (bucket.number == (bucketNumber - i))
+					&& bucket.fingerprints.contains(fingerprint)) {
+				recordDuplicate(eventData);
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * records the event has been queued so later copies will be seen as
+	 * duplicates, this must only be called once the event is on the event queue
+	 *
+	 * @param eventData
+	 */
+	public void record(EventQueueData eventData) {
+		if (!isEnabled()) {
+			return;
+		}
+		long bucketNumber = eventData.getReceivedTime() / bucketMillis;
+		FingerprintBucket current = currentBucket(bucketNumber);
+		if (current == null) {
+			// the event is older than anything we hold, so there's nowhere to put it
+			return;
+		}
+		if (!makeSpace(bucketNumber)) {
+			notRecorded.increment();
+			return;
+		}
+		current.fingerprints.add(fingerprint(eventData.getInstanceKey(), eventData.getPayload()));
+	}
+
+	private void recordDuplicate(EventQueueData eventData) {
+		duplicates.increment();
+		log.finer(() -> "Dropping duplicate event from " + eventData.getInstanceKey());
+	}
+
+	private int slot(long bucketNumber) {
+		return (int) Math.floorMod(bucketNumber, (long) buckets.length());
+	}
+
+	/**
+	 * @return the bucket for the bucket number, replacing whatever was in its slot
+	 *         if that's older, or null if the slot already holds a newer bucket
+	 */
+	private FingerprintBucket currentBucket(long bucketNumber) {
+		int slot = slot(bucketNumber);
+		while (true) {
+			FingerprintBucket bucket = buckets.get(slot);
+			if ((bucket != null) && (bucket.number >= bucketNumber)) {
+				return bucket.number == bucketNumber ? bucket : null;
+			}
+			FingerprintBucket replacement = new FingerprintBucket(bucketNumber);
+			if (buckets.compareAndSet(slot, bucket, replacement)) {
+				return replacement;
+			}
+		}
+	}
+
+	/**
+	 * if we are at the max entries drop the oldest buckets until there is space
+	 *
+	 * @return false if there is still no space
+	 */
+	private boolean makeSpace(long bucketNumber) {
+		for (int i = bucketCount; (i >= 1) && (entryCount() >= maxEntries); i--) {
+			int slot = slot(bucketNumber - i);
+			FingerprintBucket bucket = buckets.get(slot);
+			if ((bucket != null) && (bucket.number < bucketNumber) && buckets.compareAndSet(slot, bucket, null)) {
+				bucketsDroppedEarly.increment();
+			}
+		}
+		return entryCount() < maxEntries;
+	}
+
+	/**
+	 * there are only a few buckets and the sets keep their own size, so this is
+	 * cheap enough to do for each recorded event
+	 */
+	private int entryCount() {
+		int count = 0;
+		for (int i = 0; i < buckets.length(); i++) {
+			FingerprintBucket bucket = buckets.get(i);
+			if (bucket != null) {
+				count += bucket.fingerprints.size();
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * a 64 bit FNV-1a hash of the instance key and payload, with a separator so
+	 * moving characters between the two gives a different fingerprint. At 64 bits
+	 * the chance of two different events in the window clashing is tiny
+	 */
+	public static long fingerprint(String instanceKey, String payload) {
+		long hash = 0xcbf29ce484222325L;
+		hash = hashChars(hash, instanceKey);
+		hash ^= 0xffff;
+		hash *= 0x100000001b3L;
+		return hashChars(hash, payload);
+	}
+
+	private static long hashChars(long hash, String value) {
+		for (int i = 0; i < value.length(); i++) {
+			hash ^= value.charAt(i);
+			hash *= 0x100000001b3L;
+		}
+		return hash;
+	}
+
+	public long getDuplicateCount() {
+		return duplicates.sum();
+	}
+
+	public int getFingerprintCount() {
+		return entryCount();
+	}
+
+	public String getConfig() {
+		return isEnabled()
+				? "window=" + window + "ms, buckets=" + bucketCount + " of " + bucketMillis + "ms, maxEntries="
+						+ maxEntries
+				: "disabled";
+	}
+
+	public String getStatus() {
+		return "EventDeduplicator " + getConfig() + ", holding " + entryCount() + " fingerprints, has dropped "
+				+ duplicates.sum() + " duplicate events, buckets dropped early " + bucketsDroppedEarly.sum()
+				+ ", events not recorded as full " + notRecorded.sum();
+	}
+
+	private static class FingerprintBucket {
+		final long number;
+		final Set<Long> fingerprints = ConcurrentHashMap.newKeySet();
+
+		FingerprintBucket(long number) {
+			this.number = number;
+		}
+	}
+}
@@ -0,0 +1,129 @@
+/*Copyright (c) 2026 Oracle and/or its affiliates.
+
+The Universal Permissive License (UPL), Version 1.0
+
+Subject to the condition set forth below, permission is hereby granted to any
+person obtaining a copy of this software, associated documentation and/or data
+(collectively the "Software"), free of charge and under any and all copyright
+rights in the Software, and any and all patent rights owned or freely
+licensable by each licensor hereunder covering either (i) the unmodified
+Software as contributed to or provided by such licensor, or (ii) the Larger
+Works (as defined below), to deal in both
+
+(a) the Software, and
+(b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+one is included with the Software (each a "Larger Work" to which the Software
+is contributed by such licensors),
+
+without restriction, including without limitation the rights to copy, create
+derivative works of, display, perform, and distribute the Software and make,
+use, sell, offer for sale, import, export, have made, and have sold the
+Software and the Larger Work(s), and to sublicense the foregoing rights on
+either these or other terms.
+
+This license is subject to the following condition:
+The above copyright notice and either this complete permission notice or at
+a minimum a reference to the UPL must be included in all copies or
+substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+ */
+package com.oracle.timg.demo.iot.demogateway.queue;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import io.micronaut.context.annotation.Property;
+import jakarta.inject.Inject;
+import jakarta.inject.Singleton;
+import lombok.extern.java.Log;
+
+/*
+ * when the gateway is overloaded (the event queue is more than the threshold
+ * percentage full) the events that have been waiting longer than the max age
+ * are most likely out of date by the time they get uploaded, and processing
+ * them just makes the newer events wait longer. This lets the
+ * EventQueueProcessor drop them (or with SAMPLE keep one in every sampleEvery
+ * of them) so the time to process an event stays bounded.
+ *
+ * The age of an event is from when the gateway first received it, so events
+ * replayed from the dead letter spool or restored after a restart can be shed
+ * if the gateway is overloaded when they come off the queue.
+ */
+@Singleton
+@Log
+public class EventLoadShedder {
+	public enum SheddingPolicy {
+		NONE, DROP, SAMPLE
+	}
+
+	private final EventQueue eventQueue;
+	private final SheddingPolicy policy;
+	private final long maxAge;
+	private final int queueThreshold;
+	private final int sampleEvery;
+	private final AtomicLong oldEvents = new AtomicLong();
+	private final LongAdder shed = new LongAdder();
+
+	@Inject
+	public EventLoadShedder(EventQueue eventQueue,
+			@Property(name = "gateway.shedding.policy", defaultValue = "NONE") String policy,
+			@Property(name = "gateway.shedding.maxage", defaultValue = "5000") long maxAge,
+			@Property(name = "gateway.shedding.queuethreshold", defaultValue = "50") int queueThreshold,
+			@Property(name = "gateway.shedding.sampleevery", defaultValue = "10") int sampleEvery) {
+		this.eventQueue = eventQueue;
+		this.policy = SheddingPolicy.valueOf(policy.toUpperCase());
+		this.maxAge = Math.max(0, maxAge);
+		this.queueThreshold = Math.max(0, Math.min(100, queueThreshold));
+		this.sampleEvery = Math.max(1, sampleEvery);
+	}
+
+	/**
+	 * called for each event as it comes off the event queue
+	 *
+	 * @param eventData
+	 * @return true if the event should not be processed
+	 */
+	public boolean shouldShed(EventQueueData eventData) {
+		if (policy == SheddingPolicy.NONE) {
+			return false;
+		}
+		// the age is cheap to check so do that first, most of the time events won't be
+		// old
+		long age = System.currentTimeMillis() - eventData.getReceivedTime();
+		if ((age <= maxAge) || !isOverloaded()) {
+			return false;
+		}
+		if ((policy == SheddingPolicy.SAMPLE) && ((oldEvents.getAndIncrement() % sampleEvery) == 0)) {
+			return false;
+		}
+		shed.increment();
+		log.finer(() -> "Shedding event from " + eventData.getInstanceKey() + " that is " + age + "ms old");
+		return true;
+	}
+
+	private boolean isOverloaded() {
+		long size = eventQueue.getQueueSize();
+		long capacity = size + eventQueue.getRemainingCapacity();
+		return (capacity <= 0) || ((size * 100) >= (capacity * queueThreshold));
+	}
+
+	public long getShedCount() {
+		return shed.sum();
+	}
+
+	public String getConfig() {
+		return "policy=" + policy + ", maxAge=" + maxAge + "ms, queueThreshold=" + queueThreshold
+				+ "%, sampleEvery=" + sampleEvery;
+	}
+
+	public String getStatus() {
+		return "EventLoadShedder " + getConfig() + ", has shed " + shed.sum() + " events";
+	}
+}
@@ -0,0 +1,258 @@
+/*Copyright (c) 2026 Oracle and/or its affiliates.
+
+The Universal Permissive License (UPL), Version 1.0
+
+Subject to the condition set forth below, permission is hereby granted to any
+person obtaining a copy of this software, associated documentation and/or data
+(collectively the "Software"), free of charge and under any and all copyright
+rights in the Software, and any and all patent rights owned or freely
+licensable by each licensor hereunder covering either (i) the unmodified
+Software as contributed to or provided by such licensor, or (ii) the Larger
+Works (as defined below), to deal in both
+
+(a) the Software, and
+(b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+one is included with the Software (each a "Larger Work" to which the Software
+is contributed by such licensors),
+
+without restriction, including without limitation the rights to copy, create
+derivative works of, display, perform, and distribute the Software and make,
+use, sell, offer for sale, import, export, have made, and have sold the
+Software and the Larger Work(s), and to sublicense the foregoing rights on
+either these or other terms.
+
+This license is subject to the following condition:
+The above copyright notice and either this complete permission notice or at
+a minimum a reference to the UPL must be included in all copies or
+substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+ */
+package com.oracle.timg.demo.iot.demogateway.queue;
+
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+
+import lombok.extern.java.Log;
+
+/*
+ * spreads the events across a fixed number of worker lanes, each lane has it's
+ * own (bounded) queue and a single thread working through it. The lane is
+ * chosen from the hash of the instance key, so all of the events from a device
+ * are processed in the order they were dispatched while events from different
+ * devices can be processed in parallel.
+ *
+ * The dispatching thread never waits for a single lane, if the lane for an
+ * event is full (e.g. it's thread is waiting for a slow instance creation) the
+ * event is parked in that lane's overflow, and once the lane has an overflow
+ * all of the events for it are parked behind it so they stay in order. As the
+ * lane works through it's queue the parked events are moved into it. The total
+ * number of parked events across all of the lanes is limited, only once that's
+ * reached does the dispatching thread wait, this means that the event queue
+ * itself acts as the buffer rather than the lanes growing without limit.
+ *
+ * The lane threads come from the supplied thread factory so they can be
+ * virtual threads, in which case it's cheap to have many more lanes.
+ */
+@Log
+public class EventProcessingLanes {
+	private final Lane[] lanes;
+	private final Consumer<EventQueueData> eventProcessor;
+	private final int laneQueueSize;
+	private final int maxParked;
+	// one permit for each event that can be parked
+	private final Semaphore parkingSpace;
+	private final ThreadFactory threadFactory;
+	private volatile boolean running = true;
+
+	public EventProcessingLanes(int laneCount, int laneQueueSize, int maxParked, ThreadFactory threadFactory,
+			Consumer<EventQueueData> eventProcessor) {
+		if (laneCount < 1) {
+			throw new IllegalArgumentException("There must be at least one lane, requested " + laneCount);
+		}
+		if (laneQueueSize < 1) {
+			throw new IllegalArgumentException("The lane queue size must be at least one, requested " + laneQueueSize);
+		}
+		this.eventProcessor = eventProcessor;
+		this.laneQueueSize = laneQueueSize;
+		this.maxParked = Math.max(1, maxParked);
+		this.parkingSpace = new Semaphore(this.maxParked);
+		this.threadFactory = threadFactory;
+		this.lanes = new Lane[laneCount];
+		for (int i = 0; i < laneCount; i++) {
+			lanes[i] = new Lane();
+		}
+		for (Lane lane : lanes) {
+			lane.thread.start();
+		}
+	}
+
+	/**
+	 * hand the event to the lane for it's instance key, if the lane is full it's
+	 * parked until there is space. This only waits if the limit on parked events
+	 * for all of the lanes has been reached
+	 *
+	 * @param eventData
+	 * @throws InterruptedException
+	 */
+	public void dispatch(EventQueueData eventData) throws InterruptedException {
+		Lane lane = lanes[laneFor(eventData.getInstanceKey())];
+		while (true) {
+			synchronized (lane) {
+				// if there are parked events this one has to go behind them
+				if (lane.overflow.isEmpty() && lane.queue.offer(eventData)) {
+					return;
+				}
+				if (parkingSpace.tryAcquire()) {
+					lane.overflow.addLast(eventData);
+					return;
+				}
+			}
+			// wait for any lane to take a parked event, then try again
+			parkingSpace.acquire();
+			parkingSpace.release();
+		}
+	}
+
+	/**
+	 * stop the lane threads, any events that have been dispatched to a lane but
+	 * not yet started are not processed, they are added to the undispatched list
+	 * (in the order they were dispatched to each lane) instead. The events that
+	 * are being processed are interrupted, this then waits up to waitMillis for
+	 * them to finish
+	 *
+	 * @param undispatched
+	 * @param waitMillis
+	 * @return the number of events that were waiting in the lanes
+	 */
+	public int shutdown(List<EventQueueData> undispatched, long waitMillis) {
+		running = false;
+		int waiting = 0;
+		for (Lane lane : lanes) {
+			synchronized (lane) {
+				waiting += lane.queue.drainTo(undispatched);
+				int parked = lane.overflow.size();
+				undispatched.addAll(lane.overflow);
+				lane.overflow.clear();
+				parkingSpace.release(parked);
+				waiting += parked;
+			}
+			lane.thread.interrupt();
+		}
+		long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(waitMillis);
+		for (Lane lane : lanes) {
+			long remaining = deadline - System.nanoTime();
+			if (remaining <= 0) {
+				break;
+			}
+			try {
+				lane.thread.join(Duration.ofNanos(remaining));
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				break;
+			}
+		}
+		return waiting;
+	}
+
+	public int getLaneCount() {
+		return lanes.length;
+	}
+
+	/**
+	 * returns the total number of events waiting in the lanes, including the
+	 * parked ones
+	 *
+	 * @return
+	 */
+	public int getQueuedEventCount() {
+		return Arrays.stream(lanes).mapToInt(lane -> lane.queue.size()).sum() + getParkedEventCount();
+	}
+
+	public int getParkedEventCount() {
+		return maxParked - parkingSpace.availablePermits();
+	}
+
+	public String getConfig() {
+		return "EventProcessingLanes with " + lanes.length + " lanes each holding up to " + laneQueueSize
+				+ " events, up to " + maxParked + " events can be parked when lanes are full";
+	}
+
+	public String getStatus() {
+		return "EventProcessingLanes parked events " + getParkedEventCount() + ", queued events per lane "
+				+ Arrays.stream(lanes).map(lane -> String.valueOf(lane.queue.size())).collect(Collectors.joining(", "));
+	}
+
+	private int laneFor(String instanceKey) {
+		return Math.floorMod(instanceKey.hashCode(), lanes.length);
+	}
+
+	private class Lane implements Runnable {
+		private final BlockingQueue<EventQueueData> queue;
+		// events that didn't fit in the queue, in the order they were dispatched, only
+		// used while synchronized on the lane
+		private final Deque<EventQueueData> overflow = new ArrayDeque<>();
+		private final Thread thread;
+
+		Lane() {
+			this.queue = new ArrayBlockingQueue<>(laneQueueSize);
+			this.thread = threadFactory.newThread(this);
+		}
+
+		@Override
+		public void run() {
+			while (running) {
+				EventQueueData eventData;
+				try {
+					eventData = queue.take();
+					unparkEvents();
+				} catch (InterruptedException e) {
+					if (!running) {
+						return;
+					}
+					log.warning("InterruptedException while getting event data from lane in running state, "
+							+ e.getLocalizedMessage());
+					continue;
+				}
+				// the processor handles it's own problems, but if something escapes we don't
+				// want to lose the lane
+				try {
+					eventProcessor.accept(eventData);
+				} catch (RuntimeException e) {
+					log.severe("Unexpected exception processing event in lane " + thread.getName() + ", "
+							+ e.getLocalizedMessage());
+				}
+			}
+		}
+
+		/**
+		 * move as many parked events as will fit into the queue
+		 */
+		private synchronized void unparkEvents() {
+			int moved = 0;
+			while (!overflow.isEmpty() && queue.offer(overflow.peekFirst())) {
+				overflow.removeFirst();
+				moved++;
+			}
+			if (moved > 0) {
+				parkingSpace.release(moved);
+			}
+		}
+	}
+}
@@ -60,7 +60,8 @@ public interface EventQueue {
 	/**
 	 * add all elements in the list to the queue, this must be non blocking (no
 	 * waiting until there is space) and if the data can't be added will return
-	 * false instead
+	 * false instead. Either all of the elements are added (in list order) or none
+	 * of them are
 	 * 
 	 * @param data
 	 * @return
@@ -75,6 +76,39 @@ public interface EventQueue {
 	 */
 	public EventQueueData getNext() throws InterruptedException;
 
+	/**
+	 * This is blocking until there is at least one event in the queue, then adds
+	 * it and any others that are already in the queue (up to maxEvents in total)
+	 * to the list in queue order. If it's interrupted nothing has been taken from
+	 * the queue. Implementations that can hand over a batch more cheaply than one
+	 * event at a time should override this
+	 * 
+	 * @param data
+	 * @param maxEvents
+	 * @return the number of events added to the list
+	 */
+	public default int getNext(List<EventQueueData> data, int maxEvents) throws InterruptedException {
+		data.add(getNext());
+		return 1;
+	}
+
+	/**
+	 * removes all of the events currently in the queue (without waiting for any
+	 * more to arrive) and adds them to the list in queue order
+	 * 
+	 * @param data
+	 * @return the number of events removed
+	 */
+	public int drainTo(List<EventQueueData> data);
+
+	/**
+	 * returns true if the events in the queue are kept over a restart, so they
+	 * don't need saving elsewhere when the gateway stops
+	 * 
+	 * @return
+	 */
+	public boolean isPersistent();
+
 	/**
 	 * returns information on the state of the queue, the data is implementation
 	 * specific
@@ -87,4 +121,12 @@ public interface EventQueue {
 	 * @return
 	 */
 	public int getQueueSize();
+
+	/**
+	 * returns how many more elements can be added to the queue, if that depends on
+	 * the size of the elements (e.g. a disk based queue) this may be an estimate
+	 * 
+	 * @return
+	 */
+	public int getRemainingCapacity();
 }
@@ -44,4 +44,25 @@ import lombok.Data;
 public class EventQueueData {
 	private String instanceKey;
 	private String payload;
+	// set once the instance key and payload have been through the transformers,
+	// the received values are kept so the event can be processed from scratch if
+	// needed
+	private String transformedInstanceKey;
+	private String transformedPayload;
+	// when the gateway received the event (in ms since the epoch), this is kept
+	// if the event is saved and restored so the age of the event is always from
+	// when it first arrived
+	private long receivedTime;
+
+	public EventQueueData(String instanceKey, String payload) {
+		this(instanceKey, payload, System.currentTimeMillis());
+	}
+
+	public EventQueueData(String instanceKey, String payload, long receivedTime) {
+		this(instanceKey, payload, null, null, receivedTime);
+	}
+
+	public boolean isTransformed() {
+		return (transformedInstanceKey != null) && (transformedPayload != null);
+	}
 }
@@ -0,0 +1,138 @@
+/*Copyright (c) 2026 Oracle and/or its affiliates.
+
+The Universal Permissive License (UPL), Version 1.0
+
+Subject to the condition set forth below, permission is hereby granted to any
+person obtaining a copy of this software, associated documentation and/or data
+(collectively the "Software"), free of charge and under any and all copyright
+rights in the Software, and any and all patent rights owned or freely
+licensable by each licensor hereunder covering either (i) the unmodified
+Software as contributed to or provided by such licensor, or (ii) the Larger
+Works (as defined below), to deal in both
+
+(a) the Software, and
+(b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+one is included with the Software (each a "Larger Work" to which the Software
+is contributed by such licensors),
+
+without restriction, including without limitation the rights to copy, create
+derivative works of, display, perform, and distribute the Software and make,
+use, sell, offer for sale, import, export, have made, and have sold the
+Software and the Larger Work(s), and to sublicense the foregoing rights on
+either these or other terms.
+
+This license is subject to the following condition:
+The above copyright notice and either this complete permission notice or at
+a minimum a reference to the UPL must be included in all copies or
+substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+ */
+package com.oracle.timg.demo.iot.demogateway.queue;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import io.micronaut.context.annotation.Property;
+import jakarta.inject.Inject;
+import jakarta.inject.Singleton;
+import lombok.extern.java.Log;
+
+/*
+ * keeps track of how fast events are being taken off the event queue so callers
+ * adding to the queue can be told how long to wait if it's full. The rate is
+ * sampled at most once a second (when it's asked for) and smoothed so a single
+ * slow or fast second doesn't swing it too much. Until the first sample is
+ * taken the configured initial rate is used, otherwise for the first second
+ * the queue would look like it's not draining at all.
+ */
+@Singleton
+@Log
+public class EventQueueDrainMonitor {
+	private static final long SAMPLE_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(1);
+	// how much weight the latest sample has in the smoothed rate
+	private static final double SMOOTHING = 0.3;
+	private final EventQueue eventQueue;
+	private final int maxRetryAfter;
+	private final LongAdder dequeued = new LongAdder();
+	private long lastSampleTime = System.nanoTime();
+	private long lastSampleCount = 0;
+	private final double initialDrainRate;
+	private double drainRate;
+	private boolean sampled = false;
+
+	@Inject
+	public EventQueueDrainMonitor(EventQueue eventQueue,
+			@Property(name = "gateway.ingest.retryafter.max", defaultValue = "60") int maxRetryAfter,
+			@Property(name = "gateway.ingest.retryafter.initialdrainrate", defaultValue = "100") double initialDrainRate) {
+		this.eventQueue = eventQueue;
+		this.maxRetryAfter = maxRetryAfter;
+		this.initialDrainRate = Math.max(0, initialDrainRate);
+		// the first real sample replaces this rather than being smoothed into it
+		this.drainRate = this.initialDrainRate;
+	}
+
+	/**
+	 * called each time an event is taken from the event queue
+	 */
+	public void recordDequeued() {
+		dequeued.increment();
+	}
+
+	/**
+	 * returns the smoothed number of events per second being taken from the queue
+	 *
+	 * @return
+	 */
+	public synchronized double getDrainRate() {
+		long now = System.nanoTime();
+		long elapsed = now - lastSampleTime;
+		if (elapsed >= SAMPLE_INTERVAL_NANOS) {
+			long count = dequeued.sum();
+			double currentRate = (count - lastSampleCount) / (elapsed / 1000000000.0);
+			drainRate = sampled ? (SMOOTHING * currentRate) + ((1 - SMOOTHING) * drainRate) : currentRate;
+			sampled = true;
+			lastSampleTime = now;
+			lastSampleCount = count;
+		}
+		return drainRate;
+	}
+
+	/**
+	 * returns true if events are currently being taken off the queue, if not then
+	 * there's no point in telling a caller when to try again
+	 *
+	 * @return
+	 */
+	public boolean isDraining() {
+		return getDrainRate() > 0;
+	}
+
+	/**
+	 * returns how many seconds it should take to work through the events currently
+	 * in the queue at the current drain rate, this is at least 1 second and no more
+	 * than the configured maximum
+	 *
+	 * @return
+	 */
+	public int getRetryAfterSeconds() {
+		double rate = getDrainRate();
+		if (rate <= 0) {
+			return maxRetryAfter;
+		}
+		double secondsToDrain = eventQueue.getQueueSize() / rate;
+		return (int) Math.max(1, Math.min(maxRetryAfter, Math.ceil(secondsToDrain)));
+	}
+
+	public String getStatus() {
+		return "EventQueueDrainMonitor drain rate is " + String.format("%.1f", getDrainRate())
+				+ (sampled ? "" : " (initial estimate of " + initialDrainRate + ")")
+				+ " events per second, " + dequeued.sum() + " events taken from the queue in total";
+	}
+}
@@ -56,6 +56,10 @@ import lombok.extern.java.Log;
 public class EventQueueInMemory implements EventQueue {
 	private final ArrayBlockingQueue<EventQueueData> queue;
 	private final int queueCapacity;
+	// held while adding so the capacity check for a list add is still valid when
+	// the elements are added, removing elements only ever increases capacity so
+	// getNext doesn't need it
+	private final Object addLock = new Object();
 
 	public EventQueueInMemory(
 			@Property(name = "gateway.eventqueue.inmemory.size", defaultValue = "1024") int queueCapacity) {
@@ -74,21 +78,29 @@ public class EventQueueInMemory implements EventQueue {
 	 */
 	@Override
 	public boolean addToQueue(EventQueueData data) {
-		boolean added = queue.offer(data);
-		return added;
+		synchronized (addLock) {
+			boolean added = queue.offer(data);
+			return added;
+		}
 	}
 
 	/**
-	 * add all elements in the list to the queue, this is non blocking and if the
-	 * data can't be added will return false instead
+	 * add all elements in the list to the queue, this is non blocking and if there
+	 * isn't space for all of the data will return false without adding any of it
 	 * 
 	 * @param data
 	 * @return
 	 */
 	@Override
 	public boolean addToQueue(List<EventQueueData> data) {
-		boolean added = queue.addAll(data);
-		return added;
+		synchronized (addLock) {
+			if (queue.remainingCapacity() < data.size()) {
+				return false;
+			}
+			// there is space so these will all succeed
+			data.forEach(queue::offer);
+			return true;
+		}
 	}
 
 	/**
@@ -104,6 +116,25 @@ public class EventQueueInMemory implements EventQueue {
 
 	}
 
+	@Override
+	public int getNext(List<EventQueueData> data, int maxEvents) throws InterruptedException {
+		data.add(queue.take());
+		return 1 + queue.drainTo(data, maxEvents - 1);
+	}
+
+	@Override
+	public int drainTo(List<EventQueueData> data) {
+		return queue.drainTo(data);
+	}
+
+	/**
+	 * the events are only held in memory so are lost when the gateway stops
+	 */
+	@Override
+	public boolean isPersistent() {
+		return false;
+	}
+
 	@PostConstruct
 	public void postConstruct() {
 		log.info(getStatus());
@@ -122,4 +153,9 @@ public class EventQueueInMemory implements EventQueue {
 	public int getQueueSize() {
 		return queue.size();
 	}
+
+	@Override
+	public int getRemainingCapacity() {
+		return queue.remainingCapacity();
+	}
 }
@@ -0,0 +1,720 @@
+/*Copyright (c) 2026 Oracle and/or its affiliates.
+
+The Universal Permissive License (UPL), Version 1.0
+
+Subject to the condition set forth below, permission is hereby granted to any
+person obtaining a copy of this software, associated documentation and/or data
+(collectively the "Software"), free of charge and under any and all copyright
+rights in the Software, and any and all patent rights owned or freely
+licensable by each licensor hereunder covering either (i) the unmodified
+Software as contributed to or provided by such licensor, or (ii) the Larger
+Works (as defined below), to deal in both
+
+(a) the Software, and
+(b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+one is included with the Software (each a "Larger Work" to which the Software
+is contributed by such licensors),
+
+without restriction, including without limitation the rights to copy, create
+derivative works of, display, perform, and distribute the Software and make,
+use, sell, offer for sale, import, export, have made, and have sold the
+Software and the Larger Work(s), and to sublicense the foregoing rights on
+either these or other terms.
+
+This license is subject to the following condition:
+The above copyright notice and either this complete permission notice or at
+a minimum a reference to the UPL must be included in all copies or
+substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+ */
+package com.oracle.timg.demo.iot.demogateway.queue;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import com.oracle.timg.demo.iot.demogateway.executors.GatewayExecutors;
+
+import io.micronaut.context.annotation.Property;
+import io.micronaut.context.annotation.Requires;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import jakarta.inject.Singleton;
+import lombok.extern.java.Log;
+
+@Log
+@Singleton
+@Requires(property = "gateway.eventqueue.type", value = "MAPPED_FILE", defaultValue = "unknown")
+
+/*
+ * a buffer to hold incoming events on disk, the events are appended to a
+ * sequence of fixed size memory mapped segment files and the position of the
+ * next event to read is held in a separate (also memory mapped) cursor file.
+ * This means that the queue is not limited by the heap size and that if the
+ * gateway is restarted it will carry on from the first event that had not been
+ * taken from the queue.
+ *
+ * Each segment starts with a small header (magic number and format version),
+ * followed by the records. A record is the length of the rest of the record,
+ * the length of the instance key, the time the event was received, the
+ * instance key bytes and then the payload bytes (both UTF-8). The record length
+ * is written last, so a record that was only partially written when the JVM
+ * died is seen as unused space. A length of 0 means there is nothing more
+ * written in the segment, a length of -1 means the writer moved on to the next
+ * segment.
+ *
+ * Once all of the records in a segment have been read the segment file (and
+ * it's mapping) is kept to be reused as the next segment the writer needs, it's
+ * renamed and the first record length cleared. Each record written is followed
+ * by a 0 length, so whatever was left in a reused segment is never seen. Only
+ * one finished segment is kept, any others are unmapped and deleted straight
+ * away rather than waiting for the garbage collector to release the mapping.
+ *
+ * The next segment the writer will need is set up in advance on a separate
+ * thread, so adding an event (which can happen on the HTTP event loop) doesn't
+ * normally have to create or map a file. That spare segment file is also there
+ * after a restart, where it just becomes the segment being written to.
+ */
+public class EventQueueMappedFile implements EventQueue {
+	private static final int SEGMENT_MAGIC = 0x45514D46;
+	private static final int SEGMENT_FORMAT_VERSION = 1;
+	private static final int SEGMENT_HEADER_SIZE = 8;
+	private static final int RECORD_HEADER_SIZE = 16;
+	private static final int END_OF_SEGMENT = -1;
+	private static final String SEGMENT_FILE_PREFIX = "segment-";
+	private static final String SEGMENT_FILE_SUFFIX = ".dat";
+	private static final String CURSOR_FILE_NAME = "readcursor.dat";
+	private static final int CURSOR_FILE_SIZE = 8;
+	private static final int DEFAULT_RECORD_SIZE_ESTIMATE = 1024;
+	// used to release a mapping without waiting for the garbage collector, this is
+	// null if the JVM doesn't let us
+	private static final Unmapper UNMAPPER = Unmapper.find();
+
+	private final Path directory;
+	private final int segmentSize;
+	private final int maxSegments;
+	// one permit per record that's been written but not yet read
+	private final Semaphore available = new Semaphore(0);
+	private final Object writeLock = new Object();
+	private final Object readLock = new Object();
+	private final MappedByteBuffer cursorBuffer;
+	// a segment the reader has finished with, waiting to be reused, and the
+	// segment that's been set up for the writer to move to next, only used while
+	// holding the segmentLock
+	private final Object segmentLock = new Object();
+	private int recycledSegmentNumber;
+	private MappedByteBuffer recycledBuffer;
+	private int spareSegmentNumber;
+	private MappedByteBuffer spareBuffer;
+	private final ExecutorService segmentPreparer;
+
+	// writer state, only changed while holding the writeLock, the segment number is
+	// volatile so the status can be reported without the lock
+	private volatile int writeSegmentNumber;
+	private MappedByteBuffer writeBuffer;
+	private int writePosition;
+	// used to estimate the remaining capacity
+	private long recordsWritten;
+	private long bytesWritten;
+
+	// reader state, only changed while holding the readLock, the segment number is
+	// also used by the writer to figure out how many segments are in use
+	private volatile int readSegmentNumber;
+	private MappedByteBuffer readBuffer;
+	private int readPosition;
+
+	public EventQueueMappedFile(GatewayExecutors gatewayExecutors,
+			@Property(name = "gateway.eventqueue.mappedfile.directory", defaultValue = "eventqueue") String directoryName,
+			@Property(name = "gateway.eventqueue.mappedfile.segmentsize", defaultValue = "67108864") int segmentSize,
+			@Property(name = "gateway.eventqueue.mappedfile.maxsegments", defaultValue = "64") int maxSegments)
+			throws IOException {
+		if (segmentSize <= (SEGMENT_HEADER_SIZE + RECORD_HEADER_SIZE)) {
+			throw new IllegalArgumentException("gateway.eventqueue.mappedfile.segmentsize must be larger than "
+					+ (SEGMENT_HEADER_SIZE + RECORD_HEADER_SIZE) + " bytes, it is " + segmentSize);
+		}
+		if (maxSegments < 2) {
+			throw new IllegalArgumentException(
+					"gateway.eventqueue.mappedfile.maxsegments must be at least 2, it is " + maxSegments);
+		}
+		this.directory = Paths.get(directoryName);
+		this.segmentSize = segmentSize;
+		this.maxSegments = maxSegments;
+		Files.createDirectories(directory);
+		this.segmentPreparer = Executors
+				.newSingleThreadExecutor(gatewayExecutors.newThreadFactory("eventqueue-segment-preparer"));
+		this.cursorBuffer = mapFile(directory.resolve(CURSOR_FILE_NAME), CURSOR_FILE_SIZE);
+		recover();
+		scheduleSparePreparation();
+		log.info("Configured mapped file event queue in directory " + directory.toAbsolutePath()
+				+ " with segment size of " + this.segmentSize + " and max segments of " + this.maxSegments
+				+ ", it's current size is " + available.availablePermits());
+	}
+
+	/**
+	 * add to the queue, this is non blocking and if the data can't be added
+	 * (because the max number of segments are in use) will return false instead
+	 *
+	 * @param data
+	 * @return
+	 */
+	@Override
+	public boolean addToQueue(EventQueueData data) {
+		synchronized (writeLock) {
+			if (!append(data)) {
+				return false;
+			}
+		}
+		available.release();
+		return true;
+	}
+
+	/**
+	 * add all elements in the list to the queue in order, this is non blocking and
+	 * if there isn't space for all of the data will return false without adding
+	 * any of it
+	 *
+	 * @param data
+	 * @return
+	 */
+	@Override
+	public boolean addToQueue(List<EventQueueData> data) {
+		synchronized (writeLock) {
+			if (!willFit(data)) {
+				return false;
+			}
+			for (int i = 0; i < data.size(); i++) {
+				if (!append(data.get(i))) {
+					// willFit said there was space so this should not happen, but if it does
+					// then the earlier ones are already written so must be made available
+					log.severe("Unable to add event to the queue after checking there was space");
+					available.release(i);
+					return false;
+				}
+			}
+		}
+		available.release(data.size());
+		return true;
+	}
+
+	/**
+	 * This is blocking if the queue is empty so always call it in from a thread
+	 * which is not the main executions as seen externally
+	 *
+	 * @return
+	 */
+	@Override
+	public EventQueueData getNext() throws InterruptedException {
+		available.acquire();
+		synchronized (readLock) {
+			EventQueueData retrieved = readRecord();
+			cursorBuffer.putLong(0, encodeCursor(readSegmentNumber, readPosition));
+			return retrieved;
+		}
+	}
+
+	@Override
+	public int drainTo(List<EventQueueData> data) {
+		int drained = 0;
+		synchronized (readLock) {
+			while (available.tryAcquire()) {
+				data.add(readRecord());
+				drained++;
+			}
+			cursorBuffer.putLong(0, encodeCursor(readSegmentNumber, readPosition));
+		}
+		return drained;
+	}
+
+	/**
+	 * anything in the queue is still there when the gateway restarts
+	 */
+	@Override
+	public boolean isPersistent() {
+		return true;
+	}
+
+	@PostConstruct
+	public void postConstruct() {
+		log.info(getStatus());
+	}
+
+	@PreDestroy
+	public void preDestroy() {
+		segmentPreparer.shutdown();
+		try {
+			segmentPreparer.awaitTermination(5, TimeUnit.SECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		// make sure that everything we have is on the disk and not just in the page
+		// cache
+		synchronized (writeLock) {
+			writeBuffer.force();
+		}
+		synchronized (readLock) {
+			cursorBuffer.force();
+		}
+		log.info("Flushed event queue files, " + getStatus());
+	}
+
+	/**
+	 *
+	 */
+	@Override
+	public String getStatus() {
+		return "EventQueueMappedFile has " + available.availablePermits() + " queued events in "
+				+ (writeSegmentNumber - readSegmentNumber + 1) + " segments of a max of " + maxSegments
+				+ ", reading from segment " + readSegmentNumber + " writing to segment " + writeSegmentNumber;
+	}
+
+	@Override
+	public int getQueueSize() {
+		return available.availablePermits();
+	}
+
+	/**
+	 * this is an estimate based on the average size of the events written so far
+	 */
+	@Override
+	public int getRemainingCapacity() {
+		long freeBytes;
+		long averageRecordSize;
+		synchronized (writeLock) {
+			int unusedSegments = maxSegments - (writeSegmentNumber - readSegmentNumber + 1);
+			freeBytes = ((long) unusedSegments * (segmentSize - SEGMENT_HEADER_SIZE)) + (segmentSize - writePosition);
+			averageRecordSize = recordsWritten == 0 ? DEFAULT_RECORD_SIZE_ESTIMATE : bytesWritten / recordsWritten;
+		}
+		return (int) Math.min(Integer.MAX_VALUE, freeBytes / Math.max(averageRecordSize, 1));
+	}
+
+	/**
+	 * write the record at the current write position, moving to a new segment if
+	 * it won't fit, caller must hold the writeLock
+	 */
+	private boolean append(EventQueueData data) {
+		byte[] instanceKey = data.getInstanceKey().getBytes(StandardCharsets.UTF_8);
+		byte[] payload = data.getPayload().getBytes(StandardCharsets.UTF_8);
+		int recordSize = RECORD_HEADER_SIZE + instanceKey.length + payload.length;
+		if (recordSize > (segmentSize - SEGMENT_HEADER_SIZE)) {
+			log.warning("Event from " + data.getInstanceKey() + " needs " + recordSize
+					+ " bytes which is larger than a segment can hold, it can't be queued");
+			return false;
+		}
+		if (writePosition + recordSize > segmentSize) {
+			if (!rollWriteSegment()) {
+				return false;
+			}
+		}
+		writeBuffer.putInt(writePosition + 4, instanceKey.length);
+		writeBuffer.putLong(writePosition + 8, data.getReceivedTime());
+		writeBuffer.put(writePosition + RECORD_HEADER_SIZE, instanceKey);
+		writeBuffer.put(writePosition + RECORD_HEADER_SIZE + instanceKey.length, payload);
+		// mark the end of what's been written, a reused segment may have an old record
+		// here
+		if (writePosition + recordSize + 4 <= segmentSize) {
+			writeBuffer.putInt(writePosition + recordSize, 0);
+		}
+		// the length goes in last, until then a reader (or a recovery scan) will think
+		// this space is unused
+		writeBuffer.putInt(writePosition, recordSize - 4);
+		writePosition += recordSize;
+		recordsWritten++;
+		bytesWritten += recordSize;
+		return true;
+	}
+
+	/**
+	 * works out if all of the data can be written without running out of
+	 * segments, caller must hold the writeLock
+	 */
+	private boolean willFit(List<EventQueueData> data) {
+		int segmentsInUse = writeSegmentNumber - readSegmentNumber + 1;
+		int position = writePosition;
+		for (EventQueueData eventData : data) {
+			int recordSize = RECORD_HEADER_SIZE + eventData.getInstanceKey().getBytes(StandardCharsets.UTF_8).length
+					+ eventData.getPayload().getBytes(StandardCharsets.UTF_8).length;
+			if (recordSize > (segmentSize - SEGMENT_HEADER_SIZE)) {
+				return false;
+			}
+			if (position + recordSize > segmentSize) {
+				if (segmentsInUse >= maxSegments) {
+					return false;
+				}
+				segmentsInUse++;
+				position = SEGMENT_HEADER_SIZE;
+			}
+			position += recordSize;
+		}
+		return true;
+	}
+
+	/**
+	 * caller must hold the writeLock
+	 */
+	private boolean rollWriteSegment() {
+		if ((writeSegmentNumber - readSegmentNumber + 1) >= maxSegments) {
+			log.fine(() -> "All " + maxSegments + " segments are in use, can't add any more events");
+			return false;
+		}
+		synchronized (segmentLock) {
+			int nextSegmentNumber = writeSegmentNumber + 1;
+			MappedByteBuffer nextBuffer;
+			if ((spareBuffer != null) && (spareSegmentNumber == nextSegmentNumber)) {
+				nextBuffer = spareBuffer;
+				spareBuffer = null;
+			} else {
+				// the spare isn't ready yet (the last segment filled up faster than the next
+				// one could be set up) so it has to be done here
+				try {
+					nextBuffer = newSegment(nextSegmentNumber);
+				} catch (IOException e) {
+					log.severe("Can't create event queue segment " + nextSegmentNumber + ", " + e.getLocalizedMessage());
+					return false;
+				}
+			}
+			// tell the reader to move on
+			if (writePosition + 4 <= segmentSize) {
+				writeBuffer.putInt(writePosition, END_OF_SEGMENT);
+			}
+			writeBuffer = nextBuffer;
+			// this is changed while holding the segmentLock so the preparer always sees
+			// the segment number that matches the spare
+			writeSegmentNumber = nextSegmentNumber;
+			writePosition = SEGMENT_HEADER_SIZE;
+		}
+		scheduleSparePreparation();
+		return true;
+	}
+
+	private void scheduleSparePreparation() {
+		try {
+			segmentPreparer.execute(this::prepareSpareSegment);
+		} catch (RejectedExecutionException e) {
+			// we're shutting down, if the writer needs another segment it will set it up
+			// itself
+			log.fine(() -> "Not preparing a spare event queue segment, " + e.getLocalizedMessage());
+		}
+	}
+
+	/**
+	 * sets up the segment the writer will need next, this runs on the segment
+	 * preparer thread so creating, sizing and mapping the file (or renaming a
+	 * finished one) doesn't hold up the threads adding events
+	 */
+	private void prepareSpareSegment() {
+		synchronized (segmentLock) {
+			if (spareBuffer != null) {
+				return;
+			}
+			int nextSegmentNumber = writeSegmentNumber + 1;
+			try {
+				spareBuffer = newSegment(nextSegmentNumber);
+				spareSegmentNumber = nextSegmentNumber;
+			} catch (IOException e) {
+				log.warning("Can't prepare event queue segment " + nextSegmentNumber
+						+ ", it will be created when it's needed, " + e.getLocalizedMessage());
+			}
+		}
+	}
+
+	/**
+	 * creates the segment, reusing a finished segment if there is one, caller must
+	 * hold the segmentLock
+	 */
+	private MappedByteBuffer newSegment(int segmentNumber) throws IOException {
+		if (recycledBuffer == null) {
+			return openSegment(segmentNumber, true);
+		}
+		int finishedSegmentNumber = recycledSegmentNumber;
+		MappedByteBuffer buffer = recycledBuffer;
+		recycledBuffer = null;
+		// clear it before the rename, if we fail part way through a recovery will see it
+		// as already read and delete it
+		buffer.putInt(0, SEGMENT_MAGIC);
+		buffer.putInt(4, SEGMENT_FORMAT_VERSION);
+		buffer.putInt(SEGMENT_HEADER_SIZE, 0);
+		try {
+			Files.move(segmentPath(finishedSegmentNumber), segmentPath(segmentNumber),
+					StandardCopyOption.ATOMIC_MOVE);
+		} catch (IOException e) {
+			discardSegment(finishedSegmentNumber, buffer);
+			throw e;
+		}
+		return buffer;
+	}
+
+	/**
+	 * keep the finished segment for the writer to reuse, if there is already one
+	 * waiting it's removed
+	 */
+	private void recycleSegment(int segmentNumber, MappedByteBuffer buffer) {
+		synchronized (segmentLock) {
+			if (recycledBuffer == null) {
+				recycledSegmentNumber = segmentNumber;
+				recycledBuffer = buffer;
+				return;
+			}
+		}
+		discardSegment(segmentNumber, buffer);
+	}
+
+	/**
+	 * reads the record at the current read position, the caller must have got a
+	 * permit from available so there must be a record to read, and must hold the
+	 * readLock
+	 */
+	private EventQueueData readRecord() {
+		int bodyLength = readLength();
+		if (bodyLength <= 0) {
+			advanceReadSegment();
+			bodyLength = readLength();
+			if (bodyLength <= 0) {
+				throw new IllegalStateException("Event queue segment " + readSegmentNumber
+						+ " has no record at position " + readPosition + " but one was expected");
+			}
+		}
+		int instanceKeyLength = readBuffer.getInt(readPosition + 4);
+		long receivedTime = readBuffer.getLong(readPosition + 8);
+		byte[] instanceKey = new byte[instanceKeyLength];
+		readBuffer.get(readPosition + RECORD_HEADER_SIZE, instanceKey);
+		byte[] payload = new byte[bodyLength + 4 - RECORD_HEADER_SIZE - instanceKeyLength];
+		readBuffer.get(readPosition + RECORD_HEADER_SIZE + instanceKeyLength, payload);
+		readPosition += 4 + bodyLength;
+		return new EventQueueData(new String(instanceKey, StandardCharsets.UTF_8),
+				new String(payload, StandardCharsets.UTF_8), receivedTime);
+	}
+
+	private int readLength() {
+		if (readPosition + 4 > segmentSize) {
+			return END_OF_SEGMENT;
+		}
+		return readBuffer.getInt(readPosition);
+	}
+
+	/**
+	 * caller must hold the readLock
+	 */
+	private void advanceReadSegment() {
+		int finishedSegmentNumber = readSegmentNumber;
+		MappedByteBuffer finishedBuffer = readBuffer;
+		try {
+			readBuffer = openSegment(finishedSegmentNumber + 1, false);
+		} catch (IOException e) {
+			throw new IllegalStateException("Can't open event queue segment " + (finishedSegmentNumber + 1), e);
+		}
+		readPosition = SEGMENT_HEADER_SIZE;
+		readSegmentNumber = finishedSegmentNumber + 1;
+		// make sure we record the move before removing the old segment
+		cursorBuffer.putLong(0, encodeCursor(readSegmentNumber, readPosition));
+		recycleSegment(finishedSegmentNumber, finishedBuffer);
+	}
+
+	/**
+	 * work out where the reader and writer are and how many events are waiting,
+	 * this is only called from the constructor
+	 */
+	private void recover() throws IOException {
+		TreeMap<Integer, Path> segments = new TreeMap<>();
+		try (Stream<Path> files = Files.list(directory)) {
+			files.forEach(file -> {
+				String name = file.getFileName().toString();
+				if (name.startsWith(SEGMENT_FILE_PREFIX) && name.endsWith(SEGMENT_FILE_SUFFIX)) {
+					segments.put(Integer.parseInt(name.substring(SEGMENT_FILE_PREFIX.length(),
+							name.length() - SEGMENT_FILE_SUFFIX.length())), file);
+				}
+			});
+		}
+		long cursor = cursorBuffer.getLong(0);
+		if (cursor == 0) {
+			// a new cursor file, start at the oldest segment (if any)
+			readSegmentNumber = segments.isEmpty() ? 0 : segments.firstKey();
+			readPosition = SEGMENT_HEADER_SIZE;
+		} else {
+			readSegmentNumber = (int) (cursor >>> 32);
+			readPosition = (int) cursor;
+		}
+		// anything before the cursor has already been read
+		for (Integer segmentNumber : segments.headMap(readSegmentNumber).keySet()) {
+			deleteSegment(segmentNumber);
+		}
+		if (!segments.containsKey(readSegmentNumber)) {
+			readBuffer = openSegment(readSegmentNumber, true);
+			readPosition = SEGMENT_HEADER_SIZE;
+			writeSegmentNumber = readSegmentNumber;
+			writeBuffer = readBuffer;
+			writePosition = SEGMENT_HEADER_SIZE;
+			cursorBuffer.putLong(0, encodeCursor(readSegmentNumber, readPosition));
+			return;
+		}
+		readBuffer = openSegment(readSegmentNumber, false);
+		int lastSegmentNumber = segments.lastKey();
+		int queuedEvents = 0;
+		int segmentNumber = readSegmentNumber;
+		MappedByteBuffer buffer = readBuffer;
+		int position = readPosition;
+		boolean segmentEnded = false;
+		while (true) {
+			segmentEnded = false;
+			while (position + 4 <= segmentSize) {
+				int bodyLength = buffer.getInt(position);
+				if (bodyLength == END_OF_SEGMENT) {
+					segmentEnded = true;
+					break;
+				}
+				if (bodyLength == 0) {
+					break;
+				}
+				queuedEvents++;
+				position += 4 + bodyLength;
+			}
+			if (position + 4 > segmentSize) {
+				segmentEnded = true;
+			}
+			if (segmentNumber == lastSegmentNumber) {
+				break;
+			}
+			segmentNumber++;
+			// only the mappings for the read and write segments are kept, the reader will
+			// map the ones in between again when it gets to them
+			if (buffer != readBuffer) {
+				unmap(buffer);
+			}
+			buffer = openSegment(segmentNumber, !segments.containsKey(segmentNumber));
+			position = SEGMENT_HEADER_SIZE;
+		}
+		writeSegmentNumber = segmentNumber;
+		writeBuffer = buffer;
+		writePosition = position;
+		if (segmentEnded) {
+			// the writer got as far as marking the segment as finished but not writing to
+			// the next one
+			synchronized (writeLock) {
+				rollWriteSegment();
+			}
+		}
+		available.release(queuedEvents);
+		int recoveredEvents = queuedEvents;
+		log.info(() -> "Recovered " + recoveredEvents + " queued events from " + directory.toAbsolutePath());
+	}
+
+	private MappedByteBuffer openSegment(int segmentNumber, boolean create) throws IOException {
+		Path segmentFile = segmentPath(segmentNumber);
+		boolean exists = Files.exists(segmentFile);
+		if (!exists && !create) {
+			throw new IOException("Event queue segment file " + segmentFile + " is missing");
+		}
+		MappedByteBuffer buffer = mapFile(segmentFile, segmentSize);
+		if (exists) {
+			int magic = buffer.getInt(0);
+			int version = buffer.getInt(4);
+			if ((magic != SEGMENT_MAGIC) || (version != SEGMENT_FORMAT_VERSION)) {
+				throw new IOException("Event queue segment file " + segmentFile
+						+ " is not a supported segment, magic=" + magic + ", version=" + version);
+			}
+		} else {
+			buffer.putInt(0, SEGMENT_MAGIC);
+			buffer.putInt(4, SEGMENT_FORMAT_VERSION);
+		}
+		return buffer;
+	}
+
+	/**
+	 * unmaps and deletes a segment, the buffer must not be used after this
+	 */
+	private void discardSegment(int segmentNumber, MappedByteBuffer buffer) {
+		unmap(buffer);
+		deleteSegment(segmentNumber);
+	}
+
+	private void deleteSegment(int segmentNumber) {
+		try {
+			Files.deleteIfExists(segmentPath(segmentNumber));
+		} catch (IOException e) {
+			// it will be removed when we next start
+			log.warning("Unable to delete finished event queue segment " + segmentNumber + ", "
+					+ e.getLocalizedMessage());
+		}
+	}
+
+	private Path segmentPath(int segmentNumber) {
+		return directory.resolve(String.format("%s%010d%s", SEGMENT_FILE_PREFIX, segmentNumber, SEGMENT_FILE_SUFFIX));
+	}
+
+	private static MappedByteBuffer mapFile(Path file, int size) throws IOException {
+		try (RandomAccessFile raf = new RandomAccessFile(file.toFile(), "rw")) {
+			if (raf.length() < size) {
+				raf.setLength(size);
+			}
+			// the mapping remains valid after the file is closed
+			return raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+		}
+	}
+
+	/**
+	 * releases the mapping now rather than when the garbage collector gets round to
+	 * it, anything using the buffer after this will crash the JVM so only call it
+	 * once nothing can be using it
+	 */
+	private static void unmap(MappedByteBuffer buffer) {
+		if (UNMAPPER != null) {
+			UNMAPPER.unmap(buffer);
+		}
+	}
+
+	/*
+	 * there is no supported way to release a mapping in Java 21, but the JDK's
+	 * Unsafe (which is still available) has a method to do it
+	 */
+	private record Unmapper(Object unsafe, Method invokeCleaner) {
+		static Unmapper find() {
+			try {
+				Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+				Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+				theUnsafe.setAccessible(true);
+				return new Unmapper(theUnsafe.get(null), unsafeClass.getMethod("invokeCleaner", ByteBuffer.class));
+			} catch (ReflectiveOperationException | RuntimeException e) {
+				log.warning("Unable to find a way to unmap event queue segments, the mappings will be released by the garbage collector, "
+						+ e.getLocalizedMessage());
+				return null;
+			}
+		}
+
+		void unmap(MappedByteBuffer buffer) {
+			try {
+				invokeCleaner.invoke(unsafe, buffer);
+			} catch (ReflectiveOperationException | RuntimeException e) {
+				log.fine(() -> "Unable to unmap event queue segment, " + e.getLocalizedMessage());
+			}
+		}
+	}
+
+	// segment number and position are held in a single long so they are always
+	// updated together
+	private static long encodeCursor(int segmentNumber, int position) {
+		return (((long) segmentNumber) << 32) | (position & 0xFFFFFFFFL);
+	}
+}
@@ -36,20 +36,26 @@ SOFTWARE.
  */
 package com.oracle.timg.demo.iot.demogateway.queue;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import com.oracle.bmc.iot.model.DigitalTwinInstance;
 import com.oracle.timg.demo.iot.demogateway.caches.AuthIdToAuthValueCache;
 import com.oracle.timg.demo.iot.demogateway.caches.IdToInstanceMapping;
+import com.oracle.timg.demo.iot.demogateway.caches.IdToInstanceMapping.DigitalTwinInstanceCreation;
 import com.oracle.timg.demo.iot.demogateway.eventdatatransformer.EventDataIncommingFormatException;
 import com.oracle.timg.demo.iot.demogateway.eventdatatransformer.EventDataTransformException;
 import com.oracle.timg.demo.iot.demogateway.eventdatatransformer.EventDataTransformService;
+import com.oracle.timg.demo.iot.demogateway.executors.GatewayExecutors;
+import com.oracle.timg.demo.iot.demogateway.executors.GatewayExecutors.Upstream;
 import com.oracle.timg.demo.iot.demogateway.instancekeytransformer.InstanceKeyIncommingFormatException;
 import com.oracle.timg.demo.iot.demogateway.instancekeytransformer.InstanceKeyTransformException;
 import com.oracle.timg.demo.iot.demogateway.instancekeytransformer.InstanceKeyTransformService;
-import com.oracle.timg.demo.iot.demogateway.iotupload.IotServiceClient;
 import com.oracle.timg.demo.iot.demogateway.ociinterations.IotServiceDetails;
 import com.oracle.timg.demo.iot.demogateway.ociinterations.MissingOciResourceException;
 import com.oracle.timg.demo.iot.demogateway.ociinterations.NewInstanceSecretProvider;
@@ -77,21 +83,42 @@ import lombok.extern.java.Log;
 @Log
 @Singleton
 public class EventQueueProcessor implements Runnable {
+	public static final int DEFAULT_VIRTUAL_LANES = 1024;
+	// how often to check if everything has been processed when draining
+	private static final long DRAIN_CHECK_INTERVAL_MILLIS = 100;
+	// how long to wait for events that were interrupted to finish once the drain
+	// is over
+	private static final long STOP_WAIT_MILLIS = 5000;
 	private EventQueue eventQueue;
 	private final InstanceKeyTransformService instanceKeyTransformerService;
 	private final EventDataTransformService eventDataTransformerService;
 	private final ExecutorService executors;
+	private final EventProcessingLanes eventProcessingLanes;
 	private final IdToInstanceMapping idToInstanceMapping;
 	private final NewInstanceSecretProvider newInstanceSecretProvider;
 	private final IotServiceDetails iotServiceDetails;
 	private final AuthIdToAuthValueCache authIdToAuthValueCache;
-	private final IotServiceClient iotServiceClient;
+	private final EventUploader eventUploader;
+	private final EventDeadLetter eventDeadLetter;
 	private final EventDataPending eventDataPending;
-	private final String iotDomainOcid;
-	private final String digitalTwinModelOcid;
-	private final String digitalTwinAdaptorOcid;
+	private final EventQueueDrainMonitor eventQueueDrainMonitor;
+	private final EventQueueShutdownDrain eventQueueShutdownDrain;
+	private final EventLoadShedder eventLoadShedder;
+	private final EventUploadBatcher eventUploadBatcher;
+	private final GatewayExecutors gatewayExecutors;
+	// events taken from the event queue that have not finished being processed
+	// (including any waiting in the lanes)
+	private final AtomicInteger inProgress = new AtomicInteger();
+	private final CountDownLatch dispatcherStopped = new CountDownLatch(1);
+	// if the dispatcher is interrupted while waiting for space in a lane this holds
+	// the event it was trying to dispatch and the rest of its batch
+	private volatile List<EventQueueData> interruptedEvents = List.of();
+	// with a persistent event queue the events saved when the gateway last stopped,
+	// these are dispatched before anything is taken from the queue
+	private List<EventQueueData> restoredLeftovers = List.of();
+	private final int dispatchBatchSize;
 	private Future<?> ourFuture;
-	private boolean running = false;
+	private volatile boolean running = false;
 	private final boolean uploaddata;
 	private final boolean multithreaduploads;
 	private final boolean onInstanceCreationGetErrorResubmit;
@@ -100,11 +127,18 @@ public class EventQueueProcessor implements Runnable {
 	public EventQueueProcessor(@Property(name = "gateway.uploaddata", defaultValue = "true") boolean uploaddata,
 			@Property(name = "gateway.multithreaduploads", defaultValue = "true") boolean multithreaduploads,
 			@Property(name = "gateway.instance.oninstancecreationgeterrorresubmit", defaultValue = "true") boolean onInstanceCreationGetErrorResubmit,
+			@Property(name = "gateway.eventprocessing.lanes", defaultValue = "0") int laneCount,
+			@Property(name = "gateway.eventprocessing.lanequeuesize", defaultValue = "256") int laneQueueSize,
+			@Property(name = "gateway.eventprocessing.maxparked", defaultValue = "10000") int maxParked,
+			@Property(name = "gateway.eventprocessing.dispatchbatchsize", defaultValue = "64") int dispatchBatchSize,
 			EventQueue eventQueue, InstanceKeyTransformService instanceKeyTransformerService,
 			EventDataTransformService eventDataTransformerService, IdToInstanceMapping idToInstanceMapping,
 			NewInstanceSecretProvider newInstanceSecretProvider, IotServiceDetails iotServiceDetails,
-			AuthIdToAuthValueCache authIdToAuthValueCache, IotServiceClient iotServiceClient,
-			EventDataPending eventDataPending) {
+			AuthIdToAuthValueCache authIdToAuthValueCache, EventUploader eventUploader,
+			EventDeadLetter eventDeadLetter, EventDataPending eventDataPending,
+			EventQueueDrainMonitor eventQueueDrainMonitor, EventQueueShutdownDrain eventQueueShutdownDrain,
+			EventLoadShedder eventLoadShedder, EventUploadBatcher eventUploadBatcher,
+			GatewayExecutors gatewayExecutors) {
 
 		this.uploaddata = uploaddata;
 		if (!uploaddata) {
@@ -113,6 +147,7 @@ public class EventQueueProcessor implements Runnable {
 		}
 		this.multithreaduploads = multithreaduploads;
 		this.onInstanceCreationGetErrorResubmit = onInstanceCreationGetErrorResubmit;
+		this.dispatchBatchSize = Math.max(1, dispatchBatchSize);
 		this.eventQueue = eventQueue;
 		this.instanceKeyTransformerService = instanceKeyTransformerService;
 		log.info("InstanceKeyTransformer config is " + instanceKeyTransformerService.getConfig());
@@ -124,16 +159,31 @@ public class EventQueueProcessor implements Runnable {
 		this.newInstanceSecretProvider = newInstanceSecretProvider;
 		this.iotServiceDetails = iotServiceDetails;
 		this.authIdToAuthValueCache = authIdToAuthValueCache;
-		this.iotServiceClient = iotServiceClient;
+		this.eventUploader = eventUploader;
+		this.eventDeadLetter = eventDeadLetter;
 		this.eventDataPending = eventDataPending;
-		// as we are going to use the ocid based auth setup as the auth info in the
-		// instance model is an ocid we might as well get the other ocid's while we're
-		// at it rather than create new ones each time
-		this.iotDomainOcid = iotServiceDetails.getIotDomain().getId();
-		this.digitalTwinModelOcid = iotServiceDetails.getDigitalTwinModel().getId();
-		this.digitalTwinAdaptorOcid = iotServiceDetails.getDigitalTwinAdapter().getId();
-		// something to run our threads
-		this.executors = Executors.newCachedThreadPool();
+		this.eventQueueDrainMonitor = eventQueueDrainMonitor;
+		this.eventQueueShutdownDrain = eventQueueShutdownDrain;
+		this.eventLoadShedder = eventLoadShedder;
+		log.info("Load shedding config is " + eventLoadShedder.getConfig());
+		this.eventUploadBatcher = eventUploadBatcher;
+		this.gatewayExecutors = gatewayExecutors;
+		// something to run our threads, these may be platform or virtual threads
+		this.executors = gatewayExecutors.newTaskExecutor("event-queue-processor");
+		// the lanes are only needed if we are processing events in parallel, if the
+		// lane count is not set use one per core, or for virtual threads (where a lane
+		// blocked waiting on a remote call doesn't hold a core) a lot more
+		if (multithreaduploads) {
+			int lanes = laneCount > 0 ? laneCount
+					: gatewayExecutors.getExecutorType() == GatewayExecutors.ExecutorType.VIRTUAL
+							? DEFAULT_VIRTUAL_LANES
+							: Runtime.getRuntime().availableProcessors();
+			this.eventProcessingLanes = new EventProcessingLanes(lanes, laneQueueSize, maxParked,
+					gatewayExecutors.newThreadFactory("event-lane"), this::processDispatchedEvent);
+			log.info("Event processing is using " + eventProcessingLanes.getConfig());
+		} else {
+			this.eventProcessingLanes = null;
+		}
 	}
 
 	@PreDestroy
@@ -141,17 +191,108 @@ public class EventQueueProcessor implements Runnable {
 		stopProcessing();
 	}
 
+	/**
+	 * stops taking new events and carries on processing the ones already received
+	 * until they are all done or the drain timeout is reached, then stops
+	 * processing. Anything left over (the events in the lanes, the events waiting
+	 * for their instance to be created and, unless it keeps them over a restart,
+	 * the events in the event queue) is saved to be processed on the next start
+	 */
 	public void stopProcessing() {
+		eventQueueShutdownDrain.stopAcceptingEvents();
+		waitForDrain();
 		// flag to stop processing
 		running = false;
 		// interrupt any wait
 		ourFuture.cancel(true);
-		log.info("There are " + eventQueue.getQueueSize() + " events being discarded from the queue");
+		boolean dispatcherDone = false;
+		try {
+			dispatcherDone = dispatcherStopped.await(STOP_WAIT_MILLIS, TimeUnit.MILLISECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		// if the dispatcher is still going (e.g. it's processing an event itself and
+		// waiting to retry the upload) it may be taking from the event queue, which
+		// only supports one thread taking at a time, and the events it holds are
+		// still its own, so both have to be left alone
+		if (!dispatcherDone) {
+			log.warning("The event dispatcher did not stop within " + STOP_WAIT_MILLIS
+					+ "ms, the events it is dispatching"
+					+ (eventQueue.isPersistent() ? "" : " and the events in the event queue") + " will not be saved");
+		}
+		List<EventQueueData> dispatcherEvents = dispatcherDone ? interruptedEvents : List.of();
+		List<EventQueueData> laneEvents = new ArrayList<>();
+		if (eventProcessingLanes != null) {
+			eventProcessingLanes.shutdown(laneEvents, STOP_WAIT_MILLIS);
+		}
+		// the events waiting to be uploaded in a batch arrived before the pending events
+		// and anything in the lanes, which arrived before anything still in the queue,
+		// keep them in that order so the events for each device stay in order
+		List<EventQueueData> leftovers = new ArrayList<>();
+		int batchedCount = eventUploadBatcher.takeAllHeldEvents(leftovers);
+		leftovers.addAll(eventDataPending.takeAllPendingEvents());
+		int pendingCount = leftovers.size() - batchedCount;
+		leftovers.addAll(laneEvents);
+		leftovers.addAll(dispatcherEvents);
+		int queueCount = (eventQueue.isPersistent() || !dispatcherDone) ? 0 : eventQueue.drainTo(leftovers);
+		log.info("Stopped processing with " + batchedCount + " events waiting to be uploaded in a batch, "
+				+ pendingCount + " pending events, " + laneEvents.size()
+				+ " events in the processing lanes, " + dispatcherEvents.size()
+				+ " being dispatched and " + (eventQueue.isPersistent()
+						? eventQueue.getQueueSize() + " events left in the persistent event queue"
+						: queueCount + " events in the event queue"));
+		eventQueueShutdownDrain.saveLeftovers(leftovers);
+	}
+
+	/**
+	 * waits until there are no events in the queue, being processed or waiting for
+	 * their instance to be created, or the drain timeout has passed
+	 */
+	private void waitForDrain() {
+		int drainTimeout = eventQueueShutdownDrain.getDrainTimeout();
+		if (drainTimeout <= 0) {
+			return;
+		}
+		log.info("Draining the event queue for up to " + drainTimeout + " seconds, there are "
+				+ eventQueue.getQueueSize() + " queued events, " + inProgress.get() + " being processed, "
+				+ eventDataPending.getPendingEventCount() + " pending and " + eventUploadBatcher.getHeldEventCount()
+				+ " waiting to be uploaded in a batch");
+		long start = System.nanoTime();
+		long deadline = start + TimeUnit.SECONDS.toNanos(drainTimeout);
+		while (System.nanoTime() < deadline) {
+			if ((eventQueue.getQueueSize() == 0) && (inProgress.get() == 0)
+					&& (eventDataPending.getPendingInstanceCount() == 0)
+					&& (eventUploadBatcher.getHeldEventCount() == 0)) {
+				log.info("Drained the event queue in " + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)
+						+ "ms");
+				return;
+			}
+			try {
+				Thread.sleep(DRAIN_CHECK_INTERVAL_MILLIS);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				log.warning("Interrupted while draining the event queue");
+				return;
+			}
+		}
+		log.warning("Drain timeout of " + drainTimeout + " seconds reached with " + eventQueue.getQueueSize()
+				+ " queued events, " + inProgress.get() + " being processed, "
+				+ eventDataPending.getPendingEventCount() + " pending and " + eventUploadBatcher.getHeldEventCount()
+				+ " waiting to be uploaded in a batch");
 	}
 
 	@PostConstruct
 	public void postConstruct() {
 		log.info("Post Construct EventQueueProcessor (eventQueue) is " + eventQueue.toString());
+		log.info("Shutdown drain config " + eventQueueShutdownDrain.getConfig());
+		// anything left from the last time the gateway stopped goes first, a persistent
+		// queue still has the events that arrived after those, so they can't just be
+		// added to it
+		if (eventQueue.isPersistent()) {
+			restoredLeftovers = eventQueueShutdownDrain.readLeftovers();
+		} else {
+			eventQueueShutdownDrain.restoreLeftovers();
+		}
 		running = true;
 		// start up the core processing thread to run through the requests
 		ourFuture = executors.submit(this);
@@ -159,19 +300,78 @@ public class EventQueueProcessor implements Runnable {
 
 	@Override
 	public void run() {
+		try {
+			dispatchEvents();
+		} finally {
+			dispatcherStopped.countDown();
+		}
+	}
+
+	/**
+	 * takes the events from the event queue in batches (as many as are there up to
+	 * the dispatch batch size) so the hand over from the queue is paid for once
+	 * per batch rather than per event
+	 */
+	private void dispatchEvents() {
+		// reused for each batch so there's no garbage
+		List<EventQueueData> batch = new ArrayList<>(dispatchBatchSize);
+		List<EventQueueData> restored = restoredLeftovers;
+		restoredLeftovers = List.of();
 		while (running) {
+			batch.clear();
+			int next = 0;
 			try {
-				log.fine(() -> "Requesting next event queue data item from the event queue");
-				EventQueueData eventData = eventQueue.getNext();
-				if (multithreaduploads) {
-					log.finer(() -> "Got event queue data item from the event queue, stating new thread to process it");
-					executors.execute(() -> processDequeuedEvent(eventData));
+				int batchSize;
+				if (!restored.isEmpty()) {
+					// the restored events make up the first batch, from here on they are in the
+					// lanes, being processed or held as interrupted (all of which are saved
+					// again on stop) so the saved copy can go. This is done before dispatching
+					// them as that can block and be interrupted by the stop
+					batch.addAll(restored);
+					batchSize = batch.size();
+					restored = List.of();
+					eventQueueShutdownDrain.clearLeftovers(batchSize);
 				} else {
-					log.finer(
-							() -> "Got event queue data item from the event queue, using existing thread to process it");
-					processDequeuedEvent(eventData);
+					log.fine(() -> "Requesting next event queue data items from the event queue");
+					batchSize = eventQueue.getNext(batch, dispatchBatchSize);
+				}
+				// count them all as in progress straight away so a drain doesn't think we're
+				// done while we still have some of the batch
+				inProgress.addAndGet(batchSize);
+				for (; next < batchSize; next++) {
+					EventQueueData eventData = batch.get(next);
+					eventQueueDrainMonitor.recordDequeued();
+					// shed old events before they get to the lanes so they don't hold up newer
+					// ones
+					if (eventLoadShedder.shouldShed(eventData)) {
+						inProgress.decrementAndGet();
+						continue;
+					}
+					if (multithreaduploads) {
+						log.finer(() -> "Got event queue data item from the event queue, passing it to it's processing lane");
+						eventProcessingLanes.dispatch(eventData);
+					} else {
+						log.finer(() -> "Got event queue data item from the event queue, using existing thread to process it");
+						processDispatchedEvent(eventData);
+					}
 				}
 			} catch (InterruptedException e) {
+				// anything in the batch from next on was taken from the queue but didn't make
+				// it into a lane
+				List<EventQueueData> undispatched = new ArrayList<>(batch.subList(next, batch.size()));
+				if (!undispatched.isEmpty()) {
+					inProgress.addAndGet(-undispatched.size());
+					if (!running) {
+						interruptedEvents = undispatched;
+					} else {
+						log.warning("Interrupted dispatching " + undispatched.size()
+								+ " events in running state, returning them to the queue");
+						if (!eventQueue.addToQueue(undispatched)) {
+							log.warning("Unable to return " + undispatched.size()
+									+ " events to the queue, they have been discarded");
+						}
+					}
+				}
 				if (!running) {
 					return;
 				} else {
@@ -183,9 +383,26 @@ public class EventQueueProcessor implements Runnable {
 		}
 	}
 
+	/**
+	 * processes the event and keeps track of how many are in progress so the drain
+	 * on shutdown knows when everything has been done
+	 */
+	private void processDispatchedEvent(EventQueueData eventData) {
+		try {
+			processDequeuedEvent(eventData);
+		} finally {
+			inProgress.decrementAndGet();
+		}
+	}
+
 	@AllArgsConstructor
 	private class CreateDigitalTwinInstanceResponse {
+		// true only if this thread created the instance, not if it waited for another
+		// thread to
 		boolean created;
+		// true if this thread set up the pending entry for the instance key, so has
+		// to deal with the events held in it
+		boolean pendingEntryCreated;
 		DigitalTwinInstance dti;
 	}
 
@@ -195,6 +412,13 @@ public class EventQueueProcessor implements Runnable {
 	 */
 	public void processDequeuedEvent(EventQueueData eventData) {
 		try {
+			// transform the event before checking if it needs to wait for it's instance
+			// to be created, that way when the instance is ready the waiting events can be
+			// uploaded directly. Events that were resubmitted after a problem creating the
+			// instance have already been transformed
+			if (!eventData.isTransformed() && !transformEvent(eventData)) {
+				return;
+			}
 			// if there is a pending registration in progress then add this to the queue and
 			// return
 			if (eventDataPending.ifPendingRegistrationAddToList(eventData)) {
@@ -208,42 +432,15 @@ public class EventQueueProcessor implements Runnable {
 						() -> "Even data is not relating to the pending instance creation list, it may be new or a instance that has been fuly created "
 								+ eventData);
 			}
-
-			// try to reformat the data
-			String reformattedInstanceKey;
-			try {
-				reformattedInstanceKey = instanceKeyTransformerService.reformatInstanceKey(eventData.getInstanceKey());
-			} catch (InstanceKeyIncommingFormatException e) {
-				log.info("Problem with the format of the instance key " + e.getLocalizedMessage());
-				return;
-			} catch (InstanceKeyTransformException e) {
-				log.info("Problem reformatting the instance key " + e.getLocalizedMessage());
-				e.printStackTrace();
-				return;
-			}
-			log.finer(() -> "Instancekey source = " + eventData.getInstanceKey() + ", reformatted = "
-					+ reformattedInstanceKey);
-
-			String reformattedPayload;
-			try {
-				reformattedPayload = eventDataTransformerService.reformatEventData(eventData.getPayload());
-			} catch (EventDataIncommingFormatException e) {
-				log.info("Problem with the format of the event data " + "e.getLocalizedMessage()");
-				return;
-			} catch (EventDataTransformException e) {
-				log.info("Problem reformatting the event data " + "e.getLocalizedMessage()");
-				e.printStackTrace();
-				return;
-			}
-
-			log.finer(() -> "Payload source = " + eventData.getPayload() + ", reformatted = " + reformattedPayload);
+			String reformattedInstanceKey = eventData.getTransformedInstanceKey();
+			String reformattedPayload = eventData.getTransformedPayload();
 
 			if (uploaddata) {
 				CreateDigitalTwinInstanceResponse createDigitalTwinInstanceResponse;
 				try {
 					createDigitalTwinInstanceResponse = createOrGetDigitalTwinInstance(reformattedInstanceKey,
 							eventData);
-				} catch (MissingOciResourceException e) {
+				} catch (MissingOciResourceException | RuntimeException e) {
 					log.warning("Exception getting or creating the digital twin instance for " + reformattedInstanceKey
 							+ ", " + e.getLocalizedMessage());
 					// it's possible that we have in-flight data that's arrived since we started
@@ -254,10 +451,17 @@ public class EventQueueProcessor implements Runnable {
 						// this will trigger the process to create a new instance
 						int resubmitCount = eventDataPending.resubmitPendingRegistrationEvents(eventData, eventQueue,
 								executors);
-						log.info(() -> "Resumbitting " + resubmitCount
-								+ " events including the current and pending ones");
+						if (resubmitCount < 0) {
+							// the lookup failed before the pending entry was set up, so there is just this
+							// event
+							resubmitEvent(eventData);
+						} else {
+							log.info(() -> "Resumbitting " + resubmitCount
+									+ " events including the current and pending ones");
+						}
 					} else {
-						int dropCount = eventDataPending.deletePendingregistrationEvents(eventData);
+						// -1 means there was no pending entry, so only the current event
+						int dropCount = Math.max(0, eventDataPending.deletePendingregistrationEvents(eventData)) + 1;
 						log.info(() -> "Dropped " + dropCount + " events including the current and pending ones");
 					}
 					return;
@@ -265,19 +469,21 @@ public class EventQueueProcessor implements Runnable {
 				if (createDigitalTwinInstanceResponse.dti == null) {
 					log.warning("Unable to get or create the digital twin instance for " + reformattedInstanceKey);
 				} else {
-					try {
-						uploadEventToIotService(reformattedPayload, createDigitalTwinInstanceResponse.dti);
-					} catch (MissingOciResourceException e) {
-						log.warning("Problem uploading to IoT service " + e.getLocalizedMessage());
-						return;
-					}
+					uploadEventToIotService(eventData, createDigitalTwinInstanceResponse.dti);
 				}
-				// if the instance was created then there may be queues events that arrived
-				// while the creation was underway so
-				if (createDigitalTwinInstanceResponse.created) {
-					log.info("Created initial device for source " + eventData.getInstanceKey()
-							+ " and uploaded it's data, re-queuing any remaining events");
-					eventDataPending.clearPendingRegistrationEvents(eventData, eventQueue, executors);
+				// if the instance was created then there may be events that arrived while the
+				// creation was underway, they have already been transformed so upload them
+				// now (in the order they arrived) rather than sending them through the queue
+				// again
+				if (createDigitalTwinInstanceResponse.pendingEntryCreated) {
+					if (createDigitalTwinInstanceResponse.created) {
+						log.info("Created initial device for source " + eventData.getInstanceKey()
+								+ " and uploaded it's data, uploading any remaining events");
+					} else {
+						log.info("Device for source " + eventData.getInstanceKey()
+								+ " was created by another thread, uploading any remaining events");
+					}
+					uploadPendingEvents(eventData, createDigitalTwinInstanceResponse.dti);
 				}
 			} else {
 				log.info(() -> "upload is disabled, reformattedInstanceKey=" + reformattedInstanceKey
@@ -289,6 +495,58 @@ public class EventQueueProcessor implements Runnable {
 		}
 	}
 
+	/**
+	 * runs the instance key and payload through the transformers and saves the
+	 * results in the event
+	 * 
+	 * @param eventData
+	 * @return false if the event couldn't be transformed so should be discarded
+	 */
+	private boolean transformEvent(EventQueueData eventData) {
+		// try to reformat the data
+		String reformattedInstanceKey;
+		try {
+			reformattedInstanceKey = instanceKeyTransformerService.reformatInstanceKey(eventData.getInstanceKey());
+		} catch (InstanceKeyIncommingFormatException e) {
+			log.info("Problem with the format of the instance key " + e.getLocalizedMessage());
+			return false;
+		} catch (InstanceKeyTransformException e) {
+			log.info("Problem reformatting the instance key " + e.getLocalizedMessage());
+			e.printStackTrace();
+			return false;
+		}
+		log.finer(() -> "Instancekey source = " + eventData.getInstanceKey() + ", reformatted = "
+				+ reformattedInstanceKey);
+
+		String reformattedPayload;
+		try {
+			reformattedPayload = eventDataTransformerService.reformatEventData(eventData.getPayload());
+		} catch (EventDataIncommingFormatException e) {
+			log.info("Problem with the format of the event data " + e.getLocalizedMessage());
+			return false;
+		} catch (EventDataTransformException e) {
+			log.info("Problem reformatting the event data " + e.getLocalizedMessage());
+			e.printStackTrace();
+			return false;
+		}
+
+		log.finer(() -> "Payload source = " + eventData.getPayload() + ", reformatted = " + reformattedPayload);
+		eventData.setTransformedInstanceKey(reformattedInstanceKey);
+		eventData.setTransformedPayload(reformattedPayload);
+		return true;
+	}
+
+	private void uploadPendingEvents(EventQueueData eventData, DigitalTwinInstance dti) {
+		List<EventQueueData> pendingEvents = eventDataPending.takePendingRegistrationEvents(eventData);
+		if (pendingEvents == null) {
+			return;
+		}
+		log.fine(() -> "Uploading " + pendingEvents.size() + " pending events for " + eventData.getInstanceKey());
+		for (EventQueueData pendingEvent : pendingEvents) {
+			uploadEventToIotService(pendingEvent, dti);
+		}
+	}
+
 	private CreateDigitalTwinInstanceResponse createOrGetDigitalTwinInstance(String sourceId, EventQueueData eventData)
 			throws MissingOciResourceException {
 		log.finer(() -> "Looking for instance " + sourceId);
@@ -297,36 +555,78 @@ public class EventQueueProcessor implements Runnable {
 		// if there is no instance then we need to create one
 		if (dti != null) {
 			log.finer(() -> "Located existing instance for " + sourceId);
-			return new CreateDigitalTwinInstanceResponse(false, dti);
+			return new CreateDigitalTwinInstanceResponse(false, false, dti);
 		}
 		// this is being created, we need to add this to the queue to be processed.
-		eventDataPending.createPendingEntry(eventData);
+		boolean pendingEntryCreated = eventDataPending.createPendingEntry(eventData);
 		log.info(() -> "Didn't locate instance, having to create it " + sourceId);
-		// need to build one
+		// need to build one, if another thread is already building it this will wait
+		// for that and use the result. The mapping will stash the details so we don't
+		// try and create it again later
+		DigitalTwinInstanceCreation creation = idToInstanceMapping.createDigitalTwinInstance(sourceId,
+				this::buildDigitalTwinInstance);
+		log.info(() -> (creation.created() ? "Built instance " : "Another thread built instance ") + sourceId);
+		// the auth value will be figured out later
+		return new CreateDigitalTwinInstanceResponse(creation.created(), pendingEntryCreated, creation.instance());
+	}
+
+	/**
+	 * puts a single event back on the event queue, if the queue is full it's added
+	 * to the dead letter spool rather than being lost
+	 */
+	private void resubmitEvent(EventQueueData eventData) {
+		if (eventQueue.addToQueue(eventData)) {
+			log.info(() -> "Resubmitted event for " + eventData.getInstanceKey());
+		} else {
+			eventDeadLetter.add(eventData, "event queue full resubmitting after instance lookup failure");
+		}
+	}
+
+	private DigitalTwinInstance buildDigitalTwinInstance(String sourceId) throws MissingOciResourceException {
 		// let's get the certificate OCID - depending on if we are reusing or generating
 		// a new one this may take some time ! Here we are using an injected instance
-		// selected based on the users config so we don't know what will actually happen
+		// selected based on the users config so we don't know what will actually happen.
+		// The provider limits its own calls to the vault, holding a vault permit while it
+		// waits for a new secret to become active would stop other calls to the vault
 		String authOcid = newInstanceSecretProvider.getVaultSecretOcidForNewInstance(sourceId);
-		dti = iotServiceDetails.getIoTProcessor().createDigitalTwinInstance(iotDomainOcid, sourceId, authOcid, sourceId,
-				"Gateway generated device for " + sourceId, digitalTwinModelOcid, digitalTwinAdaptorOcid);
-		// stash the details so we don't try and create it again later
-		idToInstanceMapping.save(sourceId, dti);
-		log.info(() -> "Built instance " + sourceId);
-		// the auth value will be figured out later
-		return new CreateDigitalTwinInstanceResponse(true, dti);
+		DigitalTwinInstance dti = null;
+		try {
+			dti = gatewayExecutors.callUpstream(Upstream.IOT_CONTROL_PLANE,
+					() -> iotServiceDetails.createDigitalTwinInstance(sourceId, authOcid, sourceId,
+							"Gateway generated device for " + sourceId));
+		} finally {
+			if (dti == null) {
+				// the secret wasn't used, let the provider have it back
+				newInstanceSecretProvider.returnUnusedSecret(authOcid);
+			}
+		}
+		return dti;
 	}
 
-	private void uploadEventToIotService(String reformattedPayload, DigitalTwinInstance dti)
-			throws MissingOciResourceException {
+	/**
+	 * uploads the event, if it can't be uploaded (including not being able to get
+	 * the instances auth data) it's added to the dead letter spool so it can be
+	 * replayed later
+	 * 
+	 * @param eventData
+	 * @param dti
+	 */
+	private void uploadEventToIotService(EventQueueData eventData, DigitalTwinInstance dti) {
 		// get the credentials info, the device must have existed (or been created) to
 		// get to here
 		String authOcid = dti.getAuthId();
 		String authData = authIdToAuthValueCache.getAuthData(authOcid);
 		if (authData == null) {
-			throw new MissingOciResourceException("can't locate auth data for instance " + dti.getDisplayName()
-					+ " which has auth id of " + dti.getAuthId());
+			log.warning("Can't locate auth data for instance " + dti.getDisplayName() + " which has auth id of "
+					+ dti.getAuthId() + ", adding the event to the dead letter spool");
+			eventDeadLetter.add(eventData, "no auth data for auth id " + authOcid);
+			return;
+		}
+		if (eventUploadBatcher.isEnabled()) {
+			eventUploadBatcher.add(eventData, dti.getExternalKey(), authData);
+		} else {
+			eventUploader.upload(eventData, dti.getExternalKey(), authData);
 		}
-		iotServiceClient.sendEvent(dti.getExternalKey(), authData, reformattedPayload);
 	}
 
 }
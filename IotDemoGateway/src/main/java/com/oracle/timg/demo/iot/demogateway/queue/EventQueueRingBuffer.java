@@ -0,0 +1,333 @@
+/*Copyright (c) 2026 Oracle and/or its affiliates.
+
+The Universal Permissive License (UPL), Version 1.0
+
+Subject to the condition set forth below, permission is hereby granted to any
+person obtaining a copy of this software, associated documentation and/or data
+(collectively the "Software"), free of charge and under any and all copyright
+rights in the Software, and any and all patent rights owned or freely
+licensable by each licensor hereunder covering either (i) the unmodified
+Software as contributed to or provided by such licensor, or (ii) the Larger
+Works (as defined below), to deal in both
+
+(a) the Software, and
+(b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+one is included with the Software (each a "Larger Work" to which the Software
+is contributed by such licensors),
+
+without restriction, including without limitation the rights to copy, create
+derivative works of, display, perform, and distribute the Software and make,
+use, sell, offer for sale, import, export, have made, and have sold the
+Software and the Larger Work(s), and to sublicense the foregoing rights on
+either these or other terms.
+
+This license is subject to the following condition:
+The above copyright notice and either this complete permission notice or at
+a minimum a reference to the UPL must be included in all copies or
+substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+ */
+package com.oracle.timg.demo.iot.demogateway.queue;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+import io.micronaut.context.annotation.Property;
+import io.micronaut.context.annotation.Requires;
+import jakarta.annotation.PostConstruct;
+import jakarta.inject.Singleton;
+import lombok.extern.java.Log;
+
+@Log
+@Singleton
+@Requires(property = "gateway.eventqueue.type", value = "RING_BUFFER", defaultValue = "unknown")
+
+/*
+ * a buffer to hold incoming events that doesn't use locks. The events are held
+ * in a pre-allocated array (the size is rounded up to a power of two so the
+ * slot for a sequence number is just a mask), producers claim the sequence
+ * numbers to write to by moving the claimed counter on with a compare and set,
+ * write the events into the slots and then publish each slot by setting its
+ * entry in the published array to the sequence number. The consumer takes the
+ * events in sequence order as soon as each one is published.
+ *
+ * There can be any number of threads adding events, but only one thread can
+ * take them (getNext and drainTo), in the gateway that's the
+ * EventQueueProcessor.
+ *
+ * When the queue is empty the consumer waits using the configured wait
+ * strategy, BUSY_SPIN has the lowest latency but uses a core all of the time,
+ * YIELD lets other threads run but still keeps the core busy, PARK spins for a
+ * short time then parks the thread until a producer wakes it up (or the max
+ * park time passes, this covers a wake up that's missed as the consumer was
+ * just about to park).
+ */
+public class EventQueueRingBuffer implements EventQueue {
+	public enum WaitStrategy {
+		BUSY_SPIN, YIELD, PARK
+	}
+
+	private static final int MAX_CAPACITY = 1 << 30;
+	// how many times the PARK strategy spins before it parks
+	private static final int PARK_SPIN_TRIES = 100;
+
+	private final int capacity;
+	private final int mask;
+	private final EventQueueData[] buffer;
+	// the sequence number that was written into each slot, a slot can be read when
+	// this matches the sequence number the consumer is waiting for
+	private final AtomicLongArray published;
+	private final WaitStrategy waitStrategy;
+	private final long maxParkNanos;
+	// the next sequence number a producer can claim, and the next one the consumer
+	// will read, these are padded so they are not on the same cache line
+	private final PaddedSequence claimed = new PaddedSequence(0);
+	private final PaddedSequence consumed = new PaddedSequence(0);
+	// set while the consumer is parked so the producers know to wake it up
+	private volatile Thread parkedConsumer;
+
+	public EventQueueRingBuffer(
+			@Property(name = "gateway.eventqueue.ringbuffer.size", defaultValue = "1024") int requestedCapacity,
+			@Property(name = "gateway.eventqueue.ringbuffer.waitstrategy", defaultValue = "PARK") String waitStrategy,
+			@Property(name = "gateway.eventqueue.ringbuffer.maxparkmicros", defaultValue = "1000") long maxParkMicros) {
+		if ((requestedCapacity < 1) || (requestedCapacity > MAX_CAPACITY)) {
+			throw new IllegalArgumentException("gateway.eventqueue.ringbuffer.size must be between 1 and "
+					+ MAX_CAPACITY + ", it is " + requestedCapacity);
+		}
+		this.capacity = requestedCapacity == 1 ? 1 : Integer.highestOneBit(requestedCapacity - 1) << 1;
+		if (this.capacity != requestedCapacity) {
+			log.info("Event queue ring buffer size of " + requestedCapacity + " is not a power of two, using "
+					+ this.capacity);
+		}
+		this.mask = this.capacity - 1;
+		this.buffer = new EventQueueData[this.capacity];
+		this.published = new AtomicLongArray(this.capacity);
+		for (int i = 0; i < this.capacity; i++) {
+			published.set(i, -1);
+		}
+		this.waitStrategy = WaitStrategy.valueOf(waitStrategy.toUpperCase());
+		this.maxParkNanos = TimeUnit.MICROSECONDS.toNanos(Math.max(1, maxParkMicros));
+		log.info("Configured event queue ring buffer with size of " + this.capacity + " and wait strategy "
+				+ this.waitStrategy);
+	}
+
+	/**
+	 * add to the queue, this is non blocking and if the data can't be added will
+	 * return false instead
+	 */
+	@Override
+	public boolean addToQueue(EventQueueData data) {
+		long sequence = claim(1);
+		if (sequence < 0) {
+			return false;
+		}
+		publish(sequence, data);
+		wakeConsumer();
+		return true;
+	}
+
+	/**
+	 * add all elements in the list to the queue, the slots for all of them are
+	 * claimed at once so either they all go in next to each other or none of them
+	 * do
+	 */
+	@Override
+	public boolean addToQueue(List<EventQueueData> data) {
+		int count = data.size();
+		if (count == 0) {
+			return true;
+		}
+		long sequence = claim(count);
+		if (sequence < 0) {
+			return false;
+		}
+		for (int i = 0; i < count; i++) {
+			publish(sequence + i, data.get(i));
+		}
+		wakeConsumer();
+		return true;
+	}
+
+	/**
+	 * claims count sequence numbers
+	 *
+	 * @return the first sequence number claimed, or -1 if there isn't space
+	 */
+	private long claim(int count) {
+		if (count > capacity) {
+			return -1;
+		}
+		while (true) {
+			long current = claimed.get();
+			long next = current + count;
+			if ((next - consumed.get()) > capacity) {
+				return -1;
+			}
+			if (claimed.compareAndSet(current, next)) {
+				return current;
+			}
+		}
+	}
+
+	private void publish(long sequence, EventQueueData data) {
+		int index = (int) (sequence & mask);
+		buffer[index] = data;
+		// the release makes the write of the event visible before the slot is seen as
+		// published
+		published.lazySet(index, sequence);
+	}
+
+	private void wakeConsumer() {
+		Thread consumer = parkedConsumer;
+		if (consumer != null) {
+			LockSupport.unpark(consumer);
+		}
+	}
+
+	/**
+	 * This is blocking if the queue is empty so always call it in from a thread
+	 * which is not the main executions as seen externally, only one thread can
+	 * call this
+	 */
+	@Override
+	public EventQueueData getNext() throws InterruptedException {
+		long sequence = consumed.get();
+		int index = (int) (sequence & mask);
+		waitForPublish(sequence, index);
+		EventQueueData data = take(index);
+		consumed.lazySet(sequence + 1);
+		return data;
+	}
+
+	/**
+	 * waits until there is at least one event then takes all of the events that
+	 * have been published up to maxEvents, the counter is only moved on once for
+	 * the whole batch. Only one thread can call this
+	 */
+	@Override
+	public int getNext(List<EventQueueData> data, int maxEvents) throws InterruptedException {
+		long sequence = consumed.get();
+		waitForPublish(sequence, (int) (sequence & mask));
+		return takePublished(sequence, data, Math.max(1, maxEvents));
+	}
+
+	/**
+	 * only one thread can call this (or getNext) at a time
+	 */
+	@Override
+	public int drainTo(List<EventQueueData> data) {
+		return takePublished(consumed.get(), data, capacity);
+	}
+
+	private int takePublished(long firstSequence, List<EventQueueData> data, int maxEvents) {
+		long sequence = firstSequence;
+		int taken = 0;
+		while (taken < maxEvents) {
+			int index = (int) (sequence & mask);
+			if (published.get(index) != sequence) {
+				break;
+			}
+			data.add(take(index));
+			sequence++;
+			taken++;
+		}
+		if (taken > 0) {
+			consumed.lazySet(sequence);
+		}
+		return taken;
+	}
+
+	private EventQueueData take(int index) {
+		EventQueueData data = buffer[index];
+		// don't hold on to the event once it's been taken
+		buffer[index] = null;
+		return data;
+	}
+
+	private void waitForPublish(long sequence, int index) throws InterruptedException {
+		int tries = 0;
+		while (published.get(index) != sequence) {
+			if (Thread.interrupted()) {
+				throw new InterruptedException("Interrupted waiting for an event in the ring buffer");
+			}
+			switch (waitStrategy) {
+			case BUSY_SPIN:
+				Thread.onSpinWait();
+				break;
+			case YIELD:
+				Thread.yield();
+				break;
+			case PARK:
+				if (tries < PARK_SPIN_TRIES) {
+					tries++;
+					Thread.onSpinWait();
+				} else {
+					parkedConsumer = Thread.currentThread();
+					// check again in case it was published before the producer could see we were
+					// parked
+					if (published.get(index) != sequence) {
+						LockSupport.parkNanos(this, maxParkNanos);
+					}
+					parkedConsumer = null;
+				}
+				break;
+			}
+		}
+	}
+
+	/**
+	 * the events are only held in memory so are lost when the gateway stops
+	 */
+	@Override
+	public boolean isPersistent() {
+		return false;
+	}
+
+	@PostConstruct
+	public void postConstruct() {
+		log.info(getStatus());
+	}
+
+	@Override
+	public String getStatus() {
+		return "EventQueueRingBuffer has remaining capacity of " + getRemainingCapacity()
+				+ " it's current size is " + getQueueSize() + ", wait strategy is " + waitStrategy;
+	}
+
+	/**
+	 * this includes events that have been claimed but not yet published
+	 */
+	@Override
+	public int getQueueSize() {
+		long size = claimed.get() - consumed.get();
+		return (int) Math.max(0, Math.min(capacity, size));
+	}
+
+	@Override
+	public int getRemainingCapacity() {
+		return capacity - getQueueSize();
+	}
+
+	/*
+	 * the extra fields push anything allocated after this onto another cache line
+	 */
+	@SuppressWarnings("unused")
+	private static class PaddedSequence extends AtomicLong {
+		private static final long serialVersionUID = 1L;
+		private long p1, p2, p3, p4, p5, p6, p7;
+
+		PaddedSequence(long initialValue) {
+			super(initialValue);
+		}
+	}
+}
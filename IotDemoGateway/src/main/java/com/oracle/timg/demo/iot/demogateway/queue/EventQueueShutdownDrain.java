@@ -0,0 +1,259 @@
+/*Copyright (c) 2026 Oracle and/or its affiliates.
+
+The Universal Permissive License (UPL), Version 1.0
+
+Subject to the condition set forth below, permission is hereby granted to any
+person obtaining a copy of this software, associated documentation and/or data
+(collectively the "Software"), free of charge and under any and all copyright
+rights in the Software, and any and all patent rights owned or freely
+licensable by each licensor hereunder covering either (i) the unmodified
+Software as contributed to or provided by such licensor, or (ii) the Larger
+Works (as defined below), to deal in both
+
+(a) the Software, and
+(b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+one is included with the Software (each a "Larger Work" to which the Software
+is contributed by such licensors),
+
+without restriction, including without limitation the rights to copy, create
+derivative works of, display, perform, and distribute the Software and make,
+use, sell, offer for sale, import, export, have made, and have sold the
+Software and the Larger Work(s), and to sublicense the foregoing rights on
+either these or other terms.
+
+This license is subject to the following condition:
+The above copyright notice and either this complete permission notice or at
+a minimum a reference to the UPL must be included in all copies or
+substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+ */
+package com.oracle.timg.demo.iot.demogateway.queue;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import io.micronaut.context.annotation.Property;
+import jakarta.annotation.PreDestroy;
+import jakarta.inject.Inject;
+import jakarta.inject.Singleton;
+import lombok.Getter;
+import lombok.extern.java.Log;
+
+/*
+ * holds the state for stopping the gateway without losing events. When the
+ * gateway starts to stop new events are refused (so the devices or the load
+ * balancer send them elsewhere or try again later) while the EventQueueProcessor
+ * keeps working through the events it already has for up to the drain timeout.
+ * Any events that are still left after that are saved in a spool file, the next
+ * time the gateway starts they are put back on the event queue before any new
+ * events are processed. If the event queue is persistent the events still in it
+ * arrived after the saved ones, so rather than being added to the end of the
+ * queue the saved events are read and handed straight to the processing before
+ * anything is taken from the queue.
+ */
+@Singleton
+@Log
+public class EventQueueShutdownDrain {
+	private final EventQueue eventQueue;
+	private final Path spoolFile;
+	@Getter
+	private final int drainTimeout;
+	@Getter
+	private final int retryAfter;
+	private final int restoreBatchSize;
+	private final EventDataSpool spool;
+	private volatile boolean acceptingEvents = true;
+	// set once the leftovers from this run have been saved
+	private boolean leftoversSaved = false;
+	private final LongAdder refused = new LongAdder();
+	private final LongAdder saved = new LongAdder();
+	private final LongAdder lost = new LongAdder();
+	private final LongAdder restored = new LongAdder();
+
+	@Inject
+	public EventQueueShutdownDrain(EventQueue eventQueue, ObjectMapper objectMapper,
+			@Property(name = "gateway.shutdown.drain.timeout", defaultValue = "30") int drainTimeout,
+			@Property(name = "gateway.shutdown.drain.retryafter", defaultValue = "30") int retryAfter,
+			@Property(name = "gateway.shutdown.spoolfile", defaultValue = "shutdownspool/leftovers.ndjson") String spoolFile,
+			@Property(name = "gateway.shutdown.restorebatchsize", defaultValue = "100") int restoreBatchSize)
+			throws IOException {
+		this.eventQueue = eventQueue;
+		this.drainTimeout = Math.max(0, drainTimeout);
+		this.retryAfter = Math.max(1, retryAfter);
+		this.spoolFile = Path.of(spoolFile);
+		this.restoreBatchSize = Math.max(1, restoreBatchSize);
+		this.spool = new EventDataSpool(this.spoolFile, objectMapper);
+	}
+
+	/**
+	 * once this returns false it never goes back to true, the gateway is stopping
+	 *
+	 * @return
+	 */
+	public boolean isAcceptingEvents() {
+		return acceptingEvents;
+	}
+
+	public void stopAcceptingEvents() {
+		if (acceptingEvents) {
+			acceptingEvents = false;
+			log.info("Gateway is stopping, new events will be refused");
+		}
+	}
+
+	/**
+	 * called by the ingest when events are refused because the gateway is stopping
+	 *
+	 * @param count
+	 */
+	public void recordRefused(int count) {
+		refused.add(count);
+	}
+
+	/**
+	 * saves the events so they can be restored on the next start, if they can't be
+	 * saved they are lost
+	 *
+	 * @param leftovers in the order they should be processed
+	 */
+	public synchronized void saveLeftovers(List<EventQueueData> leftovers) {
+		leftoversSaved = true;
+		if (leftovers.isEmpty()) {
+			return;
+		}
+		try {
+			spool.append(leftovers);
+			saved.add(leftovers.size());
+			log.info("Saved " + leftovers.size() + " unprocessed events to " + spoolFile
+					+ ", they will be processed when the gateway next starts");
+		} catch (IOException e) {
+			lost.add(leftovers.size());
+			log.severe("Unable to save " + leftovers.size() + " unprocessed events to " + spoolFile
+					+ ", they are lost, " + e.getLocalizedMessage());
+		}
+	}
+
+	/**
+	 * moves any events saved when the gateway last stopped onto the event queue in
+	 * batches, if the queue fills up the rest are left in the spool file and will
+	 * be tried again the next time the gateway starts
+	 *
+	 * @return the number of events restored
+	 */
+	public synchronized int restoreLeftovers() {
+		if (spool.getCount() == 0) {
+			return 0;
+		}
+		List<EventQueueData> events;
+		try {
+			events = spool.readAll();
+			spool.delete();
+		} catch (IOException e) {
+			log.severe("Unable to restore the events saved when the gateway last stopped from " + spoolFile + ", "
+					+ e.getLocalizedMessage());
+			return 0;
+		}
+		int restoredCount = 0;
+		while (restoredCount < events.size()) {
+			List<EventQueueData> batch = events.subList(restoredCount,
+					Math.min(events.size(), restoredCount + restoreBatchSize));
+			if (!eventQueue.addToQueue(batch)) {
+				break;
+			}
+			restoredCount += batch.size();
+		}
+		List<EventQueueData> remaining = events.subList(restoredCount, events.size());
+		if (!remaining.isEmpty()) {
+			try {
+				spool.append(remaining);
+				log.warning("Event queue is full, only restored " + restoredCount + " of " + events.size()
+						+ " events saved when the gateway last stopped, the rest will be restored on the next start");
+			} catch (IOException e) {
+				lost.add(remaining.size());
+				log.severe("Unable to put back " + remaining.size() + " events saved when the gateway last stopped to "
+						+ spoolFile + ", they are lost, " + e.getLocalizedMessage());
+			}
+		}
+		restored.add(restoredCount);
+		log.info("Restored " + restoredCount + " events saved when the gateway last stopped to the event queue");
+		return restoredCount;
+	}
+
+	/**
+	 * returns the events saved when the gateway last stopped but leaves them in the
+	 * spool file, once they have been taken for dispatch clearLeftovers must be
+	 * called. This is used with a persistent event queue where the events can't be
+	 * added to the end of the queue without getting behind the events that are
+	 * still in it
+	 *
+	 * @return the events, empty if there are none or they can't be read
+	 */
+	public synchronized List<EventQueueData> readLeftovers() {
+		if (spool.getCount() == 0) {
+			return List.of();
+		}
+		try {
+			return spool.readAll();
+		} catch (IOException e) {
+			log.severe("Unable to read the events saved when the gateway last stopped from " + spoolFile + ", "
+					+ e.getLocalizedMessage());
+			return List.of();
+		}
+	}
+
+	/**
+	 * the events from readLeftovers have been taken for dispatch so are no longer
+	 * needed. If the leftovers from this run have already been saved (the dispatch
+	 * was very late) the spool now holds them as well, so it's kept and the restored
+	 * events may be processed again on the next start rather than lost
+	 *
+	 * @param restoredCount
+	 */
+	public synchronized void clearLeftovers(int restoredCount) {
+		if (leftoversSaved) {
+			log.warning("Not removing the " + restoredCount + " events saved when the gateway last stopped from "
+					+ spoolFile + " as this run's leftovers have been saved with them, they may be processed again"
+					+ " on the next start");
+			return;
+		}
+		try {
+			spool.delete();
+		} catch (IOException e) {
+			log.warning("Unable to remove the events saved when the gateway last stopped from " + spoolFile
+					+ ", they may be processed again on the next start, " + e.getLocalizedMessage());
+		}
+		restored.add(restoredCount);
+		log.info("Restored " + restoredCount + " events saved when the gateway last stopped ahead of the event queue");
+	}
+
+	public String getConfig() {
+		return "drainTimeout=" + drainTimeout + "s, retryAfter=" + retryAfter + "s, spoolFile=" + spoolFile
+				+ ", restoreBatchSize=" + restoreBatchSize;
+	}
+
+	public String getStatus() {
+		return "EventQueueShutdownDrain acceptingEvents=" + acceptingEvents + ", refused=" + refused.sum()
+				+ ", restored=" + restored.sum() + ", saved=" + saved.sum() + ", lost=" + lost.sum();
+	}
+
+	@PreDestroy
+	public void preDestroy() {
+		try {
+			spool.close();
+		} catch (IOException e) {
+			log.warning("Problem closing shutdown spool " + spoolFile + ", " + e.getLocalizedMessage());
+		}
+		log.info(getStatus());
+	}
+}
@@ -0,0 +1,338 @@
+/*Copyright (c) 2026 Oracle and/or its affiliates.
+
+The Universal Permissive License (UPL), Version 1.0
+
+Subject to the condition set forth below, permission is hereby granted to any
+person obtaining a copy of this software, associated documentation and/or data
+(collectively the "Software"), free of charge and under any and all copyright
+rights in the Software, and any and all patent rights owned or freely
+licensable by each licensor hereunder covering either (i) the unmodified
+Software as contributed to or provided by such licensor, or (ii) the Larger
+Works (as defined below), to deal in both
+
+(a) the Software, and
+(b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+one is included with the Software (each a "Larger Work" to which the Software
+is contributed by such licensors),
+
+without restriction, including without limitation the rights to copy, create
+derivative works of, display, perform, and distribute the Software and make,
+use, sell, offer for sale, import, export, have made, and have sold the
+Software and the Larger Work(s), and to sublicense the foregoing rights on
+either these or other terms.
+
+This license is subject to the following condition:
+The above copyright notice and either this complete permission notice or at
+a minimum a reference to the UPL must be included in all copies or
+substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+ */
+package com.oracle.timg.demo.iot.demogateway.queue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+import com.oracle.timg.demo.iot.demogateway.executors.GatewayExecutors;
+
+import io.micronaut.context.annotation.Property;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import jakarta.inject.Inject;
+import jakarta.inject.Singleton;
+import lombok.extern.java.Log;
+
+/*
+ * collects the events for each digital twin instance so a burst of events from
+ * a device can be sent in one upload rather than one upload per event. A batch
+ * is sent once it has maxEvents events in it, once adding the next event would
+ * take it over maxBytes, or once the first event in it has been waiting for
+ * the linger time. The payload sent is a JSON array of the transformed
+ * payloads (even if there is only one event in the batch), the digital twin
+ * adapter must be set up to unpack this.
+ *
+ * Batches that fill up are sent on the thread adding the last event, so the
+ * processing lane for the device waits (just as it does when sending a single
+ * event). Batches that reach the linger time are sent by the linger threads.
+ * Each batch has a lock which is held while it's being sent so the batches for
+ * a device are always sent in order. The lock is a ReentrantLock rather than
+ * synchronized so a virtual thread waiting on the send doesn't pin its carrier
+ * thread.
+ */
+@Singleton
+@Log
+public class EventUploadBatcher {
+	// a batch that has been empty for this long is removed
+	private static final long IDLE_BATCH_NANOS = TimeUnit.SECONDS.toNanos(60);
+	private final EventUploader eventUploader;
+	private final int maxEvents;
+	private final int maxBytes;
+	private final long lingerNanos;
+	private final long linger;
+	private final int flushThreads;
+	private final Map<String, DeviceBatch> batches = new ConcurrentHashMap<>();
+	private final AtomicInteger heldEvents = new AtomicInteger();
+	private final LongAdder fullBatches = new LongAdder();
+	private final LongAdder lingerBatches = new LongAdder();
+	private ScheduledExecutorService lingerScanner;
+	private ExecutorService lingerFlusher;
+
+	@Inject
+	public EventUploadBatcher(EventUploader eventUploader, GatewayExecutors gatewayExecutors,
+			@Property(name = "gateway.iotservice.batch.maxevents", defaultValue = "1") int maxEvents,
+			@Property(name = "gateway.iotservice.batch.maxbytes", defaultValue = "65536") int maxBytes,
+			@Property(name = "gateway.iotservice.batch.linger", defaultValue = "50") long linger,
+			@Property(name = "gateway.iotservice.batch.flushthreads", defaultValue = "16") int flushThreads) {
+		this.eventUploader = eventUploader;
+		this.maxEvents = Math.max(1, maxEvents);
+		this.maxBytes = Math.max(1, maxBytes);
+		this.linger = Math.max(1, linger);
+		this.lingerNanos = TimeUnit.MILLISECONDS.toNanos(this.linger);
+		this.flushThreads = Math.max(1, flushThreads);
+		if (isEnabled()) {
+			lingerScanner = Executors
+					.newSingleThreadScheduledExecutor(gatewayExecutors.newThreadFactory("upload-linger-scan"));
+			lingerFlusher = Executors.newFixedThreadPool(this.flushThreads,
+					gatewayExecutors.newThreadFactory("upload-linger"));
+			// check twice per linger time so no batch waits much more than the linger time
+			long scanInterval = Math.max(1, lingerNanos / 2);
+			lingerScanner.scheduleWithFixedDelay(this::flushLingeringBatches, scanInterval, scanInterval,
+					TimeUnit.NANOSECONDS);
+		}
+	}
+
+	/**
+	 * @return true if events should be batched, if not they are uploaded
+	 *         individually using the EventUploader
+	 */
+	public boolean isEnabled() {
+		return maxEvents > 1;
+	}
+
+	/**
+	 * adds the (transformed) event to the batch for the instance, if this fills
+	 * the batch it's sent before returning
+	 *
+	 * @param eventData
+	 * @param externalKey
+	 * @param authData
+	 */
+	public void add(EventQueueData eventData, String externalKey, String authData) {
+		while (true) {
+			DeviceBatch batch = batches.computeIfAbsent(externalKey, DeviceBatch::new);
+			batch.lock.lock();
+			try {
+				// it was removed as idle after we got it, get a new one
+				if (batch.retired) {
+					continue;
+				}
+				batch.add(eventData, authData);
+				return;
+			} finally {
+				batch.lock.unlock();
+			}
+		}
+	}
+
+	/**
+	 * @return the number of events that are waiting in a batch to be sent
+	 */
+	public int getHeldEventCount() {
+		return heldEvents.get();
+	}
+
+	/**
+	 * takes all of the events that have not yet been sent out of their batches
+	 * (without sending them) for the shutdown drain to save
+	 *
+	 * @param leftovers the events are added to this in the order they arrived for
+	 *                  each instance
+	 * @return the number of events taken
+	 */
+	public int takeAllHeldEvents(List<EventQueueData> leftovers) {
+		int taken = 0;
+		for (DeviceBatch batch : batches.values()) {
+			batch.lock.lock();
+			try {
+				int count = batch.events.size();
+				leftovers.addAll(batch.events);
+				heldEvents.addAndGet(-count);
+				batch.clear();
+				taken += count;
+			} finally {
+				batch.lock.unlock();
+			}
+		}
+		return taken;
+	}
+
+	private void flushLingeringBatches() {
+		long now = System.nanoTime();
+		try {
+			for (DeviceBatch batch : batches.values()) {
+				if (batch.isLingering(now)) {
+					if (!batch.flushQueued) {
+						batch.flushQueued = true;
+						lingerFlusher.execute(() -> flushIfLingering(batch));
+					}
+				} else if (batch.isIdle(now)) {
+					retireIfIdle(batch, now);
+				}
+			}
+		} catch (RuntimeException e) {
+			// if this escapes the scanner stops
+			log.warning("Problem looking for lingering upload batches, " + e.getLocalizedMessage());
+		}
+	}
+
+	private void flushIfLingering(DeviceBatch batch) {
+		batch.lock.lock();
+		try {
+			batch.flushQueued = false;
+			// it may have filled up and been sent while waiting
+			if (batch.isLingering(System.nanoTime())) {
+				lingerBatches.increment();
+				batch.send();
+			}
+		} finally {
+			batch.lock.unlock();
+		}
+	}
+
+	private void retireIfIdle(DeviceBatch batch, long now) {
+		if (!batch.lock.tryLock()) {
+			return;
+		}
+		try {
+			if (batch.events.isEmpty() && batch.isIdle(now)) {
+				batch.retired = true;
+				batches.remove(batch.externalKey, batch);
+			}
+		} finally {
+			batch.lock.unlock();
+		}
+	}
+
+	public String getConfig() {
+		return isEnabled()
+				? "maxEvents=" + maxEvents + ", maxBytes=" + maxBytes + ", linger=" + linger + "ms, flushThreads="
+						+ flushThreads
+				: "disabled";
+	}
+
+	public String getStatus() {
+		return "EventUploadBatcher " + getConfig() + ", batches sent as full=" + fullBatches.sum()
+				+ ", batches sent after linger=" + lingerBatches.sum() + ", events waiting=" + heldEvents.get()
+				+ " for " + batches.size() + " instances";
+	}
+
+	@PostConstruct
+	public void postConstruct() {
+		log.info("EventUploadBatcher config " + getConfig());
+	}
+
+	@PreDestroy
+	public void preDestroy() {
+		if (lingerScanner != null) {
+			lingerScanner.shutdownNow();
+			lingerFlusher.shutdown();
+			try {
+				lingerFlusher.awaitTermination(5, TimeUnit.SECONDS);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		log.info(getStatus());
+	}
+
+	/*
+	 * the events waiting to be sent for one instance, apart from the volatile
+	 * fields (which the linger scanner reads without the lock) everything must
+	 * only be used while holding the lock
+	 */
+	private class DeviceBatch {
+		final String externalKey;
+		final ReentrantLock lock = new ReentrantLock();
+		final List<EventQueueData> events = new ArrayList<>(maxEvents);
+		final StringBuilder payload = new StringBuilder();
+		String authData;
+		volatile int size = 0;
+		volatile long firstAdded;
+		volatile long lastUsed = System.nanoTime();
+		volatile boolean flushQueued = false;
+		boolean retired = false;
+
+		DeviceBatch(String externalKey) {
+			this.externalKey = externalKey;
+		}
+
+		void add(EventQueueData eventData, String authData) {
+			String eventPayload = eventData.getTransformedPayload();
+			// sizes are in characters, for JSON that's mostly the same as bytes
+			if (!events.isEmpty() && ((payload.length() + eventPayload.length() + 2) > maxBytes)) {
+				fullBatches.increment();
+				send();
+			}
+			if (events.isEmpty()) {
+				firstAdded = System.nanoTime();
+				payload.append('[');
+			} else {
+				payload.append(',');
+			}
+			payload.append(eventPayload);
+			events.add(eventData);
+			size = events.size();
+			heldEvents.incrementAndGet();
+			// if the secret has changed use the latest
+			this.authData = authData;
+			if ((events.size() >= maxEvents) || ((payload.length() + 1) >= maxBytes)) {
+				fullBatches.increment();
+				send();
+			}
+		}
+
+		void send() {
+			if (events.isEmpty()) {
+				return;
+			}
+			payload.append(']');
+			int count = events.size();
+			try {
+				eventUploader.uploadBatch(events, externalKey, authData, payload.toString());
+			} finally {
+				heldEvents.addAndGet(-count);
+				clear();
+			}
+		}
+
+		void clear() {
+			events.clear();
+			size = 0;
+			payload.setLength(0);
+			lastUsed = System.nanoTime();
+		}
+
+		boolean isLingering(long now) {
+			return (size > 0) && ((now - firstAdded) >= lingerNanos);
+		}
+
+		boolean isIdle(long now) {
+			return (size == 0) && ((now - lastUsed) >= IDLE_BATCH_NANOS);
+		}
+	}
+}
@@ -0,0 +1,242 @@
+/*Copyright (c) 2026 Oracle and/or its affiliates.
+
+The Universal Permissive License (UPL), Version 1.0
+
+Subject to the condition set forth below, permission is hereby granted to any
+person obtaining a copy of this software, associated documentation and/or data
+(collectively the "Software"), free of charge and under any and all copyright
+rights in the Software, and any and all patent rights owned or freely
+licensable by each licensor hereunder covering either (i) the unmodified
+Software as contributed to or provided by such licensor, or (ii) the Larger
+Works (as defined below), to deal in both
+
+(a) the Software, and
+(b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+one is included with the Software (each a "Larger Work" to which the Software
+is contributed by such licensors),
+
+without restriction, including without limitation the rights to copy, create
+derivative works of, display, perform, and distribute the Software and make,
+use, sell, offer for sale, import, export, have made, and have sold the
+Software and the Larger Work(s), and to sublicense the foregoing rights on
+either these or other terms.
+
+This license is subject to the following condition:
+The above copyright notice and either this complete permission notice or at
+a minimum a reference to the UPL must be included in all copies or
+substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+ */
+package com.oracle.timg.demo.iot.demogateway.queue;
+
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.oracle.timg.demo.iot.demogateway.iotupload.CircuitBreaker;
+import com.oracle.timg.demo.iot.demogateway.iotupload.IotServiceClient;
+import com.oracle.timg.demo.iot.demogateway.metrics.GatewayMetrics;
+
+import io.micronaut.context.annotation.Property;
+import jakarta.annotation.PostConstruct;
+import jakarta.inject.Inject;
+import jakarta.inject.Singleton;
+import lombok.Getter;
+import lombok.extern.java.Log;
+
+/*
+ * sends events to the IoT service, retrying failed sends with exponential
+ * backoff (with full jitter so a lot of devices failing at once don't all retry
+ * at the same moment). The retries happen on the calling thread so later events
+ * for the same device wait behind the one being retried and stay in order.
+ *
+ * All of the uploads go to the same IoT domain device host so they share a
+ * circuit breaker, while that's open sends are not attempted at all, the event
+ * is dead lettered straight away rather than having the processing threads all
+ * wait on a service that's down. Events whose retries run out also go to the
+ * dead letter spool, from where they can be replayed. Only errors (a null
+ * result) are retried and count towards opening the circuit, if the service
+ * rejects the events (a false result) they are dead lettered straight away.
+ */
+@Singleton
+@Log
+public class EventUploader {
+	private final IotServiceClient iotServiceClient;
+	private final EventDeadLetter eventDeadLetter;
+	private final GatewayMetrics gatewayMetrics;
+	private final int maxAttempts;
+	private final long initialBackoff;
+	private final long maxBackoff;
+	@Getter
+	private final CircuitBreaker circuitBreaker;
+	private final LongAdder sent = new LongAdder();
+	private final LongAdder batchesSent = new LongAdder();
+	private final LongAdder retries = new LongAdder();
+	private final LongAdder sentAfterRetry = new LongAdder();
+	private final LongAdder retriesExhausted = new LongAdder();
+	private final LongAdder circuitOpen = new LongAdder();
+	private final LongAdder rejected = new LongAdder();
+
+	@Inject
+	public EventUploader(IotServiceClient iotServiceClient, EventDeadLetter eventDeadLetter,
+			GatewayMetrics gatewayMetrics,
+			@Property(name = "gateway.iotservice.retry.maxattempts", defaultValue = "4") int maxAttempts,
+			@Property(name = "gateway.iotservice.retry.initialbackoff", defaultValue = "200") long initialBackoff,
+			@Property(name = "gateway.iotservice.retry.maxbackoff", defaultValue = "10000") long maxBackoff,
+			@Property(name = "gateway.iotservice.circuitbreaker.failurethreshold", defaultValue = "20") int failureThreshold,
+			@Property(name = "gateway.iotservice.circuitbreaker.opentime", defaultValue = "30000") long openTime) {
+		this.iotServiceClient = iotServiceClient;
+		this.eventDeadLetter = eventDeadLetter;
+		this.gatewayMetrics = gatewayMetrics;
+		this.maxAttempts = Math.max(1, maxAttempts);
+		this.initialBackoff = initialBackoff;
+		this.maxBackoff = Math.max(initialBackoff, maxBackoff);
+		this.circuitBreaker = new CircuitBreaker("iot-upload", failureThreshold, openTime);
+	}
+
+	/**
+	 * sends the events transformed payload, if it can't be sent the event is
+	 * added to the dead letter spool
+	 *
+	 * @param eventData
+	 * @param externalKey
+	 * @param authData
+	 * @return true if the event was sent, false if it was dead lettered
+	 */
+	public boolean upload(EventQueueData eventData, String externalKey, String authData) {
+		return send(List.of(eventData), externalKey, authData, eventData.getTransformedPayload());
+	}
+
+	/**
+	 * sends the events (which must all be for the same instance) in a single call
+	 * using the already combined payload, they are retried and dead lettered
+	 * together
+	 *
+	 * @param eventsData
+	 * @param externalKey
+	 * @param authData
+	 * @param payload
+	 * @return true if the events were sent, false if they were dead lettered
+	 */
+	public boolean uploadBatch(List<EventQueueData> eventsData, String externalKey, String authData,
+			String payload) {
+		boolean uploaded = send(eventsData, externalKey, authData, payload);
+		if (uploaded) {
+			batchesSent.increment();
+		}
+		return uploaded;
+	}
+
+	private boolean send(List<EventQueueData> eventsData, String externalKey, String authData, String payload) {
+		for (int attempt = 1;; attempt++) {
+			if (!circuitBreaker.allowRequest()) {
+				circuitOpen.add(eventsData.size());
+				deadLetter(eventsData, "the upload circuit is open");
+				return false;
+			}
+			long sendStart = System.nanoTime();
+			Boolean result = iotServiceClient.sendEvent(externalKey, authData, payload);
+			gatewayMetrics.recordUpload(System.nanoTime() - sendStart, result);
+			if (Boolean.TRUE.equals(result)) {
+				circuitBreaker.recordSuccess();
+				sent.add(eventsData.size());
+				if (attempt > 1) {
+					sentAfterRetry.add(eventsData.size());
+				}
+				return true;
+			}
+			if (Boolean.FALSE.equals(result)) {
+				// the service got the events and said no, sending them again won't change
+				// that and the service is working so it's not a reason to open the circuit
+				circuitBreaker.recordRejected();
+				rejected.add(eventsData.size());
+				log.warning("Upload of " + eventsData.size() + " events for " + externalKey
+						+ " was rejected, adding them to the dead letter spool");
+				deadLetter(eventsData, "rejected by the IoT service");
+				return false;
+			}
+			circuitBreaker.recordFailure();
+			if (attempt >= maxAttempts) {
+				retriesExhausted.add(eventsData.size());
+				log.warning("Unable to upload " + eventsData.size() + " events for " + externalKey + " after "
+						+ attempt + " attempts, adding them to the dead letter spool");
+				deadLetter(eventsData, "retries exhausted");
+				return false;
+			}
+			long backoff = backoffFor(attempt);
+			int failedAttempt = attempt;
+			log.fine(() -> "Upload attempt " + failedAttempt + " for " + externalKey + " had an error, retrying in "
+					+ backoff + "ms");
+			retries.increment();
+			try {
+				Thread.sleep(backoff);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				deadLetter(eventsData, "interrupted waiting to retry");
+				return false;
+			}
+		}
+	}
+
+	private void deadLetter(List<EventQueueData> eventsData, String reason) {
+		for (EventQueueData eventData : eventsData) {
+			eventDeadLetter.add(eventData, reason);
+		}
+	}
+
+	/**
+	 * a random time between 0 and initialBackoff * 2^(attempt -1) capped at
+	 * maxBackoff
+	 */
+	private long backoffFor(int attempt) {
+		long ceiling = initialBackoff << Math.min(attempt - 1, 30);
+		if ((ceiling <= 0) || (ceiling > maxBackoff)) {
+			ceiling = maxBackoff;
+		}
+		return ThreadLocalRandom.current().nextLong(ceiling + 1);
+	}
+
+	public long getBatchesSentCount() {
+		return batchesSent.sum();
+	}
+
+	public long getRetryCount() {
+		return retries.sum();
+	}
+
+	public long getRetriesExhaustedCount() {
+		return retriesExhausted.sum();
+	}
+
+	public long getRejectedCount() {
+		return rejected.sum();
+	}
+
+	public long getCircuitOpenCount() {
+		return circuitOpen.sum();
+	}
+
+	public String getConfig() {
+		return "maxAttempts=" + maxAttempts + ", initialBackoff=" + initialBackoff + "ms, maxBackoff=" + maxBackoff
+				+ "ms, circuitBreaker " + circuitBreaker.getConfig() + ", deadLetter " + eventDeadLetter.getConfig();
+	}
+
+	public String getStatus() {
+		return "EventUploader sent=" + sent.sum() + ", batchesSent=" + batchesSent.sum() + ", sentAfterRetry=" + sentAfterRetry.sum() + ", retries="
+				+ retries.sum() + ", retriesExhausted=" + retriesExhausted.sum() + ", rejected=" + rejected.sum()
+				+ ", refusedAsCircuitOpen="
+				+ circuitOpen.sum() + ", " + circuitBreaker.getStatus() + ", " + eventDeadLetter.getStatus();
+	}
+
+	@PostConstruct
+	public void postConstruct() {
+		log.info("EventUploader config " + getConfig());
+	}
+}
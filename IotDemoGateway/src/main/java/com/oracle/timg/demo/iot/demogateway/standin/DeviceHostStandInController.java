@@ -0,0 +1,137 @@
+/*Copyright (c) 2026 Oracle and/or its affiliates.
+
+The Universal Permissive License (UPL), Version 1.0
+
+Subject to the condition set forth below, permission is hereby granted to any
+person obtaining a copy of this software, associated documentation and/or data
+(collectively the "Software"), free of charge and under any and all copyright
+rights in the Software, and any and all patent rights owned or freely
+licensable by each licensor hereunder covering either (i) the unmodified
+Software as contributed to or provided by such licensor, or (ii) the Larger
+Works (as defined below), to deal in both
+
+(a) the Software, and
+(b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+one is included with the Software (each a "Larger Work" to which the Software
+is contributed by such licensors),
+
+without restriction, including without limitation the rights to copy, create
+derivative works of, display, perform, and distribute the Software and make,
+use, sell, offer for sale, import, export, have made, and have sold the
+Software and the Larger Work(s), and to sublicense the foregoing rights on
+either these or other terms.
+
+This license is subject to the following condition:
+The above copyright notice and either this complete permission notice or at
+a minimum a reference to the UPL must be included in all copies or
+substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+ */
+package com.oracle.timg.demo.iot.demogateway.standin;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import io.micronaut.context.annotation.Property;
+import io.micronaut.context.annotation.Requires;
+import io.micronaut.core.annotation.Nullable;
+import io.micronaut.http.HttpHeaders;
+import io.micronaut.http.HttpResponse;
+import io.micronaut.http.HttpStatus;
+import io.micronaut.http.MediaType;
+import io.micronaut.http.annotation.Body;
+import io.micronaut.http.annotation.Consumes;
+import io.micronaut.http.annotation.Controller;
+import io.micronaut.http.annotation.Header;
+import io.micronaut.http.annotation.PathVariable;
+import io.micronaut.http.annotation.Post;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import jakarta.inject.Inject;
+import lombok.extern.java.Log;
+
+/*
+ * stands in for the iot domain device host, accepting the events that
+ * IotServiceClientHttps uploads (set gateway.iotservice.https.baseurl to point
+ * at the gateway, e.g. http://localhost:8123). The request must have basic auth
+ * for the external key in the path but the secret isn't checked. The response
+ * is delayed without holding a thread so a large number of slow uploads can be
+ * in progress at once, as they could be with the real device host.
+ */
+@Controller("${gateway.iotservice.digitaltwinadapter.pathprefix}")
+@Log
+@Requires(property = "gateway.standin.enabled", value = "true", defaultValue = "false")
+@Requires(property = "gateway.standin.devicehost.enabled", notEquals = "false")
+@Requires(property = "gateway.iotservice.digitaltwinadapter.pathprefix")
+public class DeviceHostStandInController {
+	private final StandInFaultInjector faultInjector;
+	private final LongAdder accepted = new LongAdder();
+	private final LongAdder unauthorized = new LongAdder();
+
+	@Inject
+	public DeviceHostStandInController(
+			@Property(name = "gateway.standin.devicehost.latency", defaultValue = "0") long latency,
+			@Property(name = "gateway.standin.devicehost.latencyjitter", defaultValue = "0") long latencyJitter,
+			@Property(name = "gateway.standin.devicehost.errorrate", defaultValue = "0") double errorRate) {
+		this.faultInjector = new StandInFaultInjector("device host", latency, latencyJitter, errorRate);
+	}
+
+	@Post("/{externalKey}")
+	@Consumes({ MediaType.APPLICATION_JSON, MediaType.TEXT_PLAIN })
+	public CompletableFuture<HttpResponse<?>> receiveEvent(@PathVariable(name = "externalKey") String externalKey,
+			@Nullable @Header(HttpHeaders.AUTHORIZATION) String authorization, @Body String payload) {
+		if (!isAuthorizedFor(externalKey, authorization)) {
+			unauthorized.increment();
+			return CompletableFuture.completedFuture(HttpResponse.status(HttpStatus.UNAUTHORIZED));
+		}
+		long delay = faultInjector.nextLatency();
+		boolean fail = faultInjector.nextFails();
+		return CompletableFuture.supplyAsync(() -> {
+			if (fail) {
+				// IotServiceClientHttps treats a 503 as retryable, so this exercises the
+				// uploader's retries and circuit breaker rather than the dead letter spool
+				return HttpResponse.status(HttpStatus.SERVICE_UNAVAILABLE);
+			}
+			accepted.increment();
+			log.finest(() -> "Stand in device host accepted event for " + externalKey + " : " + payload);
+			return HttpResponse.accepted();
+		}, CompletableFuture.delayedExecutor(delay, TimeUnit.MILLISECONDS));
+	}
+
+	private boolean isAuthorizedFor(String externalKey, String authorization) {
+		if ((authorization == null) || !authorization.startsWith("Basic ")) {
+			return false;
+		}
+		try {
+			String decoded = new String(Base64.getDecoder().decode(authorization.substring("Basic ".length())),
+					StandardCharsets.UTF_8);
+			return decoded.startsWith(externalKey + ":") && (decoded.length() > externalKey.length() + 1);
+		} catch (IllegalArgumentException e) {
+			return false;
+		}
+	}
+
+	public String getStatus() {
+		return faultInjector.getStatus() + ", accepted=" + accepted.sum() + ", unauthorized=" + unauthorized.sum();
+	}
+
+	@PostConstruct
+	public void postConstruct() {
+		log.warning("Stand in device host is accepting events, " + faultInjector.getConfig());
+	}
+
+	@PreDestroy
+	public void preDestroy() {
+		log.info(getStatus());
+	}
+}
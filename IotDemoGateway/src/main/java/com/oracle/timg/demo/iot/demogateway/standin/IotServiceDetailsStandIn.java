@@ -0,0 +1,177 @@
+/*Copyright (c) 2026 Oracle and/or its affiliates.
+
+The Universal Permissive License (UPL), Version 1.0
+
+Subject to the condition set forth below, permission is hereby granted to any
+person obtaining a copy of this software, associated documentation and/or data
+(collectively the "Software"), free of charge and under any and all copyright
+rights in the Software, and any and all patent rights owned or freely
+licensable by each licensor hereunder covering either (i) the unmodified
+Software as contributed to or provided by such licensor, or (ii) the Larger
+Works (as defined below), to deal in both
+
+(a) the Software, and
+(b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+one is included with the Software (each a "Larger Work" to which the Software
+is contributed by such licensors),
+
+without restriction, including without limitation the rights to copy, create
+derivative works of, display, perform, and distribute the Software and make,
+use, sell, offer for sale, import, export, have made, and have sold the
+Software and the Larger Work(s), and to sublicense the foregoing rights on
+either these or other terms.
+
+This license is subject to the following condition:
+The above copyright notice and either this complete permission notice or at
+a minimum a reference to the UPL must be included in all copies or
+substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+ */
+package com.oracle.timg.demo.iot.demogateway.standin;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.oracle.bmc.identity.model.Compartment;
+import com.oracle.bmc.iot.model.DigitalTwinAdapter;
+import com.oracle.bmc.iot.model.DigitalTwinInstance;
+import com.oracle.bmc.iot.model.DigitalTwinModel;
+import com.oracle.bmc.iot.model.IotDomain;
+import com.oracle.bmc.iot.model.IotDomainGroup;
+import com.oracle.timg.demo.iot.demogateway.caches.InstanceMappingSnapshot;
+import com.oracle.timg.demo.iot.demogateway.executors.GatewayExecutors;
+import com.oracle.timg.demo.iot.demogateway.ociinterations.IotServiceDetails;
+
+import io.micronaut.context.annotation.Property;
+import io.micronaut.context.annotation.Replaces;
+import io.micronaut.context.annotation.Requires;
+import jakarta.annotation.PreDestroy;
+import jakarta.inject.Inject;
+import jakarta.inject.Singleton;
+import lombok.extern.java.Log;
+
+/*
+ * replaces the real IotServiceDetails when gateway.standin.enabled is true, none
+ * of the iot service resources are looked up in oci, instead they are made up
+ * from the configured names and the digital twin instances are held in memory
+ * (so they are lost when the gateway stops). This lets the gateway be run
+ * without an oci tenancy (e.g. for benchmarking in an isolated lab).
+ */
+@Singleton
+@Log
+@Replaces(IotServiceDetails.class)
+@Requires(property = "gateway.standin.enabled", value = "true", defaultValue = "false")
+@Requires(property = "gateway.iotservice.domaingroup.compartment")
+@Requires(property = "gateway.iotservice.domaingroup.name")
+@Requires(property = "gateway.iotservice.domain.name")
+@Requires(property = "gateway.iotservice.digitaltwinmodel.name")
+@Requires(property = "gateway.iotservice.digitaltwinadapter.name")
+public class IotServiceDetailsStandIn extends IotServiceDetails {
+	private final StandInFaultInjector faultInjector;
+	private final int preloadCount;
+	private final String preloadPrefix;
+	private final Map<String, DigitalTwinInstance> instances = new ConcurrentHashMap<>();
+	private final LongAdder created = new LongAdder();
+
+	@Inject
+	public IotServiceDetailsStandIn(InstanceMappingSnapshot instanceMappingSnapshot,
+			GatewayExecutors gatewayExecutors,
+			@Property(name = "gateway.iotservice.domaingroup.compartment") String compartmentName,
+			@Property(name = "gateway.iotservice.domaingroup.name") String iotDomainGroupName,
+			@Property(name = "gateway.iotservice.domain.name") String iotDomainName,
+			@Property(name = "gateway.iotservice.digitaltwinmodel.name") String digitalTwinModelName,
+			@Property(name = "gateway.iotservice.digitaltwinadapter.name") String digitalTwinAdapterName,
+			@Property(name = "gateway.standin.iotservice.devicehost", defaultValue = "localhost") String deviceHost,
+			@Property(name = "gateway.standin.iotservice.latency", defaultValue = "0") long latency,
+			@Property(name = "gateway.standin.iotservice.latencyjitter", defaultValue = "0") long latencyJitter,
+			@Property(name = "gateway.standin.iotservice.errorrate", defaultValue = "0") double errorRate,
+			@Property(name = "gateway.standin.iotservice.preload.count", defaultValue = "0") int preloadCount,
+			@Property(name = "gateway.standin.iotservice.preload.prefix", defaultValue = "standin-device-") String preloadPrefix) {
+		super(instanceMappingSnapshot, gatewayExecutors, compartmentName, iotDomainGroupName, iotDomainName,
+				digitalTwinModelName, digitalTwinAdapterName,
+				Compartment.builder().id(StandInFaultInjector.ocidForName("compartment", compartmentName))
+						.name(compartmentName).build(),
+				IotDomainGroup.builder().id(StandInFaultInjector.ocidForName("iotdomaingroup", iotDomainGroupName))
+						.displayName(iotDomainGroupName).build(),
+				IotDomain.builder().id(StandInFaultInjector.ocidForName("iotdomain", iotDomainName))
+						.displayName(iotDomainName)
+						.iotDomainGroupId(StandInFaultInjector.ocidForName("iotdomaingroup", iotDomainGroupName))
+						.deviceHost(deviceHost).build(),
+				DigitalTwinModel.builder().id(StandInFaultInjector.ocidForName("digitaltwinmodel", digitalTwinModelName))
+						.displayName(digitalTwinModelName)
+						.iotDomainId(StandInFaultInjector.ocidForName("iotdomain", iotDomainName)).build(),
+				DigitalTwinAdapter.builder()
+						.id(StandInFaultInjector.ocidForName("digitaltwinadapter", digitalTwinAdapterName))
+						.displayName(digitalTwinAdapterName)
+						.iotDomainId(StandInFaultInjector.ocidForName("iotdomain", iotDomainName))
+						.digitalTwinModelId(StandInFaultInjector.ocidForName("digitaltwinmodel", digitalTwinModelName))
+						.build());
+		this.faultInjector = new StandInFaultInjector("iot control plane", latency, latencyJitter, errorRate);
+		this.preloadCount = preloadCount;
+		this.preloadPrefix = preloadPrefix;
+		// so the benchmarks can start with the instances already in place, the secret
+		// doesn't exist but the vault stand in will return contents for any secret
+		for (int i = 0; i < preloadCount; i++) {
+			String displayName = preloadPrefix + i;
+			instances.put(displayName, buildInstance(displayName, StandInFaultInjector.newOcid("vaultsecret"),
+					displayName, "Stand in preloaded device " + displayName));
+		}
+		log.warning("Using the stand in iot service, nothing will be sent to oci, " + preloadCount
+				+ " instances have been preloaded");
+	}
+
+	@Override
+	public DigitalTwinInstance getDigitalTwinInstance(String displayName) {
+		faultInjector.inject("getDigitalTwinInstance");
+		return instances.get(displayName);
+	}
+
+	@Override
+	public List<DigitalTwinInstance> listDigitalTwinInstances() {
+		faultInjector.inject("listDigitalTwinInstances");
+		return new ArrayList<>(instances.values());
+	}
+
+	@Override
+	public DigitalTwinInstance createDigitalTwinInstance(String externalKey, String authId, String displayName,
+			String description) {
+		faultInjector.inject("createDigitalTwinInstance");
+		DigitalTwinInstance dti = buildInstance(externalKey, authId, displayName, description);
+		instances.put(displayName, dti);
+		created.increment();
+		return dti;
+	}
+
+	private DigitalTwinInstance buildInstance(String externalKey, String authId, String displayName,
+			String description) {
+		return DigitalTwinInstance.builder().id(StandInFaultInjector.newOcid("digitaltwininstance"))
+				.displayName(displayName).externalKey(externalKey).authId(authId).description(description)
+				.iotDomainId(getIotDomain().getId()).digitalTwinModelId(getDigitalTwinModel().getId())
+				.digitalTwinAdapterId(getDigitalTwinAdapter().getId()).build();
+	}
+
+	@Override
+	public String getConfig() {
+		return super.getConfig() + ", standIn " + faultInjector.getConfig() + ", preloadCount=" + preloadCount
+				+ ", preloadPrefix=" + preloadPrefix;
+	}
+
+	public String getStatus() {
+		return faultInjector.getStatus() + ", instances=" + instances.size() + ", created=" + created.sum();
+	}
+
+	@PreDestroy
+	public void preDestroy() {
+		log.info(getStatus());
+	}
+}
@@ -0,0 +1,140 @@
+/*Copyright (c) 2026 Oracle and/or its affiliates.
+
+The Universal Permissive License (UPL), Version 1.0
+
+Subject to the condition set forth below, permission is hereby granted to any
+person obtaining a copy of this software, associated documentation and/or data
+(collectively the "Software"), free of charge and under any and all copyright
+rights in the Software, and any and all patent rights owned or freely
+licensable by each licensor hereunder covering either (i) the unmodified
+Software as contributed to or provided by such licensor, or (ii) the Larger
+Works (as defined below), to deal in both
+
+(a) the Software, and
+(b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+one is included with the Software (each a "Larger Work" to which the Software
+is contributed by such licensors),
+
+without restriction, including without limitation the rights to copy, create
+derivative works of, display, perform, and distribute the Software and make,
+use, sell, offer for sale, import, export, have made, and have sold the
+Software and the Larger Work(s), and to sublicense the foregoing rights on
+either these or other terms.
+
+This license is subject to the following condition:
+The above copyright notice and either this complete permission notice or at
+a minimum a reference to the UPL must be included in all copies or
+substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+ */
+package com.oracle.timg.demo.iot.demogateway.standin;
+
+import java.nio.charset.StandardCharsets;
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+
+import lombok.Getter;
+
+/*
+ * makes the stand ins behave a bit more like the real services, each call can
+ * be delayed (by a fixed latency plus a random amount up to the jitter) and a
+ * proportion of them can be made to fail, so the gateway's retries, circuit
+ * breaker and upstream limits get exercised as well as the happy path.
+ */
+public class StandInFaultInjector {
+	@Getter
+	private final String name;
+	private final long latency;
+	private final long latencyJitter;
+	private final double errorRate;
+	private final LongAdder calls = new LongAdder();
+	private final LongAdder failures = new LongAdder();
+
+	/**
+	 * @param name          used in the failure messages
+	 * @param latency       milliseconds every call is delayed by
+	 * @param latencyJitter up to this many more milliseconds is randomly added to
+	 *                      the latency
+	 * @param errorRate     between 0 (no calls fail) and 1 (all calls fail)
+	 */
+	public StandInFaultInjector(String name, long latency, long latencyJitter, double errorRate) {
+		if ((errorRate < 0) || (errorRate > 1)) {
+			throw new IllegalArgumentException(
+					"The " + name + " stand in error rate must be between 0 and 1, it's " + errorRate);
+		}
+		this.name = name;
+		this.latency = Math.max(0, latency);
+		this.latencyJitter = Math.max(0, latencyJitter);
+		this.errorRate = errorRate;
+	}
+
+	/**
+	 * @return how long (in milliseconds) the next call should take
+	 */
+	public long nextLatency() {
+		calls.increment();
+		return latencyJitter == 0 ? latency : latency + ThreadLocalRandom.current().nextLong(latencyJitter + 1);
+	}
+
+	/**
+	 * @return true if the next call should fail
+	 */
+	public boolean nextFails() {
+		if ((errorRate > 0) && (ThreadLocalRandom.current().nextDouble() < errorRate)) {
+			failures.increment();
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * waits for the latency then throws a StandInFailureException if the call
+	 * should fail, for use by stand ins that are called on the gateway's own
+	 * threads
+	 *
+	 * @param operation used in the failure message
+	 */
+	public void inject(String operation) {
+		long delay = nextLatency();
+		if (delay > 0) {
+			try {
+				Thread.sleep(delay);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new StandInFailureException("Interrupted in " + name + " stand in " + operation, e);
+			}
+		}
+		if (nextFails()) {
+			throw new StandInFailureException("Injected failure in " + name + " stand in " + operation);
+		}
+	}
+
+	/**
+	 * the same name always gets the same ocid, so things look the same over
+	 * restarts, it's obviously not a real one
+	 */
+	public static String ocidForName(String resourceType, String name) {
+		return "ocid1." + resourceType + ".oc1..standin"
+				+ UUID.nameUUIDFromBytes(name.getBytes(StandardCharsets.UTF_8)).toString().replace("-", "");
+	}
+
+	public static String newOcid(String resourceType) {
+		return "ocid1." + resourceType + ".oc1..standin" + UUID.randomUUID().toString().replace("-", "");
+	}
+
+	public String getConfig() {
+		return "latency=" + latency + "ms, latencyJitter=" + latencyJitter + "ms, errorRate=" + errorRate;
+	}
+
+	public String getStatus() {
+		return name + " stand in calls=" + calls.sum() + ", injectedFailures=" + failures.sum();
+	}
+}
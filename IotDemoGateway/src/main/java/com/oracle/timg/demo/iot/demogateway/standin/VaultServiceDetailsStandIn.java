@@ -0,0 +1,138 @@
+/*Copyright (c) 2026 Oracle and/or its affiliates.
+
+The Universal Permissive License (UPL), Version 1.0
+
+Subject to the condition set forth below, permission is hereby granted to any
+person obtaining a copy of this software, associated documentation and/or data
+(collectively the "Software"), free of charge and under any and all copyright
+rights in the Software, and any and all patent rights owned or freely
+licensable by each licensor hereunder covering either (i) the unmodified
+Software as contributed to or provided by such licensor, or (ii) the Larger
+Works (as defined below), to deal in both
+
+(a) the Software, and
+(b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+one is included with the Software (each a "Larger Work" to which the Software
+is contributed by such licensors),
+
+without restriction, including without limitation the rights to copy, create
+derivative works of, display, perform, and distribute the Software and make,
+use, sell, offer for sale, import, export, have made, and have sold the
+Software and the Larger Work(s), and to sublicense the foregoing rights on
+either these or other terms.
+
+This license is subject to the following condition:
+The above copyright notice and either this complete permission notice or at
+a minimum a reference to the UPL must be included in all copies or
+substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+ */
+package com.oracle.timg.demo.iot.demogateway.standin;
+
+import java.nio.charset.StandardCharsets;
+import java.util.UUID;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.oracle.bmc.identity.model.Compartment;
+import com.oracle.bmc.keymanagement.model.Key;
+import com.oracle.bmc.keymanagement.model.Vault;
+import com.oracle.bmc.vault.model.Secret;
+import com.oracle.timg.demo.iot.demogateway.ociinterations.VaultServiceDetails;
+
+import io.micronaut.context.annotation.Property;
+import io.micronaut.context.annotation.Replaces;
+import io.micronaut.context.annotation.Requires;
+import jakarta.annotation.PreDestroy;
+import jakarta.inject.Inject;
+import jakarta.inject.Singleton;
+import lombok.extern.java.Log;
+
+/*
+ * replaces the real VaultServiceDetails when gateway.standin.enabled is true,
+ * any key or secret that's asked for exists, new secrets are active as soon as
+ * they are created and the contents of a secret are worked out from its ocid,
+ * so nothing needs to be held in memory however many instances there are.
+ */
+@Singleton
+@Log
+@Replaces(VaultServiceDetails.class)
+@Requires(property = "gateway.standin.enabled", value = "true", defaultValue = "false")
+@Requires(property = "gateway.instance.secret.vault.compartment")
+@Requires(property = "gateway.instance.secret.vault.name")
+public class VaultServiceDetailsStandIn extends VaultServiceDetails {
+	private final StandInFaultInjector faultInjector;
+	private final LongAdder secretsCreated = new LongAdder();
+
+	@Inject
+	public VaultServiceDetailsStandIn(
+			@Property(name = "gateway.instance.secret.vault.compartment") String compartmentName,
+			@Property(name = "gateway.instance.secret.vault.name") String vaultName,
+			@Property(name = "gateway.standin.vault.latency", defaultValue = "0") long latency,
+			@Property(name = "gateway.standin.vault.latencyjitter", defaultValue = "0") long latencyJitter,
+			@Property(name = "gateway.standin.vault.errorrate", defaultValue = "0") double errorRate) {
+		super(compartmentName, vaultName,
+				Compartment.builder().id(StandInFaultInjector.ocidForName("compartment", compartmentName))
+						.name(compartmentName).build(),
+				Vault.builder().id(StandInFaultInjector.ocidForName("vault", vaultName)).displayName(vaultName)
+						.compartmentId(StandInFaultInjector.ocidForName("compartment", compartmentName)).build());
+		this.faultInjector = new StandInFaultInjector("vault", latency, latencyJitter, errorRate);
+		log.warning("Using the stand in vault, nothing will be sent to oci");
+	}
+
+	@Override
+	public Key getKeyByName(String keyName) {
+		faultInjector.inject("getKeyByName");
+		return Key.builder().id(StandInFaultInjector.ocidForName("key", keyName)).displayName(keyName)
+				.compartmentId(getCompartment().getId()).vaultId(getVault().getId()).build();
+	}
+
+	@Override
+	public Secret getSecretByName(String secretName) {
+		faultInjector.inject("getSecretByName");
+		return Secret.builder().id(StandInFaultInjector.ocidForName("vaultsecret", secretName)).secretName(secretName)
+				.compartmentId(getCompartment().getId()).vaultId(getVault().getId()).build();
+	}
+
+	@Override
+	public String getSecretContents(String secretOcid) {
+		faultInjector.inject("getSecretContents");
+		return UUID.nameUUIDFromBytes(secretOcid.getBytes(StandardCharsets.UTF_8)).toString().replace("-", "");
+	}
+
+	@Override
+	public Secret createSecretGeneratedPassphrase(String secretName, String keyOcid, int secretLength,
+			String description) {
+		faultInjector.inject("createSecretGeneratedPassphrase");
+		secretsCreated.increment();
+		return Secret.builder().id(StandInFaultInjector.newOcid("vaultsecret")).secretName(secretName)
+				.description(description).keyId(keyOcid).compartmentId(getCompartment().getId())
+				.vaultId(getVault().getId()).build();
+	}
+
+	@Override
+	public Boolean waitForSecretToBecomeActive(Secret secret, int checkInterval, int maxWait) {
+		faultInjector.inject("waitForSecretToBecomeActive");
+		return true;
+	}
+
+	@Override
+	public String getConfig() {
+		return super.getConfig() + ", standIn " + faultInjector.getConfig();
+	}
+
+	public String getStatus() {
+		return faultInjector.getStatus() + ", secretsCreated=" + secretsCreated.sum();
+	}
+
+	@PreDestroy
+	public void preDestroy() {
+		log.info(getStatus());
+	}
+}
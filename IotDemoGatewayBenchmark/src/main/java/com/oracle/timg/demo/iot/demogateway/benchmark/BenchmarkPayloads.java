@@ -0,0 +1,107 @@
+/*Copyright (c) 2026 Oracle and/or its affiliates.
+
+The Universal Permissive License (UPL), Version 1.0
+
+Subject to the condition set forth below, permission is hereby granted to any
+person obtaining a copy of this software, associated documentation and/or data
+(collectively the "Software"), free of charge and under any and all copyright
+rights in the Software, and any and all patent rights owned or freely
+licensable by each licensor hereunder covering either (i) the unmodified
+Software as contributed to or provided by such licensor, or (ii) the Larger
+Works (as defined below), to deal in both
+
+(a) the Software, and
+(b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+one is included with the Software (each a "Larger Work" to which the Software
+is contributed by such licensors),
+
+without restriction, including without limitation the rights to copy, create
+derivative works of, display, perform, and distribute the Software and make,
+use, sell, offer for sale, import, export, have made, and have sold the
+Software and the Larger Work(s), and to sublicense the foregoing rights on
+either these or other terms.
+
+This license is subject to the following condition:
+The above copyright notice and either this complete permission notice or at
+a minimum a reference to the UPL must be included in all copies or
+substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+ */
+package com.oracle.timg.demo.iot.demogateway.benchmark;
+
+import java.util.Locale;
+
+/*
+ * builds the test data used by the benchmarks, the payloads are deterministic
+ * so runs can be compared
+ */
+public class BenchmarkPayloads {
+	private BenchmarkPayloads() {
+	}
+
+	/**
+	 * returns an XML document of roughly the requested size that looks like a
+	 * device reporting a batch of readings, it has repeated elements (which turn
+	 * into JSON arrays) nested a couple of levels down
+	 * 
+	 * @param targetBytes
+	 * @return
+	 */
+	public static String xmlPayload(int targetBytes) {
+		StringBuilder xml = new StringBuilder(targetBytes + 256);
+		xml.append("<report><device><id>device_0001</id><firmware>1.4.2</firmware></device><readings>");
+		appendReadings(xml, targetBytes);
+		xml.append("</readings></report>");
+		return xml.toString();
+	}
+
+	/**
+	 * the same as xmlPayload but the repeated reading elements are direct children
+	 * of the root element, with other elements before and after them, which is how
+	 * most devices send a batch
+	 * 
+	 * @param targetBytes
+	 * @return
+	 */
+	public static String flatXmlPayload(int targetBytes) {
+		StringBuilder xml = new StringBuilder(targetBytes + 256);
+		xml.append("<report><device><id>device_0001</id><firmware>1.4.2</firmware></device>");
+		appendReadings(xml, targetBytes);
+		xml.append("<status>ok</status></report>");
+		return xml.toString();
+	}
+
+	private static void appendReadings(StringBuilder xml, int targetBytes) {
+		int reading = 0;
+		while (xml.length() < targetBytes) {
+			xml.append("<reading><timestamp>").append(1767225600000L + (reading * 1000L)).append("</timestamp>")
+					.append("<sensor>sensor_").append(reading % 8).append("</sensor>").append("<value>")
+					.append(String.format(Locale.ROOT, "%.3f", 20 + ((reading % 100) / 10.0))).append("</value>")
+					.append("<unit>C</unit></reading>");
+			reading++;
+		}
+	}
+
+	/**
+	 * returns the instance keys a fleet of devices would send, these are in
+	 * snake case with upper case letters so the standard transformers have work
+	 * to do
+	 * 
+	 * @param count
+	 * @return
+	 */
+	public static String[] instanceKeys(int count) {
+		String[] keys = new String[count];
+		for (int i = 0; i < count; i++) {
+			keys[i] = String.format(Locale.ROOT, "Site_%03d_Battery_Unit_%06d", i % 500, i);
+		}
+		return keys;
+	}
+}
@@ -0,0 +1,102 @@
+/*Copyright (c) 2026 Oracle and/or its affiliates.
+
+The Universal Permissive License (UPL), Version 1.0
+
+Subject to the condition set forth below, permission is hereby granted to any
+person obtaining a copy of this software, associated documentation and/or data
+(collectively the "Software"), free of charge and under any and all copyright
+rights in the Software, and any and all patent rights owned or freely
+licensable by each licensor hereunder covering either (i) the unmodified
+Software as contributed to or provided by such licensor, or (ii) the Larger
+Works (as defined below), to deal in both
+
+(a) the Software, and
+(b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+one is included with the Software (each a "Larger Work" to which the Software
+is contributed by such licensors),
+
+without restriction, including without limitation the rights to copy, create
+derivative works of, display, perform, and distribute the Software and make,
+use, sell, offer for sale, import, export, have made, and have sold the
+Software and the Larger Work(s), and to sublicense the foregoing rights on
+either these or other terms.
+
+This license is subject to the following condition:
+The above copyright notice and either this complete permission notice or at
+a minimum a reference to the UPL must be included in all copies or
+substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+ */
+package com.oracle.timg.demo.iot.demogateway.benchmark;
+
+import java.util.List;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.oracle.timg.demo.iot.demogateway.queue.EventQueue;
+import com.oracle.timg.demo.iot.demogateway.queue.EventQueueData;
+
+/*
+ * accepts everything and keeps nothing, used where a benchmark needs somewhere
+ * to send events but the queue itself is not what's being measured
+ */
+public class DiscardingEventQueue implements EventQueue {
+	private final LongAdder added = new LongAdder();
+	// never released, so anything waiting for an event waits until it's interrupted
+	private final Semaphore noEvents = new Semaphore(0);
+
+	@Override
+	public boolean addToQueue(EventQueueData data) {
+		added.increment();
+		return true;
+	}
+
+	@Override
+	public boolean addToQueue(List<EventQueueData> data) {
+		added.add(data.size());
+		return true;
+	}
+
+	/**
+	 * nothing is kept so like any other empty queue this waits, as no event will
+	 * ever arrive it only returns by the thread being interrupted
+	 */
+	@Override
+	public EventQueueData getNext() throws InterruptedException {
+		while (true) {
+			noEvents.acquire();
+		}
+	}
+
+	@Override
+	public int drainTo(List<EventQueueData> data) {
+		return 0;
+	}
+
+	@Override
+	public boolean isPersistent() {
+		return false;
+	}
+
+	@Override
+	public String getStatus() {
+		return "DiscardingEventQueue has discarded " + added.sum() + " events";
+	}
+
+	@Override
+	public int getQueueSize() {
+		return 0;
+	}
+
+	@Override
+	public int getRemainingCapacity() {
+		return Integer.MAX_VALUE;
+	}
+}
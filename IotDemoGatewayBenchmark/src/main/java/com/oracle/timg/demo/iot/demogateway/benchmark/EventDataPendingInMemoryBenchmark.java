@@ -0,0 +1,112 @@
+/*Copyright (c) 2026 Oracle and/or its affiliates.
+
+The Universal Permissive License (UPL), Version 1.0
+
+Subject to the condition set forth below, permission is hereby granted to any
+person obtaining a copy of this software, associated documentation and/or data
+(collectively the "Software"), free of charge and under any and all copyright
+rights in the Software, and any and all patent rights owned or freely
+licensable by each licensor hereunder covering either (i) the unmodified
+Software as contributed to or provided by such licensor, or (ii) the Larger
+Works (as defined below), to deal in both
+
+(a) the Software, and
+(b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+one is included with the Software (each a "Larger Work" to which the Software
+is contributed by such licensors),
+
+without restriction, including without limitation the rights to copy, create
+derivative works of, display, perform, and distribute the Software and make,
+use, sell, offer for sale, import, export, have made, and have sold the
+Software and the Larger Work(s), and to sublicense the foregoing rights on
+either these or other terms.
+
+This license is subject to the following condition:
+The above copyright notice and either this complete permission notice or at
+a minimum a reference to the UPL must be included in all copies or
+substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+ */
+package com.oracle.timg.demo.iot.demogateway.benchmark;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.oracle.timg.demo.iot.demogateway.queue.EventDataPendingInMemory;
+import com.oracle.timg.demo.iot.demogateway.queue.EventQueueData;
+
+/*
+ * the pending event lists with several threads adding events (creating the
+ * pending entry for a device if there isn't one, as happens when an instance
+ * creation starts) while another thread resubmits the pending events for
+ * devices (as happens when an instance creation completes). The resubmitted
+ * events go to a queue that discards them and the transfer is run in the
+ * calling thread.
+ */
+@State(Scope.Group)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class EventDataPendingInMemoryBenchmark {
+	@Param({ "100", "10000" })
+	public int deviceCount;
+	private EventDataPendingInMemory eventDataPending;
+	private DiscardingEventQueue eventQueue;
+	private final Executor sameThread = Runnable::run;
+	private EventQueueData[] events;
+
+	@Setup(Level.Iteration)
+	public void setup() {
+		eventDataPending = new EventDataPendingInMemory();
+		eventQueue = new DiscardingEventQueue();
+		String[] keys = BenchmarkPayloads.instanceKeys(deviceCount);
+		events = new EventQueueData[deviceCount];
+		for (int i = 0; i < deviceCount; i++) {
+			events[i] = new EventQueueData(keys[i], "{\"temperature\":21.5}");
+		}
+	}
+
+	@Benchmark
+	@Group("addAndResubmit")
+	@GroupThreads(3)
+	public boolean add() {
+		EventQueueData event = events[ThreadLocalRandom.current().nextInt(events.length)];
+		if (eventDataPending.ifPendingRegistrationAddToList(event)) {
+			return true;
+		}
+		return eventDataPending.createPendingEntry(event);
+	}
+
+	@Benchmark
+	@Group("addAndResubmit")
+	@GroupThreads(1)
+	public int resubmit() {
+		EventQueueData event = events[ThreadLocalRandom.current().nextInt(events.length)];
+		return eventDataPending.resubmitPendingRegistrationEvents(event, eventQueue, sameThread);
+	}
+}
@@ -0,0 +1,110 @@
+/*Copyright (c) 2026 Oracle and/or its affiliates.
+
+The Universal Permissive License (UPL), Version 1.0
+
+Subject to the condition set forth below, permission is hereby granted to any
+person obtaining a copy of this software, associated documentation and/or data
+(collectively the "Software"), free of charge and under any and all copyright
+rights in the Software, and any and all patent rights owned or freely
+licensable by each licensor hereunder covering either (i) the unmodified
+Software as contributed to or provided by such licensor, or (ii) the Larger
+Works (as defined below), to deal in both
+
+(a) the Software, and
+(b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+one is included with the Software (each a "Larger Work" to which the Software
+is contributed by such licensors),
+
+without restriction, including without limitation the rights to copy, create
+derivative works of, display, perform, and distribute the Software and make,
+use, sell, offer for sale, import, export, have made, and have sold the
+Software and the Larger Work(s), and to sublicense the foregoing rights on
+either these or other terms.
+
+This license is subject to the following condition:
+The above copyright notice and either this complete permission notice or at
+a minimum a reference to the UPL must be included in all copies or
+substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+ */
+package com.oracle.timg.demo.iot.demogateway.benchmark;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.xml.XmlMapper;
+import com.oracle.timg.demo.iot.demogateway.eventdatatransformer.EventDataTransformService;
+import com.oracle.timg.demo.iot.demogateway.eventdatatransformer.EventDataTransformer;
+import com.oracle.timg.demo.iot.demogateway.eventdatatransformer.EventDataTransformerPassthrough;
+import com.oracle.timg.demo.iot.demogateway.eventdatatransformer.EventDataTransformerXmlInputToJsonOutput;
+import com.oracle.timg.demo.iot.demogateway.eventdatatransformer.EventDataTransformerXmlInputToJsonOutputStreaming;
+import com.oracle.timg.demo.iot.demogateway.metrics.GatewayMetrics;
+
+/*
+ * runs the event data transformer chain over XML payloads of the sizes the
+ * devices send. Run with -prof gc to see the allocation rate as well as the
+ * time taken.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class EventDataTransformServiceBenchmark {
+	@Param({ "PASSTHROUGH", "XML_TO_JSON", "XML_TO_JSON_STREAMING" })
+	public String transformer;
+	@Param({ "1024", "51200", "204800" })
+	public int payloadSize;
+	// NESTED has the repeated readings inside a readings element, FLAT has them
+	// directly in the root element
+	@Param({ "NESTED", "FLAT" })
+	public String payloadShape;
+	private EventDataTransformService eventDataTransformService;
+	private String payload;
+
+	@Setup
+	public void setup() {
+		XmlMapper xmlMapper = new XmlMapper();
+		ObjectMapper objectMapper = new ObjectMapper();
+		EventDataTransformer eventDataTransformer = switch (transformer) {
+		case "PASSTHROUGH" -> new EventDataTransformerPassthrough();
+		case "XML_TO_JSON" -> new EventDataTransformerXmlInputToJsonOutput(xmlMapper, objectMapper);
+		case "XML_TO_JSON_STREAMING" -> new EventDataTransformerXmlInputToJsonOutputStreaming(xmlMapper, objectMapper);
+		default -> throw new IllegalArgumentException("Unknown transformer " + transformer);
+		};
+		eventDataTransformService = new EventDataTransformService(List.of(eventDataTransformer),
+				new GatewayMetrics(null));
+		eventDataTransformService.postConstruct();
+		payload = switch (payloadShape) {
+		case "NESTED" -> BenchmarkPayloads.xmlPayload(payloadSize);
+		case "FLAT" -> BenchmarkPayloads.flatXmlPayload(payloadSize);
+		default -> throw new IllegalArgumentException("Unknown payload shape " + payloadShape);
+		};
+	}
+
+	@Benchmark
+	public String reformatEventData() throws Exception {
+		return eventDataTransformService.reformatEventData(payload);
+	}
+}
@@ -0,0 +1,140 @@
+/*Copyright (c) 2026 Oracle and/or its affiliates.
+
+The Universal Permissive License (UPL), Version 1.0
+
+Subject to the condition set forth below, permission is hereby granted to any
+person obtaining a copy of this software, associated documentation and/or data
+(collectively the "Software"), free of charge and under any and all copyright
+rights in the Software, and any and all patent rights owned or freely
+licensable by each licensor hereunder covering either (i) the unmodified
+Software as contributed to or provided by such licensor, or (ii) the Larger
+Works (as defined below), to deal in both
+
+(a) the Software, and
+(b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+one is included with the Software (each a "Larger Work" to which the Software
+is contributed by such licensors),
+
+without restriction, including without limitation the rights to copy, create
+derivative works of, display, perform, and distribute the Software and make,
+use, sell, offer for sale, import, export, have made, and have sold the
+Software and the Larger Work(s), and to sublicense the foregoing rights on
+either these or other terms.
+
+This license is subject to the following condition:
+The above copyright notice and either this complete permission notice or at
+a minimum a reference to the UPL must be included in all copies or
+substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+ */
+package com.oracle.timg.demo.iot.demogateway.benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.oracle.timg.demo.iot.demogateway.queue.EventQueueData;
+import com.oracle.timg.demo.iot.demogateway.queue.EventQueueRingBuffer;
+
+/*
+ * the same as EventQueueInMemoryBenchmark but for the ring buffer event queue
+ * so the two can be compared, plus taking the events in batches as the
+ * EventQueueProcessor does. As with the in memory benchmark the taking thread
+ * only calls getNext when there is something in the queue.
+ */
+@State(Scope.Group)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class EventQueueRingBufferBenchmark {
+	@Param({ "1024", "65536" })
+	public int queueSize;
+	@Param({ "10" })
+	public int batchSize;
+	@Param({ "BUSY_SPIN", "PARK" })
+	public String waitStrategy;
+	@Param({ "64" })
+	public int dispatchBatchSize;
+	private EventQueueRingBuffer eventQueue;
+	private EventQueueData event;
+	private List<EventQueueData> batch;
+	private List<EventQueueData> taken;
+
+	@Setup(Level.Iteration)
+	public void setup() {
+		eventQueue = new EventQueueRingBuffer(queueSize, waitStrategy, 1000);
+		event = new EventQueueData("device_0001", "{\"temperature\":21.5}");
+		batch = new ArrayList<>(batchSize);
+		for (int i = 0; i < batchSize; i++) {
+			batch.add(new EventQueueData("device_" + i, "{\"temperature\":21.5}"));
+		}
+		taken = new ArrayList<>(dispatchBatchSize);
+	}
+
+	@Benchmark
+	@Group("contended")
+	@GroupThreads(4)
+	public boolean add() {
+		return eventQueue.addToQueue(event);
+	}
+
+	@Benchmark
+	@Group("contended")
+	@GroupThreads(1)
+	public void take(Blackhole blackhole) throws InterruptedException {
+		// only one thread takes so if there is something there getNext won't block
+		if (eventQueue.getQueueSize() > 0) {
+			blackhole.consume(eventQueue.getNext());
+		}
+	}
+
+	@Benchmark
+	@Group("contendedBatch")
+	@GroupThreads(4)
+	public boolean addBatch() {
+		return eventQueue.addToQueue(batch);
+	}
+
+	@Benchmark
+	@Group("contendedBatch")
+	@GroupThreads(1)
+	public void takeBatch(Blackhole blackhole) throws InterruptedException {
+		if (eventQueue.getQueueSize() > 0) {
+			taken.clear();
+			blackhole.consume(eventQueue.getNext(taken, dispatchBatchSize));
+		}
+	}
+
+	@Benchmark
+	@Group("uncontended")
+	@GroupThreads(1)
+	public EventQueueData addThenTake() throws InterruptedException {
+		eventQueue.addToQueue(event);
+		return eventQueue.getNext();
+	}
+}
@@ -0,0 +1,110 @@
+/*Copyright (c) 2026 Oracle and/or its affiliates.
+
+The Universal Permissive License (UPL), Version 1.0
+
+Subject to the condition set forth below, permission is hereby granted to any
+person obtaining a copy of this software, associated documentation and/or data
+(collectively the "Software"), free of charge and under any and all copyright
+rights in the Software, and any and all patent rights owned or freely
+licensable by each licensor hereunder covering either (i) the unmodified
+Software as contributed to or provided by such licensor, or (ii) the Larger
+Works (as defined below), to deal in both
+
+(a) the Software, and
+(b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+one is included with the Software (each a "Larger Work" to which the Software
+is contributed by such licensors),
+
+without restriction, including without limitation the rights to copy, create
+derivative works of, display, perform, and distribute the Software and make,
+use, sell, offer for sale, import, export, have made, and have sold the
+Software and the Larger Work(s), and to sublicense the foregoing rights on
+either these or other terms.
+
+This license is subject to the following condition:
+The above copyright notice and either this complete permission notice or at
+a minimum a reference to the UPL must be included in all copies or
+substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+ */
+package com.oracle.timg.demo.iot.demogateway.benchmark;
+
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.xml.XmlMapper;
+import com.oracle.timg.demo.iot.demogateway.eventdatatransformer.EventDataTransformService;
+import com.oracle.timg.demo.iot.demogateway.eventdatatransformer.EventDataTransformerXmlInputToJsonOutputStreaming;
+import com.oracle.timg.demo.iot.demogateway.instancekeytransformer.InstanceKeyTransformService;
+import com.oracle.timg.demo.iot.demogateway.instancekeytransformer.InstanceKeyTransformerSnakeCaseToCamelCase;
+import com.oracle.timg.demo.iot.demogateway.instancekeytransformer.InstanceKeyTransformerToLowerCase;
+import com.oracle.timg.demo.iot.demogateway.metrics.GatewayMetrics;
+
+/*
+ * the per event work the EventQueueProcessor does once the instance is known,
+ * transforming the key and payload then sending it, using the stub client so
+ * there are no network calls
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(4)
+public class GatewayPipelineBenchmark {
+	@Param({ "1024", "51200" })
+	public int payloadSize;
+	@Param({ "10000" })
+	public int deviceCount;
+	private InstanceKeyTransformService instanceKeyTransformService;
+	private EventDataTransformService eventDataTransformService;
+	private StubIotServiceClient iotServiceClient;
+	private String[] keys;
+	private String payload;
+
+	@Setup
+	public void setup() {
+		GatewayMetrics gatewayMetrics = new GatewayMetrics(null);
+		instanceKeyTransformService = new InstanceKeyTransformService(List.of(new InstanceKeyTransformerToLowerCase(),
+				new InstanceKeyTransformerSnakeCaseToCamelCase()), gatewayMetrics, deviceCount);
+		instanceKeyTransformService.postConstruct();
+		eventDataTransformService = new EventDataTransformService(
+				List.of(new EventDataTransformerXmlInputToJsonOutputStreaming(new XmlMapper(), new ObjectMapper())),
+				gatewayMetrics);
+		eventDataTransformService.postConstruct();
+		iotServiceClient = new StubIotServiceClient();
+		keys = BenchmarkPayloads.instanceKeys(deviceCount);
+		payload = BenchmarkPayloads.xmlPayload(payloadSize);
+	}
+
+	@Benchmark
+	public Boolean processEvent() throws Exception {
+		String instanceKey = instanceKeyTransformService
+				.reformatInstanceKey(keys[ThreadLocalRandom.current().nextInt(keys.length)]);
+		String eventData = eventDataTransformService.reformatEventData(payload);
+		return iotServiceClient.sendEvent(instanceKey, "benchmark-secret", eventData);
+	}
+}
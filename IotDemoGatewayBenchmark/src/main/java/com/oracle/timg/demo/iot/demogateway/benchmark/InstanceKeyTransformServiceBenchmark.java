@@ -0,0 +1,95 @@
+/*Copyright (c) 2026 Oracle and/or its affiliates.
+
+The Universal Permissive License (UPL), Version 1.0
+
+Subject to the condition set forth below, permission is hereby granted to any
+person obtaining a copy of this software, associated documentation and/or data
+(collectively the "Software"), free of charge and under any and all copyright
+rights in the Software, and any and all patent rights owned or freely
+licensable by each licensor hereunder covering either (i) the unmodified
+Software as contributed to or provided by such licensor, or (ii) the Larger
+Works (as defined below), to deal in both
+
+(a) the Software, and
+(b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+one is included with the Software (each a "Larger Work" to which the Software
+is contributed by such licensors),
+
+without restriction, including without limitation the rights to copy, create
+derivative works of, display, perform, and distribute the Software and make,
+use, sell, offer for sale, import, export, have made, and have sold the
+Software and the Larger Work(s), and to sublicense the foregoing rights on
+either these or other terms.
+
+This license is subject to the following condition:
+The above copyright notice and either this complete permission notice or at
+a minimum a reference to the UPL must be included in all copies or
+substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+ */
+package com.oracle.timg.demo.iot.demogateway.benchmark;
+
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.oracle.timg.demo.iot.demogateway.instancekeytransformer.InstanceKeyTransformService;
+import com.oracle.timg.demo.iot.demogateway.instancekeytransformer.InstanceKeyTransformerSnakeCaseToCamelCase;
+import com.oracle.timg.demo.iot.demogateway.instancekeytransformer.InstanceKeyTransformerToLowerCase;
+import com.oracle.timg.demo.iot.demogateway.metrics.GatewayMetrics;
+
+/*
+ * runs the default instance key transformer chain (lower case then snake case
+ * to camel case) over a fleet of device keys, with and without the result
+ * cache
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(4)
+public class InstanceKeyTransformServiceBenchmark {
+	@Param({ "0", "200000" })
+	public int cacheSize;
+	@Param({ "100000" })
+	public int deviceCount;
+	private InstanceKeyTransformService instanceKeyTransformService;
+	private String[] keys;
+
+	@Setup
+	public void setup() {
+		// the transformers don't have their order set outside of Micronaut so they
+		// stay in list order
+		instanceKeyTransformService = new InstanceKeyTransformService(List.of(new InstanceKeyTransformerToLowerCase(),
+				new InstanceKeyTransformerSnakeCaseToCamelCase()), new GatewayMetrics(null), cacheSize);
+		instanceKeyTransformService.postConstruct();
+		keys = BenchmarkPayloads.instanceKeys(deviceCount);
+	}
+
+	@Benchmark
+	public String reformatInstanceKey() throws Exception {
+		return instanceKeyTransformService.reformatInstanceKey(keys[ThreadLocalRandom.current().nextInt(keys.length)]);
+	}
+}
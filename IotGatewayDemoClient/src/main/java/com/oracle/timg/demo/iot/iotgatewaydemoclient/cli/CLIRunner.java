@@ -22,6 +22,7 @@ import com.oracle.timg.oci.vault.VaultProcessor;
 
 import io.micronaut.context.ApplicationContext;
 import io.micronaut.context.annotation.Property;
+import io.micronaut.context.annotation.Requires;
 import io.micronaut.context.event.StartupEvent;
 import io.micronaut.runtime.event.annotation.EventListener;
 import jakarta.inject.Inject;
@@ -36,6 +37,8 @@ import timgutilities.textio.TextIOUtils;
 import timgutilities.textio.TextIOUtils.NUM_TYPE;
 
 @Singleton
+// the load test runs on it's own without any input
+@Requires(property = "loadtest.enabled", notEquals = "true")
 public class CLIRunner implements Runnable {
 	private final AuthenticationProcessor authenticationProcessor;
 	private final IdentityProcessor identityProcessor;
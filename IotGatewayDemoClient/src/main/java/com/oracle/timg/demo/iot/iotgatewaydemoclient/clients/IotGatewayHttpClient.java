@@ -2,6 +2,9 @@ package com.oracle.timg.demo.iot.iotgatewaydemoclient.clients;
 
 import static io.micronaut.http.HttpHeaders.USER_AGENT;
 
+import java.util.concurrent.CompletableFuture;
+
+import io.micronaut.http.HttpResponse;
 import io.micronaut.http.MediaType;
 import io.micronaut.http.annotation.Body;
 import io.micronaut.http.annotation.Consumes;
@@ -18,4 +21,12 @@ public interface IotGatewayHttpClient {
 	@Consumes(value = MediaType.TEXT_PLAIN)
 	public void processIncommingEvent(@PathVariable(name = "sourceId") String sourceId, @Body String payload);
 
+	// doesn't wait for the response, the future completes exceptionally with a
+	// HttpClientResponseException if the gateway returns an error status (e.g. a
+	// 429 if it's event queue is full)
+	@Post("/newevent/{sourceId}")
+	@Consumes(value = MediaType.TEXT_PLAIN)
+	public CompletableFuture<HttpResponse<String>> processIncommingEventAsync(
+			@PathVariable(name = "sourceId") String sourceId, @Body String payload);
+
 }
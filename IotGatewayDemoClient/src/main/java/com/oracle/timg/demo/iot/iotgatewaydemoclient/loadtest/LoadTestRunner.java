@@ -0,0 +1,285 @@
+package com.oracle.timg.demo.iot.iotgatewaydemoclient.loadtest;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.fasterxml.jackson.dataformat.xml.XmlMapper;
+import com.oracle.timg.demo.iot.iotgatewaydemoclient.cli.TestDataFormat;
+import com.oracle.timg.demo.iot.iotgatewaydemoclient.clients.IotGatewayHttpClient;
+
+import io.micronaut.context.ApplicationContext;
+import io.micronaut.context.annotation.Property;
+import io.micronaut.context.annotation.Requires;
+import io.micronaut.context.event.StartupEvent;
+import io.micronaut.http.HttpResponse;
+import io.micronaut.http.HttpStatus;
+import io.micronaut.http.client.exceptions.HttpClientResponseException;
+import io.micronaut.runtime.event.annotation.EventListener;
+import jakarta.inject.Inject;
+import jakarta.inject.Singleton;
+import timgutilities.textio.TextIOUtils;
+
+/**
+ * Generates load on the gateway without any input, this is an "open" model, the
+ * events are sent at the target rate (with random, Poisson, arrivals spread
+ * over the virtual devices) regardless of how quickly the gateway responds, so
+ * if the gateway can't keep up the latency and error counts show it rather than
+ * the load just dropping. Latency is measured from when the event should have
+ * been sent, not when it actually was, so a stall in the sender shows up in the
+ * results as well. If the limit on outstanding requests is reached the sender
+ * waits for a response before sending, the events it sends late still have
+ * their latency measured from when they should have been sent so the wait is
+ * included rather than hidden.
+ */
+@Singleton
+@Requires(property = "loadtest.enabled", value = "true")
+public class LoadTestRunner implements Runnable {
+	// a minute, anything longer than this is recorded as a minute
+	private static final long HIGHEST_TRACKABLE_MICROS = TimeUnit.MINUTES.toMicros(1);
+	private static final int SIGNIFICANT_DIGITS = 3;
+	private final ApplicationContext appCtxt;
+	private final IotGatewayHttpClient iotGatewayHttpClient;
+	private final ObjectMapper jsonMapper;
+	private final XmlMapper xmlMapper;
+	private final int deviceCount;
+	private final String devicePrefix;
+	private final double rate;
+	private final int duration;
+	private final int reportInterval;
+	private final int maxOutstanding;
+	private final TestDataFormat format;
+	private final boolean fullDistribution;
+	private final Semaphore outstanding;
+	private final Recorder latencyRecorder = new Recorder(HIGHEST_TRACKABLE_MICROS, SIGNIFICANT_DIGITS);
+	private final LongAdder sent = new LongAdder();
+	private final LongAdder accepted = new LongAdder();
+	private final LongAdder tooManyRequests = new LongAdder();
+	private final LongAdder serviceUnavailable = new LongAdder();
+	private final LongAdder otherHttpErrors = new LongAdder();
+	private final LongAdder connectionErrors = new LongAdder();
+	private final LongAdder notSent = new LongAdder();
+
+	@Inject
+	public LoadTestRunner(ApplicationContext appCtxt, IotGatewayHttpClient iotGatewayHttpClient,
+			ObjectMapper jsonMapper, XmlMapper xmlMapper,
+			@Property(name = "loadtest.devices", defaultValue = "1000") int deviceCount,
+			@Property(name = "loadtest.deviceprefix", defaultValue = "loadtest_device_") String devicePrefix,
+			@Property(name = "loadtest.rate", defaultValue = "100") double rate,
+			@Property(name = "loadtest.duration", defaultValue = "60") int duration,
+			@Property(name = "loadtest.reportinterval", defaultValue = "5") int reportInterval,
+			@Property(name = "loadtest.maxoutstanding", defaultValue = "10000") int maxOutstanding,
+			@Property(name = "loadtest.format", defaultValue = "JSON") TestDataFormat format,
+			@Property(name = "loadtest.fulldistribution", defaultValue = "false") boolean fullDistribution) {
+		this.appCtxt = appCtxt;
+		this.iotGatewayHttpClient = iotGatewayHttpClient;
+		this.jsonMapper = jsonMapper;
+		this.xmlMapper = xmlMapper;
+		this.deviceCount = deviceCount;
+		this.devicePrefix = devicePrefix;
+		this.rate = rate;
+		this.duration = duration;
+		this.reportInterval = reportInterval;
+		this.maxOutstanding = maxOutstanding;
+		this.format = format;
+		this.fullDistribution = fullDistribution;
+		this.outstanding = new Semaphore(maxOutstanding);
+	}
+
+	@EventListener
+	public void onStartup(StartupEvent event) {
+		TextIOUtils.doOutput("Startup event received, starting load test");
+		Thread runThread = new Thread(this, "load-test");
+		runThread.start();
+	}
+
+	@Override
+	public void run() {
+		TextIOUtils.doOutput("Load test sending " + format + " events from " + deviceCount + " devices at " + rate
+				+ " events per second for " + duration + " seconds");
+		String[] deviceIds = new String[deviceCount];
+		for (int i = 0; i < deviceCount; i++) {
+			deviceIds[i] = devicePrefix + i;
+		}
+		Histogram totalHistogram = new Histogram(HIGHEST_TRACKABLE_MICROS, SIGNIFICANT_DIGITS);
+		Histogram intervalHistogram = null;
+		long reportIntervalNanos = TimeUnit.SECONDS.toNanos(Math.max(1, reportInterval));
+		long startTime = System.nanoTime();
+		long endTime = startTime + TimeUnit.SECONDS.toNanos(duration);
+		long nextReport = startTime + reportIntervalNanos;
+		long lastReport = startTime;
+		long lastReportAccepted = 0;
+		double meanGapNanos = TimeUnit.SECONDS.toNanos(1) / rate;
+		double nextArrival = startTime;
+		while (true) {
+			// the gaps between Poisson arrivals are exponentially distributed
+			nextArrival += -Math.log(1 - ThreadLocalRandom.current().nextDouble()) * meanGapNanos;
+			long intendedStart = (long) nextArrival;
+			if (intendedStart >= endTime) {
+				break;
+			}
+			long now;
+			while ((now = System.nanoTime()) < intendedStart) {
+				LockSupport.parkNanos(intendedStart - now);
+			}
+			if (now >= nextReport) {
+				intervalHistogram = latencyRecorder.getIntervalHistogram(intervalHistogram);
+				totalHistogram.add(intervalHistogram);
+				long acceptedCount = accepted.sum();
+				reportInterval(intervalHistogram, acceptedCount - lastReportAccepted, now - lastReport, now - startTime);
+				lastReportAccepted = acceptedCount;
+				lastReport = now;
+				nextReport += reportIntervalNanos;
+			}
+			sendEvent(deviceIds[ThreadLocalRandom.current().nextInt(deviceIds.length)], intendedStart);
+		}
+		long sendingFinished = System.nanoTime();
+		TextIOUtils.doOutput("Finished sending, waiting for " + (maxOutstanding - outstanding.availablePermits())
+				+ " outstanding responses");
+		try {
+			if (!outstanding.tryAcquire(maxOutstanding, 60, TimeUnit.SECONDS)) {
+				TextIOUtils.doOutput("Gave up waiting for " + (maxOutstanding - outstanding.availablePermits())
+						+ " outstanding responses");
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		long finished = System.nanoTime();
+		totalHistogram.add(latencyRecorder.getIntervalHistogram());
+		reportTotals(totalHistogram, sendingFinished - startTime, finished - startTime);
+		appCtxt.stop();
+		TextIOUtils.doOutput("Application server context shutdown");
+	}
+
+	private void sendEvent(String deviceId, long intendedStart) {
+		// if the gateway has stopped responding don't keep piling up requests, wait for
+		// it to catch up, the latency is still measured from the intended start so the
+		// wait counts against the gateway. If it's not responded at all for longer than
+		// we can track give up on this event but record it as taking that long
+		try {
+			if (!outstanding.tryAcquire(HIGHEST_TRACKABLE_MICROS, TimeUnit.MICROSECONDS)) {
+				notSent.increment();
+				latencyRecorder.recordValue(HIGHEST_TRACKABLE_MICROS);
+				return;
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			notSent.increment();
+			return;
+		}
+		sent.increment();
+		CompletableFuture<HttpResponse<String>> response;
+		try {
+			response = iotGatewayHttpClient.processIncommingEventAsync(deviceId, buildPayload());
+		} catch (RuntimeException e) {
+			recordError(e);
+			outstanding.release();
+			return;
+		}
+		response.whenComplete((httpResponse, throwable) -> {
+			if (throwable == null) {
+				long latencyMicros = TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - intendedStart);
+				latencyRecorder.recordValue(Math.min(latencyMicros, HIGHEST_TRACKABLE_MICROS));
+				accepted.increment();
+			} else {
+				recordError(throwable);
+			}
+			outstanding.release();
+		});
+	}
+
+	private void recordError(Throwable throwable) {
+		Throwable cause = throwable instanceof CompletionException ? throwable.getCause() : throwable;
+		if (cause instanceof HttpClientResponseException responseException) {
+			if (responseException.getStatus() == HttpStatus.TOO_MANY_REQUESTS) {
+				tooManyRequests.increment();
+			} else if (responseException.getStatus() == HttpStatus.SERVICE_UNAVAILABLE) {
+				serviceUnavailable.increment();
+			} else {
+				otherHttpErrors.increment();
+			}
+		} else {
+			connectionErrors.increment();
+		}
+	}
+
+	/**
+	 * the same data as the standard model test data in the CLI, with random values
+	 *
+	 * @return
+	 */
+	private String buildPayload() {
+		ThreadLocalRandom random = ThreadLocalRandom.current();
+		ObjectNode root = jsonMapper.createObjectNode();
+		root.put("currentBatteryCapacityPercentage", random.nextInt(101));
+		root.put("operatingMode", 2);
+		root.put("reservedBatteryCapacityPercentage", random.nextInt(21));
+		root.put("comment", "Load test");
+		root.put("time", System.currentTimeMillis());
+		root.put("timestamp", DateTimeFormatter.ISO_DATE_TIME.format(LocalDateTime.now()));
+		try {
+			return format == TestDataFormat.XML ? xmlMapper.writeValueAsString(root)
+					: jsonMapper.writeValueAsString(root);
+		} catch (JsonProcessingException e) {
+			throw new IllegalStateException("Problem converting load test data to " + format, e);
+		}
+	}
+
+	private void reportInterval(Histogram histogram, long acceptedCount, long intervalNanos, long elapsedNanos) {
+		double seconds = intervalNanos / 1e9;
+		TextIOUtils.doOutput(String.format(
+				"%6.1fs: %8.1f accepted/s, p50=%.2fms, p99=%.2fms, max=%.2fms, outstanding=%d, %s",
+				elapsedNanos / 1e9, acceptedCount / seconds, millis(histogram.getValueAtPercentile(50)),
+				millis(histogram.getValueAtPercentile(99)), millis(histogram.getMaxValue()),
+				maxOutstanding - outstanding.availablePermits(), getErrorCounts()));
+	}
+
+	private void reportTotals(Histogram histogram, long sendingNanos, long totalNanos) {
+		double sendingSeconds = sendingNanos / 1e9;
+		double totalSeconds = totalNanos / 1e9;
+		StringBuilder report = new StringBuilder("Load test results\n");
+		report.append(String.format("Target rate %.1f events/s, offered %.1f events/s (%d sent in %.1fs)\n", rate,
+				sent.sum() / sendingSeconds, sent.sum(), sendingSeconds));
+		report.append(String.format("Throughput %.1f accepted events/s (%d accepted in %.1fs)\n",
+				accepted.sum() / totalSeconds, accepted.sum(), totalSeconds));
+		report.append(getErrorCounts()).append("\n");
+		report.append(String.format("Latency of accepted and not sent (counted as a minute) events (ms) "
+				+ "p50=%.2f, p90=%.2f, p99=%.2f, p99.9=%.2f, p99.99=%.2f, max=%.2f",
+				millis(histogram.getValueAtPercentile(50)), millis(histogram.getValueAtPercentile(90)),
+				millis(histogram.getValueAtPercentile(99)), millis(histogram.getValueAtPercentile(99.9)),
+				millis(histogram.getValueAtPercentile(99.99)), millis(histogram.getMaxValue())));
+		TextIOUtils.doOutput(report.toString());
+		if (fullDistribution) {
+			ByteArrayOutputStream distribution = new ByteArrayOutputStream();
+			try (PrintStream distributionStream = new PrintStream(distribution, true, StandardCharsets.UTF_8)) {
+				histogram.outputPercentileDistribution(distributionStream, 1000.0);
+			}
+			TextIOUtils.doOutput("Latency distribution (ms)\n" + distribution.toString(StandardCharsets.UTF_8));
+		}
+	}
+
+	private String getErrorCounts() {
+		return "429 responses=" + tooManyRequests.sum() + ", 503 responses=" + serviceUnavailable.sum()
+				+ ", other http errors=" + otherHttpErrors.sum() + ", connection errors=" + connectionErrors.sum()
+				+ ", not sent (no response to outstanding requests in time)=" + notSent.sum();
+	}
+
+	private static double millis(long micros) {
+		return micros / 1000.0;
+	}
+}